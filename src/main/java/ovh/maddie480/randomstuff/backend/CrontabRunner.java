@@ -66,12 +66,15 @@ public class CrontabRunner {
         if (arg.equals("--daily")) {
             runDailyProcesses();
             sendMessageToWebhook(SecretConstants.UPDATE_CHECKER_LOGS_HOOK, ":white_check_mark: Daily processes completed!");
+            DiscardableJDA.shutdownAll();
+            WebhookExecutor.awaitPendingMessages();
             System.exit(0);
             return;
         }
 
         if (arg.equals("--hourly")) {
             runHourlyProcesses();
+            DiscardableJDA.shutdownAll();
             return;
         }
 
@@ -203,15 +206,16 @@ public class CrontabRunner {
         runProcessAndAlertOnException("QuestCommunityWebsiteHealthCheck.run()", () -> QuestCommunityWebsiteHealthCheck.run());
         runProcessAndAlertOnException("SlashCommandBotHealthCheck.checkSlashCommands()", () -> SlashCommandBotHealthCheck.checkSlashCommands());
 
-        runProcessAndAlertOnException("StonkUpdateChecker.postTo(client.getTextChannelById(551822297573490749L))", () -> {
-            try (DiscardableJDA client = new DiscardableJDA(SecretConstants.QUEST_COMMUNITY_BOT_TOKEN)) {
-                StonkUpdateChecker.postTo(client.getTextChannelById(551822297573490749L));
+        // the Quest Community Bot session is shared by all tasks below, so start it with all the intents they need
+        runProcessAndAlertOnException("PlatformBackup.run(client)", () -> {
+            try (DiscardableJDA client = new DiscardableJDA(SecretConstants.QUEST_COMMUNITY_BOT_TOKEN, GatewayIntent.GUILD_MESSAGES, GatewayIntent.MESSAGE_CONTENT)) {
+                PlatformBackup.run(client);
             }
         });
 
-        runProcessAndAlertOnException("PlatformBackup.run(client)", () -> {
-            try (DiscardableJDA client = new DiscardableJDA(SecretConstants.QUEST_COMMUNITY_BOT_TOKEN, GatewayIntent.MESSAGE_CONTENT)) {
-                PlatformBackup.run(client);
+        runProcessAndAlertOnException("StonkUpdateChecker.postTo(client.getTextChannelById(551822297573490749L))", () -> {
+            try (DiscardableJDA client = new DiscardableJDA(SecretConstants.QUEST_COMMUNITY_BOT_TOKEN)) {
+                StonkUpdateChecker.postTo(client.getTextChannelById(551822297573490749L));
             }
         });
 
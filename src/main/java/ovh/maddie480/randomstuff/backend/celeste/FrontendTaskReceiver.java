@@ -19,6 +19,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * When a user asks for mod structure verifying or for font generating with BMFont on the website,
@@ -29,6 +31,10 @@ import java.util.List;
 public class FrontendTaskReceiver {
     private static final Logger log = LoggerFactory.getLogger(FrontendTaskReceiver.class);
 
+    // font generations are slow, so run them on the side instead of holding up all other requests
+    private static final ExecutorService fontGenerators = Executors.newFixedThreadPool(2,
+            runnable -> new Thread(runnable, "Frontend Font Generator"));
+
     /**
      * Starts listening for pub/sub messages.
      */
@@ -68,9 +74,17 @@ public class FrontendTaskReceiver {
                             withPathsCheck ? o.getString("mapFolderName") : null,
                             withPathsCheck ? o.getString("assetFolderName") : null);
                 }
-                case "fontGenerate" -> handleFontGenerateRequest(o.getString("fileName"), o.getString("language"));
-                case "customFontGenerate" -> handleCustomFontGenerateRequest(o.getString("textFileName"),
-                        o.getString("fontFileName"), o.getString("resultFontFileName"));
+                case "fontGenerate" -> {
+                    String fileName = o.getString("fileName");
+                    String language = o.getString("language");
+                    fontGenerators.execute(() -> handleFontGenerateRequest(fileName, language));
+                }
+                case "customFontGenerate" -> {
+                    String textFileName = o.getString("textFileName");
+                    String fontFileName = o.getString("fontFileName");
+                    String resultFontFileName = o.getString("resultFontFileName");
+                    fontGenerators.execute(() -> handleCustomFontGenerateRequest(textFileName, fontFileName, resultFontFileName));
+                }
                 case "fileSearch" -> {
                     try {
                         ModFileSearcher.findAllModsByFile(
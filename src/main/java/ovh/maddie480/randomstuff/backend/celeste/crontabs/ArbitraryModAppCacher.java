@@ -1,5 +1,7 @@
 package ovh.maddie480.randomstuff.backend.celeste.crontabs;
 
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
 import org.json.JSONArray;
 import org.json.JSONTokener;
@@ -11,7 +13,18 @@ import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A small script that is called daily in order to cache GameBanana API results for Arbitrary Mod App users.
@@ -19,10 +32,17 @@ import java.nio.file.Paths;
  * <p>
  * Everything in the /shared/temp folder is removed 1 day after being added,
  * so no cleanup process is needed for mods that were removed from the Arbitrary Mod App.
+ * Files whose contents did not change are only touched to keep them around, instead of being written again.
  */
 public class ArbitraryModAppCacher {
     private static final Logger logger = LoggerFactory.getLogger(ArbitraryModAppCacher.class);
 
+    private static final Path CACHE_DIRECTORY = Paths.get("/shared/temp/arbitrary-mod-app-cache");
+
+    // stay gentle with GameBanana: a few requests at once, and a few requests per second at most
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+    private static final RateLimiter gameBananaRateLimiter = RateLimiter.create(4); // requests per second
+
     public static void refreshArbitraryModAppCache() throws IOException {
         JSONArray modList;
         try (InputStream is = ConnectionUtils.openStreamWithTimeout(
@@ -33,21 +53,84 @@ public class ArbitraryModAppCacher {
 
         logger.debug("Got list of mods to cache: {}", modList);
 
-        for (Object item : modList) {
-            String modId = item.toString();
-            logger.debug("Caching mod {}...", modId);
+        // refresh the mods that were cached the longest time ago first (or that are not cached at all),
+        // so that they are the ones that get refreshed if GameBanana gives up on us midway
+        List<String> modIds = new ArrayList<>();
+        for (Object item : modList) modIds.add(item.toString());
+        modIds.sort(Comparator.comparingLong(modId -> {
+            Path file = CACHE_DIRECTORY.resolve(modId + ".json");
+            return file.toFile().exists() ? file.toFile().lastModified() : Long.MIN_VALUE;
+        }));
+
+        ExecutorService fetchers = Executors.newFixedThreadPool(MAX_CONCURRENT_REQUESTS,
+                runnable -> new Thread(runnable, "Arbitrary Mod App Cacher"));
+
+        int changed = 0;
+        IOException error = null;
 
-            byte[] modInfo = ConnectionUtils.runWithRetry(() -> {
-                try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://gamebanana.com/apiv8/Mod/" + modId +
-                        "?_csvProperties=_sProfileUrl,_sName,_aPreviewMedia,_tsDateAdded,_tsDateUpdated,_aGame,_aRootCategory,_aSubmitter,_bIsWithheld,_bIsTrashed,_bIsPrivate,_nViewCount,_nLikeCount,_nPostCount")) {
+        try {
+            Map<String, Future<Boolean>> refreshes = new LinkedHashMap<>();
+            for (String modId : modIds) {
+                refreshes.put(modId, fetchers.submit(() -> refreshMod(modId)));
+            }
 
-                    return IOUtils.toByteArray(is);
+            for (Map.Entry<String, Future<Boolean>> refresh : refreshes.entrySet()) {
+                try {
+                    if (refresh.getValue().get()) changed++;
+                } catch (ExecutionException e) {
+                    // keep going with the other mods, and report the error at the end
+                    logger.error("Could not cache mod {}", refresh.getKey(), e.getCause());
+                    if (error == null) {
+                        error = new IOException("Could not cache mod " + refresh.getKey(), e.getCause());
+                    } else {
+                        error.addSuppressed(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
                 }
-            });
+            }
+        } finally {
+            fetchers.shutdownNow();
+        }
+
+        if (error != null) throw error;
+
+        logger.info("Caching done! {} out of {} mods changed.", changed, modIds.size());
+    }
+
+    /**
+     * Fetches a mod from GameBanana, and writes it to the cache if it changed.
+     *
+     * @return Whether the cached file was written
+     */
+    private static boolean refreshMod(String modId) throws IOException {
+        logger.debug("Caching mod {}...", modId);
+
+        byte[] modInfo = ConnectionUtils.runWithRetry(() -> {
+            gameBananaRateLimiter.acquire();
+
+            try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://gamebanana.com/apiv8/Mod/" + modId +
+                    "?_csvProperties=_sProfileUrl,_sName,_aPreviewMedia,_tsDateAdded,_tsDateUpdated,_aGame,_aRootCategory,_aSubmitter,_bIsWithheld,_bIsTrashed,_bIsPrivate,_nViewCount,_nLikeCount,_nPostCount")) {
+
+                return IOUtils.toByteArray(is);
+            }
+        });
+
+        Path file = CACHE_DIRECTORY.resolve(modId + ".json");
+        if (Files.exists(file)) {
+            String previousHash;
+            try (InputStream is = Files.newInputStream(file)) {
+                previousHash = DigestUtils.sha256Hex(is);
+            }
 
-            Files.write(Paths.get("/shared/temp/arbitrary-mod-app-cache/" + modId + ".json"), modInfo);
+            if (previousHash.equals(DigestUtils.sha256Hex(modInfo))) {
+                logger.debug("Mod {} did not change", modId);
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                return false;
+            }
         }
 
-        logger.info("Caching done!");
+        Files.write(file, modInfo);
+        return true;
     }
 }
@@ -0,0 +1,381 @@
+package ovh.maddie480.randomstuff.backend.celeste.crontabs;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the metadata and the IL code of a .NET assembly to look for calls that mods shouldn't make,
+ * without having to decompile it. See ECMA-335 partition II for the format of all the structures read here.
+ */
+final class AssemblyScanner {
+    /**
+     * What was found in an assembly.
+     *
+     * @param yieldsOrigInvoke      Whether the assembly has an iterator doing a "yield return orig(self)" on a hook
+     * @param callsConsoleWriteLine Whether the assembly calls Console.WriteLine
+     */
+    record Verdict(boolean yieldsOrigInvoke, boolean callsConsoleWriteLine) {
+    }
+
+    static class InvalidAssemblyException extends IOException {
+        private InvalidAssemblyException(String message) {
+            super(message);
+        }
+
+        private InvalidAssemblyException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    // metadata tables we need to read, and the ones that are used in the coded indices of those tables
+    private static final int MODULE = 0x00;
+    private static final int TYPE_REF = 0x01;
+    private static final int TYPE_DEF = 0x02;
+    private static final int FIELD_PTR = 0x03;
+    private static final int FIELD = 0x04;
+    private static final int METHOD_PTR = 0x05;
+    private static final int METHOD_DEF = 0x06;
+    private static final int PARAM_PTR = 0x07;
+    private static final int PARAM = 0x08;
+    private static final int INTERFACE_IMPL = 0x09;
+    private static final int MEMBER_REF = 0x0A;
+    private static final int MODULE_REF = 0x1A;
+    private static final int TYPE_SPEC = 0x1B;
+    private static final int ASSEMBLY_REF = 0x23;
+
+    private static final int[] RESOLUTION_SCOPE = {MODULE, MODULE_REF, ASSEMBLY_REF, TYPE_REF};
+    private static final int[] TYPE_DEF_OR_REF = {TYPE_DEF, TYPE_REF, TYPE_SPEC};
+    private static final int[] MEMBER_REF_PARENT = {TYPE_DEF, TYPE_REF, MODULE_REF, METHOD_DEF, TYPE_SPEC};
+
+    // opcodes we are interested in
+    private static final int JMP = 0x27;
+    private static final int CALL = 0x28;
+    private static final int CALLVIRT = 0x6F;
+    private static final int STFLD = 0x7D;
+    private static final int SWITCH = 0x45;
+    private static final int LDFTN = 0xFE06;
+    private static final int LDVIRTFTN = 0xFE07;
+
+    // operand sizes of one-byte opcodes (switch has a variable size and is handled separately)
+    private static final int[] OPERAND_SIZES = new int[256];
+
+    // operand sizes of two-byte opcodes (0xFE xx)
+    private static final int[] EXTENDED_OPERAND_SIZES = new int[256];
+
+    static {
+        for (int opcode : new int[]{0x0E, 0x0F, 0x10, 0x11, 0x12, 0x13, 0x1F, 0xDE}) OPERAND_SIZES[opcode] = 1;
+        for (int opcode = 0x2B; opcode <= 0x37; opcode++) OPERAND_SIZES[opcode] = 1; // short branches
+        for (int opcode = 0x38; opcode <= 0x44; opcode++) OPERAND_SIZES[opcode] = 4; // long branches
+        for (int opcode : new int[]{0x20, 0x22, 0x27, 0x28, 0x29, 0x6F, 0x70, 0x71, 0x72, 0x73, 0x74, 0x75, 0x79, 0x7B, 0x7C,
+                0x7D, 0x7E, 0x7F, 0x80, 0x81, 0x8C, 0x8D, 0x8F, 0xA3, 0xA4, 0xA5, 0xC2, 0xC6, 0xD0, 0xDD}) {
+            OPERAND_SIZES[opcode] = 4;
+        }
+        OPERAND_SIZES[0x21] = 8; // ldc.i8
+        OPERAND_SIZES[0x23] = 8; // ldc.r8
+
+        for (int opcode : new int[]{0x12, 0x19}) EXTENDED_OPERAND_SIZES[opcode] = 1;
+        for (int opcode : new int[]{0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E}) EXTENDED_OPERAND_SIZES[opcode] = 2;
+        for (int opcode : new int[]{0x06, 0x07, 0x15, 0x16, 0x1C}) EXTENDED_OPERAND_SIZES[opcode] = 4;
+    }
+
+    private final ByteBuffer file;
+    private final int[][] sections; // virtual address, virtual size, pointer to raw data
+
+    private int tablesStream = -1;
+    private int stringHeap = -1;
+    private final int[] rowCounts = new int[64];
+    private final int[] tableOffsets = new int[64];
+    private final int[] rowSizes = new int[64];
+    private int stringIndexSize;
+    private int guidIndexSize;
+    private int blobIndexSize;
+
+    private boolean yieldsOrigInvoke = false;
+    private boolean callsConsoleWriteLine = false;
+
+    /**
+     * Scans the given assembly.
+     *
+     * @param dll The contents of the DLL
+     * @return What was found in the assembly
+     * @throws InvalidAssemblyException If the file is not a .NET assembly or could not be read
+     */
+    static Verdict scan(byte[] dll) throws InvalidAssemblyException {
+        try {
+            AssemblyScanner scanner = new AssemblyScanner(dll);
+            scanner.readMetadata();
+            scanner.scanMethodBodies();
+            return new Verdict(scanner.yieldsOrigInvoke, scanner.callsConsoleWriteLine);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | NegativeArraySizeException | IllegalArgumentException |
+                 ArithmeticException e) {
+            // malformed sizes and offsets in the metadata end up as one of those
+            throw new InvalidAssemblyException("Assembly is truncated or corrupted", e);
+        }
+    }
+
+    private AssemblyScanner(byte[] dll) throws InvalidAssemblyException {
+        file = ByteBuffer.wrap(dll).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (file.getShort(0) != 0x5A4D) throw new InvalidAssemblyException("Missing MZ signature");
+        int peHeader = file.getInt(0x3C);
+        if (file.getInt(peHeader) != 0x00004550) throw new InvalidAssemblyException("Missing PE signature");
+
+        int coffHeader = peHeader + 4;
+        int sectionCount = file.getShort(coffHeader + 2) & 0xFFFF;
+        int optionalHeaderSize = file.getShort(coffHeader + 16) & 0xFFFF;
+        int optionalHeader = coffHeader + 20;
+
+        sections = new int[sectionCount][];
+        for (int i = 0; i < sectionCount; i++) {
+            int section = optionalHeader + optionalHeaderSize + i * 40;
+            sections[i] = new int[]{
+                    file.getInt(section + 12),
+                    Math.max(file.getInt(section + 8), file.getInt(section + 16)),
+                    file.getInt(section + 20)
+            };
+        }
+
+        // data directory 14 is the CLI header, and it only exists in .NET assemblies
+        boolean pe32Plus = (file.getShort(optionalHeader) & 0xFFFF) == 0x20B;
+        int cliHeaderRva = file.getInt(optionalHeader + (pe32Plus ? 112 : 96) + 14 * 8);
+        if (cliHeaderRva == 0) throw new InvalidAssemblyException("Not a .NET assembly");
+
+        int cliHeader = rvaToOffset(cliHeaderRva);
+        int metadataRoot = rvaToOffset(file.getInt(cliHeader + 8));
+        if (file.getInt(metadataRoot) != 0x424A5342) throw new InvalidAssemblyException("Missing metadata signature");
+
+        int versionLength = file.getInt(metadataRoot + 12);
+        int streamCount = file.getShort(metadataRoot + 16 + versionLength + 2) & 0xFFFF;
+        int streamHeader = metadataRoot + 16 + versionLength + 4;
+
+        for (int i = 0; i < streamCount; i++) {
+            int offset = file.getInt(streamHeader);
+            String name = readNullTerminatedString(streamHeader + 8);
+            streamHeader += 8 + (name.length() + 4) / 4 * 4;
+
+            switch (name) {
+                case "#~", "#-" -> tablesStream = metadataRoot + offset;
+                case "#Strings" -> stringHeap = metadataRoot + offset;
+            }
+        }
+        if (tablesStream == -1 || stringHeap == -1) throw new InvalidAssemblyException("Missing metadata streams");
+    }
+
+    private void readMetadata() {
+        int heapSizes = file.get(tablesStream + 6) & 0xFF;
+        long presentTables = file.getLong(tablesStream + 8);
+
+        stringIndexSize = (heapSizes & 0x01) != 0 ? 4 : 2;
+        guidIndexSize = (heapSizes & 0x02) != 0 ? 4 : 2;
+        blobIndexSize = (heapSizes & 0x04) != 0 ? 4 : 2;
+
+        int position = tablesStream + 24;
+        for (int table = 0; table < 64; table++) {
+            if ((presentTables >>> table & 1) != 0) {
+                rowCounts[table] = file.getInt(position);
+                position += 4;
+            }
+        }
+        if ((heapSizes & 0x40) != 0) position += 4; // extra data
+
+        // tables are stored one after the other, and we only need to find the ones up to MemberRef
+        rowSizes[MODULE] = 2 + stringIndexSize + 3 * guidIndexSize;
+        rowSizes[TYPE_REF] = codedIndexSize(RESOLUTION_SCOPE) + 2 * stringIndexSize;
+        rowSizes[TYPE_DEF] = 4 + 2 * stringIndexSize + codedIndexSize(TYPE_DEF_OR_REF) + indexSize(FIELD) + indexSize(METHOD_DEF);
+        rowSizes[FIELD_PTR] = indexSize(FIELD);
+        rowSizes[FIELD] = 2 + stringIndexSize + blobIndexSize;
+        rowSizes[METHOD_PTR] = indexSize(METHOD_DEF);
+        rowSizes[METHOD_DEF] = 4 + 2 + 2 + stringIndexSize + blobIndexSize + indexSize(PARAM);
+        rowSizes[PARAM_PTR] = indexSize(PARAM);
+        rowSizes[PARAM] = 2 + 2 + stringIndexSize;
+        rowSizes[INTERFACE_IMPL] = indexSize(TYPE_DEF) + codedIndexSize(TYPE_DEF_OR_REF);
+        rowSizes[MEMBER_REF] = codedIndexSize(MEMBER_REF_PARENT) + stringIndexSize + blobIndexSize;
+
+        for (int table = MODULE; table <= MEMBER_REF; table++) {
+            tableOffsets[table] = position;
+            position += rowCounts[table] * rowSizes[table];
+        }
+    }
+
+    private void scanMethodBodies() throws InvalidAssemblyException {
+        for (int method = 1; method <= rowCounts[METHOD_DEF]; method++) {
+            int rva = file.getInt(rowOffset(METHOD_DEF, method));
+            if (rva != 0) { // abstract, extern and runtime-implemented methods have no body
+                scanMethodBody(rvaToOffset(rva));
+            }
+        }
+    }
+
+    private void scanMethodBody(int offset) throws InvalidAssemblyException {
+        int header = file.get(offset) & 0xFF;
+        int codeStart, codeSize;
+
+        if ((header & 0x03) == 0x02) { // tiny header
+            codeStart = offset + 1;
+            codeSize = header >> 2;
+        } else if ((header & 0x03) == 0x03) { // fat header
+            codeStart = offset + (file.getShort(offset) >> 12 & 0x0F) * 4;
+            codeSize = file.getInt(offset + 4);
+        } else {
+            throw new InvalidAssemblyException("Invalid method body header at offset " + offset);
+        }
+
+        if (codeSize < 0 || codeSize > file.limit() - codeStart) {
+            throw new InvalidAssemblyException("Invalid code size " + codeSize + " for method body at offset " + offset);
+        }
+
+        int ip = codeStart;
+        int end = codeStart + codeSize;
+        boolean previousWasOrigInvoke = false;
+
+        while (ip < end) {
+            int opcode = file.get(ip++) & 0xFF;
+            int operandSize;
+            if (opcode == 0xFE) {
+                int extendedOpcode = file.get(ip++) & 0xFF;
+                opcode = 0xFE00 | extendedOpcode;
+                operandSize = EXTENDED_OPERAND_SIZES[extendedOpcode];
+            } else if (opcode == SWITCH) {
+                // the jump table has to fit in the method body, or we could end up going backwards and looping forever
+                int targetCount = file.getInt(ip);
+                if (targetCount < 0 || targetCount > (end - ip - 4) / 4) {
+                    throw new InvalidAssemblyException("Invalid switch with " + targetCount + " targets at offset " + (ip - 1));
+                }
+                operandSize = 4 + 4 * targetCount;
+            } else {
+                operandSize = OPERAND_SIZES[opcode];
+            }
+
+            boolean isOrigInvoke = false;
+            switch (opcode) {
+                case CALL, CALLVIRT, JMP, LDFTN, LDVIRTFTN -> {
+                    int token = file.getInt(ip);
+                    if (isConsoleWriteLine(token)) callsConsoleWriteLine = true;
+                    isOrigInvoke = (opcode == CALL || opcode == CALLVIRT) && isOrigInvoke(token);
+                }
+                case STFLD -> {
+                    // iterators return what they yield by storing it in their <>2__current field
+                    if (previousWasOrigInvoke && "<>2__current".equals(getFieldName(file.getInt(ip)))) {
+                        yieldsOrigInvoke = true;
+                    }
+                }
+            }
+
+            previousWasOrigInvoke = isOrigInvoke;
+            ip += operandSize;
+        }
+    }
+
+    /**
+     * Checks if the token refers to Console.WriteLine (whatever the overload is).
+     */
+    private boolean isConsoleWriteLine(int token) {
+        if (token >>> 24 != MEMBER_REF || !isValidRow(MEMBER_REF, token & 0xFFFFFF)) return false;
+
+        int memberRef = rowOffset(MEMBER_REF, token & 0xFFFFFF);
+        if (!"WriteLine".equals(readString(memberRef + codedIndexSize(MEMBER_REF_PARENT)))) return false;
+
+        int parent = readIndex(memberRef, codedIndexSize(MEMBER_REF_PARENT));
+        if ((parent & 0x07) != 1 || !isValidRow(TYPE_REF, parent >>> 3)) return false;
+
+        int typeRef = rowOffset(TYPE_REF, parent >>> 3);
+        int nameOffset = typeRef + codedIndexSize(RESOLUTION_SCOPE);
+        return "Console".equals(readString(nameOffset)) && "System".equals(readString(nameOffset + stringIndexSize));
+    }
+
+    /**
+     * Checks if the token refers to the Invoke method of an "orig" delegate, that MonoMod passes to hooks to call the original method.
+     */
+    private boolean isOrigInvoke(int token) {
+        int row = token & 0xFFFFFF;
+
+        if (token >>> 24 == MEMBER_REF && isValidRow(MEMBER_REF, row)) {
+            int memberRef = rowOffset(MEMBER_REF, row);
+            if (!"Invoke".equals(readString(memberRef + codedIndexSize(MEMBER_REF_PARENT)))) return false;
+
+            int parent = readIndex(memberRef, codedIndexSize(MEMBER_REF_PARENT));
+            return switch (parent & 0x07) {
+                case 0 -> isValidRow(TYPE_DEF, parent >>> 3) && getTypeDefName(parent >>> 3).startsWith("orig_");
+                case 1 -> isValidRow(TYPE_REF, parent >>> 3)
+                        && readString(rowOffset(TYPE_REF, parent >>> 3) + codedIndexSize(RESOLUTION_SCOPE)).startsWith("orig_");
+                default -> false;
+            };
+        }
+
+        if (token >>> 24 == METHOD_DEF && isValidRow(METHOD_DEF, row)) {
+            // the delegate is defined in the assembly itself, so we need to find which type the method belongs to
+            if (!"Invoke".equals(readString(rowOffset(METHOD_DEF, row) + 8))) return false;
+
+            int methodListOffset = 4 + 2 * stringIndexSize + codedIndexSize(TYPE_DEF_OR_REF) + indexSize(FIELD);
+            int owner = 0;
+            for (int typeDef = 1; typeDef <= rowCounts[TYPE_DEF]; typeDef++) {
+                if (readIndex(rowOffset(TYPE_DEF, typeDef) + methodListOffset, indexSize(METHOD_DEF)) > row) break;
+                owner = typeDef;
+            }
+            return owner != 0 && getTypeDefName(owner).startsWith("orig_");
+        }
+
+        return false;
+    }
+
+    private String getTypeDefName(int row) {
+        return readString(rowOffset(TYPE_DEF, row) + 4);
+    }
+
+    private String getFieldName(int token) {
+        int row = token & 0xFFFFFF;
+        if (token >>> 24 == FIELD && isValidRow(FIELD, row)) {
+            return readString(rowOffset(FIELD, row) + 2);
+        }
+        if (token >>> 24 == MEMBER_REF && isValidRow(MEMBER_REF, row)) {
+            // fields of generic types are referred to through a MemberRef
+            return readString(rowOffset(MEMBER_REF, row) + codedIndexSize(MEMBER_REF_PARENT));
+        }
+        return null;
+    }
+
+    private boolean isValidRow(int table, int row) {
+        return row >= 1 && row <= rowCounts[table];
+    }
+
+    private int rowOffset(int table, int row) {
+        return tableOffsets[table] + (row - 1) * rowSizes[table];
+    }
+
+    private int indexSize(int table) {
+        return rowCounts[table] < 0x10000 ? 2 : 4;
+    }
+
+    private int codedIndexSize(int[] tables) {
+        int tagBits = 32 - Integer.numberOfLeadingZeros(tables.length - 1);
+        int maxRows = 0;
+        for (int table : tables) maxRows = Math.max(maxRows, rowCounts[table]);
+        return maxRows < (1 << (16 - tagBits)) ? 2 : 4;
+    }
+
+    private int readIndex(int offset, int size) {
+        return size == 2 ? file.getShort(offset) & 0xFFFF : file.getInt(offset);
+    }
+
+    private String readString(int offset) {
+        return readNullTerminatedString(stringHeap + readIndex(offset, stringIndexSize));
+    }
+
+    private String readNullTerminatedString(int offset) {
+        int end = offset;
+        while (file.get(end) != 0) end++;
+        return new String(file.array(), offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private int rvaToOffset(int rva) throws InvalidAssemblyException {
+        for (int[] section : sections) {
+            if (rva >= section[0] && rva < section[0] + section[1]) {
+                return rva - section[0] + section[2];
+            }
+        }
+        throw new InvalidAssemblyException("RVA " + rva + " is not in any section");
+    }
+}
@@ -4,14 +4,19 @@ import com.google.common.collect.ImmutableMap;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.function.IOConsumer;
 import org.apache.commons.text.StringEscapeUtils;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.*;
 import ovh.maddie480.everest.updatechecker.DatabaseUpdater;
 import ovh.maddie480.everest.updatechecker.YamlUtil;
 import ovh.maddie480.randomstuff.backend.SecretConstants;
@@ -30,7 +35,9 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
@@ -44,6 +51,8 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public class CelesteStuffHealthCheck {
     private static final Logger log = LoggerFactory.getLogger(CelesteStuffHealthCheck.class);
 
+    private static final Pattern DIRECTORY_LISTING_LINK = Pattern.compile("<td class=\"indexcolname\">\\s*<a href=\"([^\"]*)\"");
+
     /**
      * Checks that every Everest branch has a version and that we can download it.
      * Also sends out a notification to SRC staff if a new stable Everest hits.
@@ -282,31 +291,117 @@ public class CelesteStuffHealthCheck {
     /**
      * Checks that the list of files on Banana Mirror is the exact same as the files listed in everest_update.yaml
      * and mod_search_database.yaml (so there is no "desync" between both, and all files referenced actually exist).
+     * All file lists are streamed into {@link ExternalSortedSet}s, so that this check doesn't need more memory as GameBanana grows.
      * Ran daily.
      */
     public static void checkBananaMirrorDatabaseMatch() throws IOException {
-        List<String> modDownloadsRef;
-        try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/everest_update.yaml")) {
-            Map<String, Map<String, Object>> mapped = YamlUtil.load(is);
-            modDownloadsRef = mapped.values()
-                    .stream()
-                    .map(item -> item.get("URL").toString())
-                    .sorted()
-                    .collect(Collectors.toList());
+        ExecutorService fetchers = Executors.newFixedThreadPool(8, runnable -> new Thread(runnable, "Banana Mirror Checker"));
+        List<Future<ExternalSortedSet>> allSets = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+
+        try {
+            record Comparison(String description, Future<ExternalSortedSet> expected, Future<ExternalSortedSet> actual) {
+            }
+            List<Comparison> comparisons = new ArrayList<>();
+
+            // the expected contents of the mirrors, as file names
+            Future<ExternalSortedSet> modZipsRef = submit(fetchers, allSets, () -> fetchSet(set ->
+                    streamYamlValues("https://maddie480.ovh/celeste/everest_update.yaml", "URL",
+                            url -> set.add(url.substring(url.lastIndexOf('/') + 1) + ".zip"))));
+            Future<ExternalSortedSet> mirroredScreenshotsRef = submit(fetchers, allSets, () -> fetchSet(set ->
+                    streamYamlValues("https://maddie480.ovh/celeste/mod_search_database.yaml", "MirroredScreenshots",
+                            url -> set.add(url.substring(url.lastIndexOf('/') + 1)))));
+            Future<ExternalSortedSet> richPresenceIconsRef = submit(fetchers, allSets, () -> loadRichPresenceIconsReference());
+
+            for (String mirror : Arrays.asList("https://celestemodupdater.0x0a.de", "https://celestemodupdater-storage.0x0a.de",
+                    "https://celestemodupdater-conductor.0x0a.de", "https://celestemodupdater-mirror.papyrus.0x0a.de")) {
+
+                // === zips referenced in everest_update.yaml should be present at https://celestemodupdater.0x0a.de/banana-mirror/
+                comparisons.add(new Comparison("Banana Mirror contents at " + mirror + " don't match the mod updater database",
+                        modZipsRef, submit(fetchers, allSets, () -> fetchDirectoryListing(mirror + "/banana-mirror/"))));
+
+                // === images referenced in mod_search_database.yaml should be present at https://celestemodupdater.0x0a.de/banana-mirror-images/
+                comparisons.add(new Comparison("Banana Mirror Images contents at " + mirror + " don't match the mod updater database",
+                        mirroredScreenshotsRef, submit(fetchers, allSets, () -> fetchDirectoryListing(mirror + "/banana-mirror-images/"))));
+
+                // these mirrors don't have Rich Presence icons
+                if (Arrays.asList("https://celestemodupdater-conductor.0x0a.de",
+                        "https://celestemodupdater-mirror.papyrus.0x0a.de").contains(mirror)) {
+                    continue;
+                }
+
+                // === Rich Presence icons we saved locally should be present at https://celestemodupdater.0x0a.de/rich-presence-icons/,
+                // and they should also match the list present at list.json
+                Future<ExternalSortedSet> richPresenceIcons = submit(fetchers, allSets, () -> fetchDirectoryListing(mirror + "/rich-presence-icons/", "list.json"));
+                comparisons.add(new Comparison("Banana Mirror Rich Presence Icons contents at " + mirror + " don't match the ones we have saved locally",
+                        richPresenceIconsRef, richPresenceIcons));
+                comparisons.add(new Comparison("Banana Mirror Rich Presence Icons list.json at " + mirror + " doesn't match the folder contents",
+                        richPresenceIcons, submit(fetchers, allSets, () -> fetchFileListFromJsonArray(mirror + "/rich-presence-icons/list.json", ".png"))));
+            }
+
+            comparisons.add(new Comparison("Otobot Mirror contents don't match the mod updater database",
+                    modZipsRef, submit(fetchers, allSets, () -> fetchFileListFromJsonArray("https://celestemods.com/api/gamebanana-mirror/mirror-contents/mods", ""))));
+            comparisons.add(new Comparison("Otobot Mirror Images contents don't match the mod updater database",
+                    mirroredScreenshotsRef, submit(fetchers, allSets, () -> fetchFileListFromJsonArray("https://celestemods.com/api/gamebanana-mirror/mirror-contents/screenshots", ""))));
+            comparisons.add(new Comparison("Otobot Mirror Rich Presence Icons contents don't match the mod updater database",
+                    richPresenceIconsRef, submit(fetchers, allSets, () -> fetchFileListFromJsonArray("https://celestemods.com/api/gamebanana-mirror/mirror-contents/richPresenceIcons", ""))));
+
+            for (Comparison comparison : comparisons) {
+                log.debug("Checking: {}", comparison.description());
+                ExternalSortedSet.Difference difference = getResult(comparison.actual()).compareTo(getResult(comparison.expected()));
+                if (!difference.isEmpty()) {
+                    log.warn("{}: {}", comparison.description(), difference);
+                    errors.add(comparison.description() + ": " + difference);
+                }
+            }
+        } finally {
+            fetchers.shutdownNow();
+            for (Future<ExternalSortedSet> set : allSets) {
+                if (set.state() == Future.State.SUCCESS) set.resultNow().close();
+            }
         }
 
-        List<String> mirroredScreenshotsRef;
-        try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/mod_search_database.yaml")) {
-            List<Map<String, Object>> mapped = YamlUtil.load(is);
-            mirroredScreenshotsRef = mapped.stream()
-                    .map(item -> (List<String>) item.get("MirroredScreenshots"))
-                    .flatMap(List::stream)
-                    .distinct()
-                    .sorted()
-                    .collect(Collectors.toList());
+        if (!errors.isEmpty()) {
+            throw new IOException(String.join("\n", errors));
         }
+    }
+
+    private static Future<ExternalSortedSet> submit(ExecutorService fetchers, List<Future<ExternalSortedSet>> allSets, Callable<ExternalSortedSet> task) {
+        Future<ExternalSortedSet> future = fetchers.submit(task);
+        allSets.add(future);
+        return future;
+    }
+
+    private static ExternalSortedSet getResult(Future<ExternalSortedSet> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) throw ioe;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Builds a set from something read over the network, starting over from scratch if reading fails.
+     */
+    private static ExternalSortedSet fetchSet(IOConsumer<ExternalSortedSet> filler) throws IOException {
+        return ConnectionUtils.runWithRetry(() -> buildSet(filler));
+    }
+
+    private static ExternalSortedSet buildSet(IOConsumer<ExternalSortedSet> filler) throws IOException {
+        ExternalSortedSet set = new ExternalSortedSet();
+        try {
+            filler.accept(set);
+            return set.finish();
+        } catch (IOException | RuntimeException e) {
+            set.close();
+            throw e;
+        }
+    }
 
-        List<String> richPresenceIconsRef;
+    private static ExternalSortedSet loadRichPresenceIconsReference() throws IOException {
         try (InputStream is = Files.newInputStream(Paths.get("banana_mirror_rich_presence_icons.yaml"))) {
             Map<String, Map<String, List<String>>> mapped = YamlUtil.load(is);
 
@@ -325,126 +420,124 @@ public class CelesteStuffHealthCheck {
                 }
             }
 
-            richPresenceIconsRef = mapped.get("HashesToFiles").keySet().stream()
-                    .sorted()
-                    .collect(Collectors.toList());
+            return buildSet(set -> {
+                for (String hash : mapped.get("HashesToFiles").keySet()) {
+                    set.add(hash + ".png");
+                }
+            });
         }
+    }
 
-        for (String mirror : Arrays.asList("https://celestemodupdater.0x0a.de", "https://celestemodupdater-storage.0x0a.de",
-                "https://celestemodupdater-conductor.0x0a.de", "https://celestemodupdater-mirror.papyrus.0x0a.de")) {
-
-            log.debug("Checking Banana Mirror contents ({})...", mirror);
+    /**
+     * Reads the file names from an Apache directory listing without parsing the whole page.
+     *
+     * @param url           The URL of the directory
+     * @param ignoredFiles  Files that should not be part of the list
+     */
+    private static ExternalSortedSet fetchDirectoryListing(String url, String... ignoredFiles) throws IOException {
+        return fetchSet(set -> {
+            try (Scanner scanner = new Scanner(ConnectionUtils.openStreamWithTimeout(url), UTF_8)) {
+
+                Iterator<MatchResult> links = scanner.findAll(DIRECTORY_LISTING_LINK).iterator();
+                while (links.hasNext()) {
+                    String file = StringEscapeUtils.unescapeHtml4(links.next().group(1));
+                    if (!file.equals("/") && !Arrays.asList(ignoredFiles).contains(file)) {
+                        set.add(file);
+                    }
+                }
+                if (scanner.ioException() != null) throw scanner.ioException();
 
-            { // === zips referenced in everest_update.yaml should be present at https://celestemodupdater.0x0a.de/banana-mirror/
-                List<String> everestUpdate = modDownloadsRef.stream()
-                        .map(item -> item.replace("https://gamebanana.com/mmdl", mirror + "/banana-mirror") + ".zip")
-                        .toList();
+                log.debug("Fetched directory listing of {}", url);
+            }
+        });
+    }
 
-                List<String> bananaMirror = ConnectionUtils.jsoupGetWithRetry(mirror + "/banana-mirror/")
-                        .select("td.indexcolname a")
-                        .stream()
-                        .map(a -> mirror + "/banana-mirror/" + a.attr("href"))
-                        .filter(item -> !item.equals(mirror + "/banana-mirror//"))
-                        .sorted()
-                        .toList();
+    /**
+     * Reads a JSON array of file names, one element at a time.
+     *
+     * @param url    The URL of the JSON array
+     * @param suffix A suffix to add to each element to turn it into a file name
+     */
+    private static ExternalSortedSet fetchFileListFromJsonArray(String url, String suffix) throws IOException {
+        return fetchSet(set -> {
+            try (Reader reader = new InputStreamReader(ConnectionUtils.openStreamWithTimeout(url), UTF_8)) {
 
+                JSONTokener tokener = new JSONTokener(reader);
+                if (tokener.nextClean() != '[') throw new IOException("Expected a JSON array at " + url);
 
-                if (!bananaMirror.equals(everestUpdate)) {
-                    throw new IOException("Banana Mirror contents at " + mirror + " don't match the mod updater database");
-                }
+                if (tokener.nextClean() != ']') {
+                    tokener.back();
+                    while (true) {
+                        set.add(tokener.nextValue() + suffix);
 
-                if ("https://celestemodupdater.0x0a.de".equals(mirror)) {
-                    bananaMirror = fetchFileListFromOtobotMirror("mods", "https://celestemodupdater.0x0a.de/banana-mirror/");
-                    if (!bananaMirror.equals(everestUpdate)) {
-                        throw new IOException("Otobot Mirror contents don't match the mod updater database");
+                        char next = tokener.nextClean();
+                        if (next == ']') break;
+                        if (next != ',') throw new IOException("Invalid JSON array at " + url);
                     }
                 }
-            }
 
-            { // === images referenced in mod_search_database.yaml should be present at https://celestemodupdater.0x0a.de/banana-mirror-images/
-                List<String> modSearchDatabase = mirroredScreenshotsRef.stream()
-                        .map(i -> i.replace("https://celestemodupdater.0x0a.de", mirror))
-                        .toList();
-
-                List<String> bananaMirrorImages = ConnectionUtils.runWithRetry(() -> Jsoup.connect(mirror + "/banana-mirror-images/")
-                                .userAgent("Maddie-Random-Stuff-Backend/1.0.0 (+https://github.com/maddie480/RandomBackendStuff)")
-                                .maxBodySize(4 * 1024 * 1024) // 4 MB
-                                .get())
-                        .select("td.indexcolname a")
-                        .stream()
-                        .map(a -> mirror + "/banana-mirror-images/" + a.attr("href"))
-                        .filter(item -> !item.equals(mirror + "/banana-mirror-images//"))
-                        .sorted()
-                        .toList();
-
-                if (!bananaMirrorImages.equals(modSearchDatabase)) {
-                    throw new IOException("Banana Mirror Images contents at " + mirror + " don't match the mod updater database");
-                }
+                log.debug("Fetched file list from {}", url);
+            } catch (JSONException e) {
+                throw new IOException("Invalid JSON array at " + url, e);
+            }
+        });
+    }
 
-                if ("https://celestemodupdater.0x0a.de".equals(mirror)) {
-                    bananaMirrorImages = fetchFileListFromOtobotMirror("screenshots", "https://celestemodupdater.0x0a.de/banana-mirror-images/");
-                    if (!bananaMirrorImages.equals(modSearchDatabase)) {
-                        throw new IOException("Otobot Mirror Images contents don't match the mod updater database");
-                    }
-                }
+    /**
+     * Walks through a YAML document without loading it entirely, and passes every scalar value associated to the given key
+     * to the consumer (either directly, or as an element of a list).
+     */
+    private static void streamYamlValues(String url, String key, IOConsumer<String> consumer) throws IOException {
+        class YamlCollection {
+            private final boolean mapping;
+            private final String key;
+            private String currentKey = null;
+            private boolean expectingKey = true;
+
+            private YamlCollection(boolean mapping, String key) {
+                this.mapping = mapping;
+                this.key = key;
             }
 
-            // these mirrors don't have Rich Presence icons
-            if (Arrays.asList("https://celestemodupdater-conductor.0x0a.de",
-                    "https://celestemodupdater-mirror.papyrus.0x0a.de").contains(mirror)) {
-                continue;
+            private String keyForValue() {
+                return mapping ? currentKey : key;
             }
 
-            { // === Rich Presence icons we saved locally should be present at https://celestemodupdater.0x0a.de/rich-presence-icons/
-                List<String> richPresenceIconsLocal = richPresenceIconsRef.stream()
-                        .map(a -> mirror + "/rich-presence-icons/" + a + ".png")
-                        .toList();
+            private void valueRead() {
+                if (mapping) expectingKey = !expectingKey;
+            }
+        }
 
-                List<String> richPresenceIcons = ConnectionUtils.jsoupGetWithRetry(mirror + "/rich-presence-icons/")
-                        .select("td.indexcolname a")
-                        .stream()
-                        .map(a -> mirror + "/rich-presence-icons/" + a.attr("href"))
-                        .filter(item -> !item.equals(mirror + "/rich-presence-icons//") && !item.equals(mirror + "/rich-presence-icons/list.json"))
-                        .sorted()
-                        .toList();
+        LoaderOptions options = new LoaderOptions();
+        options.setCodePointLimit(Integer.MAX_VALUE);
 
-                // and they should also match the list present at list.json
-                JSONArray richPresenceIconListJson;
-                try (InputStream is = ConnectionUtils.openStreamWithTimeout(mirror + "/rich-presence-icons/list.json")) {
-                    richPresenceIconListJson = new JSONArray(new JSONTokener(is));
-                }
-                List<String> richPresenceIconsList = new ArrayList<>();
-                for (Object o : richPresenceIconListJson) {
-                    richPresenceIconsList.add(mirror + "/rich-presence-icons/" + o + ".png");
-                }
-                richPresenceIconsList.sort(Comparator.naturalOrder());
+        try (Reader reader = new InputStreamReader(ConnectionUtils.openStreamWithTimeout(url), UTF_8)) {
+            Deque<YamlCollection> path = new ArrayDeque<>();
 
-                if (!richPresenceIcons.equals(richPresenceIconsLocal) || !richPresenceIcons.equals(richPresenceIconsList)) {
-                    throw new IOException("Banana Mirror Rich Presence Icons contents at " + mirror + " don't match the ones we have saved locally");
-                }
+            for (Event event : new Yaml(options).parse(reader)) {
+                YamlCollection parent = path.peek();
 
-                if ("https://celestemodupdater.0x0a.de".equals(mirror)) {
-                    richPresenceIcons = fetchFileListFromOtobotMirror("richPresenceIcons", "https://celestemodupdater.0x0a.de/rich-presence-icons/");
-                    if (!richPresenceIcons.equals(richPresenceIconsLocal)) {
-                        throw new IOException("Otobot Mirror Rich Presence Icons contents don't match the mod updater database");
+                if (event instanceof MappingStartEvent || event instanceof SequenceStartEvent) {
+                    path.push(new YamlCollection(event instanceof MappingStartEvent, parent == null ? null : parent.keyForValue()));
+                } else if (event instanceof CollectionEndEvent) {
+                    path.pop();
+                    if (path.peek() != null) path.peek().valueRead();
+                } else if (event instanceof ScalarEvent scalar && parent != null) {
+                    if (parent.mapping && parent.expectingKey) {
+                        parent.currentKey = scalar.getValue();
+                    } else if (key.equals(parent.keyForValue())) {
+                        consumer.accept(scalar.getValue());
                     }
+                    parent.valueRead();
+                } else if (event instanceof AliasEvent && parent != null) {
+                    parent.valueRead();
                 }
             }
+        } catch (YAMLException e) {
+            throw new IOException("Invalid YAML at " + url, e);
         }
     }
 
-    private static List<String> fetchFileListFromOtobotMirror(String category, String prefix) throws IOException {
-        List<String> bananaMirror = new ArrayList<>();
-        try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://celestemods.com/api/gamebanana-mirror/mirror-contents/" + category)) {
-            JSONArray modList = new JSONArray(new JSONTokener(is));
-            for (Object o : modList) {
-                bananaMirror.add(prefix + o);
-            }
-        }
-        bananaMirror.sort(Comparator.naturalOrder());
-        return bananaMirror;
-    }
-
     /**
      * Checks that GameBanana categories didn't change overnight (because that requires changes in the updater).
      * YES means the category accepts files, NO means it doesn't.
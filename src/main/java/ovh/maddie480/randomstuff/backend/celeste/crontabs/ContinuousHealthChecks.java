@@ -17,20 +17,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Supplier;
 
 /**
  * This class checks the health of multiple platforms (the website, the bot, the mirror and GameBanana)
  * every minute. When multiple checks in a row fail, an alert is sent to a few webhooks.
+ * Each service is checked independently with its own timeout, so that a slow service doesn't delay the other checks.
+ * Latencies are also tracked, and an alert is sent if a service stays slow for a while.
  * This is different from CelesteStuffHealthCheck, which checks for more specific stuff way less frequently.
  */
 public class ContinuousHealthChecks {
     private static final Logger logger = LoggerFactory.getLogger(ContinuousHealthChecks.class);
 
-    private static final Map<String, Integer> servicesHealth = new HashMap<>();
-    private static final Map<String, Boolean> servicesStatus = new HashMap<>();
+    // how many of the latest checks are used to tell if a service is slow
+    private static final int LATENCY_WINDOW = 10;
+
+    private static final Map<String, Integer> servicesHealth = new ConcurrentHashMap<>();
+    private static final Map<String, Boolean> servicesStatus = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> servicesLatency = new ConcurrentHashMap<>();
+    private static final Map<String, Boolean> servicesSlow = new ConcurrentHashMap<>();
 
     private static final Map<String, Integer> servicesMaxHP = ImmutableMap.of(
             "Banana Mirror", 1,
@@ -46,59 +53,83 @@ public class ContinuousHealthChecks {
             "GameBanana File Server", 5
     );
 
+    /**
+     * A health check that is run periodically.
+     *
+     * @param serviceName       The name of the service, as used in alerts
+     * @param intervalSeconds   How often the check should run
+     * @param timeoutSeconds    How long the check can take before being considered failed
+     * @param slowLatencyMillis The latency above which the service is considered slow, if 90% of the latest checks are above it
+     * @param healthCheck       The check itself, returning whether the service is healthy
+     * @param webhookUrls       The webhooks to alert if the service goes down or gets slow
+     */
+    private record Probe(String serviceName, int intervalSeconds, int timeoutSeconds, long slowLatencyMillis,
+                         IOSupplier<Boolean> healthCheck, List<String> webhookUrls) {
+    }
+
+    // health checks run on those threads, so that they can be timed out
+    private static final ExecutorService probeRunner = Executors.newCachedThreadPool(runnable -> new Thread(runnable, "Health Check Probe"));
+
     public static void startChecking() {
-        new Thread("Continuous Health Checks") {
-            @Override
-            public void run() {
-                while (true) {
-                    try {
-                        // 0x0a.de health checks
-                        checkURL("https://celestemodupdater.0x0a.de/banana-mirror", "484937.zip",
-                                "Banana Mirror", SecretConstants.JADE_PLATFORM_HEALTHCHECK_HOOKS);
-                        checkURL("https://celestenet.0x0a.de/api/status", "\"StartupTime\":",
-                                "CelesteNet", SecretConstants.JADE_PLATFORM_HEALTHCHECK_HOOKS);
-                        checkHealth(ContinuousHealthChecks::checkCelesteNetUDP,
-                                "CelesteNet UDP", SecretConstants.JADE_PLATFORM_HEALTHCHECK_HOOKS);
-
-                        // maddie480.ovh health checks
-                        checkURL("https://maddie480.ovh/celeste/everest_update.yaml", "SpringCollab2020:",
-                                "Maddie's Random Stuff Website", SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS);
-                        checkURL("https://maddie480.ovh/celeste/update-checker-status.json", "\"up\":true",
-                                "Update Checker", SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS);
-
-                        // GameBanana health checks
-                        checkURL("https://gamebanana.com/games/6460", "Celeste",
-                                "GameBanana Website", SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS);
-                        checkURL("https://files.gamebanana.com/bitpit/check.txt", "The check passed!",
-                                "GameBanana File Server", SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS);
-                        checkURL("https://gamebanana.com/apiv8/Mod/150813?_csvProperties=@gbprofile", "\"https:\\/\\/gamebanana.com\\/dl\\/484937\"",
-                                "GameBanana API", SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS);
-
-                        // backend check: notify privately and restart if it goes down.
-                        checkHealthWithEmergencyRestart(() -> System.currentTimeMillis() - TimezoneRoleUpdater.getLastRunDate() < 1_800_000L,
-                                "Timezone Role Updater");
-                        checkHealth(ContinuousHealthChecks::checkNextcloudSpace,
-                                "Nextcloud", Collections.singletonList(SecretConstants.UPDATE_CHECKER_LOGS_HOOK));
-                    } catch (Exception e) {
-                        // this shouldn't happen, unless we cannot communicate with Discord.
-                        logger.error("Uncaught exception happened during health check!", e);
-                    }
+        List<Probe> probes = Arrays.asList(
+                // 0x0a.de health checks
+                urlProbe("https://celestemodupdater.0x0a.de/banana-mirror", "484937.zip",
+                        "Banana Mirror", 5000, SecretConstants.JADE_PLATFORM_HEALTHCHECK_HOOKS),
+                urlProbe("https://celestenet.0x0a.de/api/status", "\"StartupTime\":",
+                        "CelesteNet", 5000, SecretConstants.JADE_PLATFORM_HEALTHCHECK_HOOKS),
+                new Probe("CelesteNet UDP", 60, 30, 10000,
+                        ContinuousHealthChecks::checkCelesteNetUDP, SecretConstants.JADE_PLATFORM_HEALTHCHECK_HOOKS),
 
-                    try {
-                        // wait until the start of the next minute.
-                        Thread.sleep(60000 - (ZonedDateTime.now().getSecond() * 1000L
-                                + ZonedDateTime.now().getNano() / 1_000_000) + 50);
-                    } catch (InterruptedException e) {
-                        // this shouldn't happen AT ALL.
-                        logger.error("Sleep interrupted!", e);
-                    }
-                }
-            }
-        }.start();
+                // maddie480.ovh health checks
+                urlProbe("https://maddie480.ovh/celeste/everest_update.yaml", "SpringCollab2020:",
+                        "Maddie's Random Stuff Website", 5000, SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS),
+                urlProbe("https://maddie480.ovh/celeste/update-checker-status.json", "\"up\":true",
+                        "Update Checker", 5000, SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS),
+
+                // GameBanana health checks
+                urlProbe("https://gamebanana.com/games/6460", "Celeste",
+                        "GameBanana Website", 10000, SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS),
+                urlProbe("https://files.gamebanana.com/bitpit/check.txt", "The check passed!",
+                        "GameBanana File Server", 10000, SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS),
+                urlProbe("https://gamebanana.com/apiv8/Mod/150813?_csvProperties=@gbprofile", "\"https:\\/\\/gamebanana.com\\/dl\\/484937\"",
+                        "GameBanana API", 10000, SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS),
+
+                // free space doesn't change that quickly
+                new Probe("Nextcloud", 300, 30, 10000,
+                        ContinuousHealthChecks::checkNextcloudSpace, Collections.singletonList(SecretConstants.UPDATE_CHECKER_LOGS_HOOK))
+        );
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(probes.size() + 2,
+                runnable -> new Thread(runnable, "Continuous Health Checks"));
+
+        for (int i = 0; i < probes.size(); i++) {
+            Probe probe = probes.get(i);
+
+            // spread the checks over a few seconds, so that they don't all start at the same time
+            scheduler.scheduleAtFixedRate(() -> runSafely(() -> checkHealth(probe)), i * 2L, probe.intervalSeconds(), TimeUnit.SECONDS);
+        }
+
+        // backend check: notify privately and restart if it goes down.
+        scheduler.scheduleAtFixedRate(() -> runSafely(() -> checkHealthWithEmergencyRestart(
+                        () -> System.currentTimeMillis() - TimezoneRoleUpdater.getLastRunDate() < 1_800_000L, "Timezone Role Updater")),
+                0, 60, TimeUnit.SECONDS);
+
+        scheduler.scheduleAtFixedRate(() -> runSafely(() -> servicesLatency.forEach((serviceName, latency) ->
+                logger.info("Latency of {}: {}", serviceName, latency))), 1, 1, TimeUnit.HOURS);
     }
 
-    private static void checkURL(String url, String content, String serviceName, List<String> webhookUrls) {
-        checkHealth(() -> {
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            // this shouldn't happen, unless we cannot communicate with Discord.
+            // if we let the exception go through, the scheduled task would stop running!
+            logger.error("Uncaught exception happened during health check!", e);
+        }
+    }
+
+    private static Probe urlProbe(String url, String content, String serviceName, long slowLatencyMillis, List<String> webhookUrls) {
+        return new Probe(serviceName, 60, 30, slowLatencyMillis, () -> {
             HttpURLConnection con = ConnectionUtils.openConnectionWithTimeout(url);
             con.setConnectTimeout(5000);
             con.setReadTimeout(10000);
@@ -112,7 +143,7 @@ public class ContinuousHealthChecks {
             }
 
             return false;
-        }, serviceName, webhookUrls);
+        }, webhookUrls);
     }
 
     private static boolean checkCelesteNetUDP() throws IOException {
@@ -148,18 +179,30 @@ public class ContinuousHealthChecks {
         }
     }
 
-    private static void checkHealth(IOSupplier<Boolean> healthCheck,
-                                    String serviceName, List<String> webhookUrls) {
+    private static void checkHealth(Probe probe) {
+        String serviceName = probe.serviceName();
+        List<String> webhookUrls = probe.webhookUrls();
         boolean result;
 
+        long start = System.currentTimeMillis();
+        Future<Boolean> healthCheck = probeRunner.submit(() -> probe.healthCheck().get());
         try {
-            result = healthCheck.get();
-        } catch (Exception e) {
-            logger.warn("Health check error for {}!", serviceName, e);
+            result = healthCheck.get(probe.timeoutSeconds(), TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("Health check for {} timed out after {} seconds!", serviceName, probe.timeoutSeconds());
+            healthCheck.cancel(true);
+            result = false;
+        } catch (ExecutionException e) {
+            logger.warn("Health check error for {}!", serviceName, e.getCause());
             result = false;
+        } catch (InterruptedException e) {
+            logger.warn("Health check for {} was interrupted!", serviceName, e);
+            healthCheck.cancel(true);
+            return;
         }
+        long latency = System.currentTimeMillis() - start;
 
-        logger.debug("Health check result for {}: {}", serviceName, result);
+        logger.debug("Health check result for {}: {} (took {} ms)", serviceName, result, latency);
 
         int serviceMaxHP = servicesMaxHP.get(serviceName);
 
@@ -198,6 +241,41 @@ public class ContinuousHealthChecks {
 
         servicesHealth.put(serviceName, currentHealth);
         servicesStatus.put(serviceName, currentStatus);
+
+        // only successful checks are timed, failed checks already cost HP
+        if (result) {
+            checkLatency(probe, latency, currentStatus);
+        }
+    }
+
+    private static void checkLatency(Probe probe, long latency, boolean serviceUp) {
+        String serviceName = probe.serviceName();
+
+        LatencyHistogram histogram = servicesLatency.computeIfAbsent(serviceName, k -> new LatencyHistogram(LATENCY_WINDOW));
+        histogram.record(latency);
+
+        long recentP90 = histogram.getRecentPercentile(0.9);
+        if (recentP90 == -1) return;
+
+        boolean slow = recentP90 > probe.slowLatencyMillis();
+        boolean wasSlow = servicesSlow.getOrDefault(serviceName, false);
+
+        if (slow && !wasSlow && serviceUp) {
+            logger.warn("Service {} is slow! p90 latency over the last {} checks is {} ms", serviceName, LATENCY_WINDOW, recentP90);
+            for (String webhook : probe.webhookUrls()) {
+                executeWebhookSafe(webhook, ":warning: **" + serviceName + "** is slow! 90% of the last " + LATENCY_WINDOW
+                        + " checks took up to " + recentP90 + " ms.");
+            }
+        } else if (!slow && wasSlow) {
+            logger.info("Service {} is fast again, p90 latency over the last {} checks is {} ms", serviceName, LATENCY_WINDOW, recentP90);
+            if (serviceUp) {
+                for (String webhook : probe.webhookUrls()) {
+                    executeWebhookSafe(webhook, ":white_check_mark: **" + serviceName + "** is back to normal speed.");
+                }
+            }
+        }
+
+        servicesSlow.put(serviceName, slow);
     }
 
     private static void checkHealthWithEmergencyRestart(Supplier<Boolean> healthCheck, String serviceName) {
@@ -205,20 +283,21 @@ public class ContinuousHealthChecks {
             executeWebhookSafe(SecretConstants.UPDATE_CHECKER_LOGS_HOOK, ":x: **" + serviceName + "** is down! Initiating emergency restart.");
 
             // this should be enough for Docker's restart: on_failure to restart the service.
+            WebhookExecutor.awaitPendingMessages();
             System.exit(1);
         }
     }
 
     private static void executeWebhookSafe(String webhookUrl, String body) {
-        try {
-            WebhookExecutor.executeWebhook(
-                    webhookUrl,
-                    "https://raw.githubusercontent.com/maddie480/RandomBackendStuff/main/webhook-avatars/compute-engine.png",
-                    "Platform Health Checks",
-                    body,
-                    ImmutableMap.of("X-Everest-Log", "true"));
-        } catch (IOException e) {
-            logger.error("Could not send message {} to webhook {}!", body, webhookUrl, e);
-        }
+        WebhookExecutor.executeWebhookAsync(
+                        webhookUrl,
+                        "https://raw.githubusercontent.com/maddie480/RandomBackendStuff/main/webhook-avatars/compute-engine.png",
+                        "Platform Health Checks",
+                        body,
+                        ImmutableMap.of("X-Everest-Log", "true"))
+                .exceptionally(e -> {
+                    logger.error("Could not send message {} to webhook {}!", body, webhookUrl, e);
+                    return null;
+                });
     }
 }
@@ -219,7 +219,7 @@ public class CustomEntityCatalogGenerator {
 
             // get the documentation links on the Everest wiki.
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                    ConnectionUtils.openStreamWithTimeout("https://raw.githubusercontent.com/wiki/EverestAPI/Resources/Mapping/Helper-Manuals.md")))) {
+                    ConnectionUtils.openStreamWithCache("https://raw.githubusercontent.com/wiki/EverestAPI/Resources/Mapping/Helper-Manuals.md")))) {
 
                 // we're expecting - [label :link:](link)
                 Pattern linkPattern = Pattern.compile("^- \\[(.*) :link:]\\((.*)\\)$");
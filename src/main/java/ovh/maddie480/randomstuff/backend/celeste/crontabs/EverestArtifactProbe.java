@@ -0,0 +1,174 @@
+package ovh.maddie480.randomstuff.backend.celeste.crontabs;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Finds out the size of Everest artifacts, and whether Olympus builds are native, downloading as little as possible:
+ * sizes come from the response headers, and the contents of Olympus builds are found by reading the central directories
+ * of the zips with range requests. If the server does not support that (Azure generates its zips on the fly), the artifact
+ * is downloaded once and everything is figured out from that download.
+ * Artifacts never change once published, so results are cached per URL, and saved as soon as they are found out.
+ */
+final class EverestArtifactProbe {
+    private static final Logger log = LoggerFactory.getLogger(EverestArtifactProbe.class);
+
+    private static final Path CACHE_FILE = Paths.get("everest_artifact_metadata.json");
+
+    private final JSONObject cache;
+
+    EverestArtifactProbe() throws IOException {
+        if (Files.exists(CACHE_FILE)) {
+            try (BufferedReader br = Files.newBufferedReader(CACHE_FILE)) {
+                cache = new JSONObject(new JSONTokener(br));
+            }
+        } else {
+            cache = new JSONObject();
+        }
+    }
+
+    private void save() throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(CACHE_FILE)) {
+            cache.write(bw);
+        }
+    }
+
+    /**
+     * Gets the size of the artifact at the given URL.
+     */
+    long getSize(String url) throws IOException {
+        JSONObject metadata = getMetadata(url);
+        if (metadata.has("size")) return metadata.getLong("size");
+
+        RemoteZip.Headers probe = RemoteZip.probeHeaders(url);
+        if (probe != null) {
+            log.debug("Size of file {} is {} bytes according to headers", url, probe.size());
+            metadata.put("size", probe.size());
+        } else {
+            inspectByDownloading(url, false);
+        }
+
+        save();
+        return metadata.getLong("size");
+    }
+
+    /**
+     * Checks whether the Olympus build at the given URL is a native build,
+     * by checking if the zip inside of it contains MiniInstaller.exe.
+     */
+    boolean isNative(String url) throws IOException {
+        JSONObject metadata = getMetadata(url);
+        if (metadata.has("isNative")) return metadata.getBoolean("isNative");
+
+        RemoteZip.Headers probe = RemoteZip.probeHeaders(url);
+        if (probe != null) {
+            metadata.put("size", probe.size());
+
+            if (probe.acceptsRanges()) {
+                try {
+                    Boolean isNative = isNativeFromCentralDirectories(url, probe.size());
+                    if (isNative != null) {
+                        log.debug("Build at {} is native: {}, according to its central directory", url, isNative);
+                        metadata.put("isNative", isNative);
+                        save();
+                        return isNative;
+                    }
+                } catch (IOException e) {
+                    log.warn("Could not read the central directory of {}, downloading it instead", url, e);
+                }
+            }
+        }
+
+        inspectByDownloading(url, true);
+        save();
+        return metadata.getBoolean("isNative");
+    }
+
+    private JSONObject getMetadata(String url) {
+        if (!cache.has(url)) cache.put(url, new JSONObject());
+        return cache.getJSONObject(url);
+    }
+
+    /**
+     * Reads the central directory of the Olympus build zip to find the zip inside of it, then reads the central directory
+     * of that zip to check if MiniInstaller.exe is in it.
+     *
+     * @return Whether the build is native, or null if the inner zip is compressed or the zips use zip64,
+     * which would require downloading it anyway
+     */
+    private static Boolean isNativeFromCentralDirectories(String url, long size) throws IOException {
+        List<RemoteZip.Entry> outerEntries = RemoteZip.readCentralDirectory(url, 0, size);
+        if (outerEntries == null) return null;
+
+        // the inner zip is the only flat file there is in the outer zip
+        RemoteZip.Entry innerZip = outerEntries.stream()
+                .filter(entry -> !entry.name().endsWith("/"))
+                .findFirst().orElseThrow(() -> new IOException("There is no file in " + url + "!"));
+
+        if (innerZip.method() != ZipEntry.STORED) {
+            log.debug("The inner zip in {} is compressed, so its central directory cannot be read directly", url);
+            return null;
+        }
+
+        long innerZipStart = RemoteZip.getDataOffset(url, 0, innerZip);
+        List<RemoteZip.Entry> innerEntries = RemoteZip.readCentralDirectory(url, innerZipStart, innerZip.compressedSize());
+        if (innerEntries == null) return null;
+
+        // if there is MiniInstaller.exe in there, the build is not native.
+        return innerEntries.stream().noneMatch(entry -> entry.name().equals("MiniInstaller.exe"));
+    }
+
+    /**
+     * Downloads the artifact once to get its size, and check if it is native if asked to.
+     */
+    private void inspectByDownloading(String url, boolean checkNative) throws IOException {
+        JSONObject metadata = getMetadata(url);
+
+        try (BoundedInputStream counter = BoundedInputStream.builder().setInputStream(ConnectionUtils.openStreamWithTimeout(url)).get()) {
+            if (checkNative) {
+                ZipInputStream outerZip = new ZipInputStream(counter);
+
+                // seek to the inner zip, which is the only flat file there is in the outer zip
+                ZipEntry outerEntry;
+                do {
+                    outerEntry = outerZip.getNextEntry();
+                    if (outerEntry == null) throw new IOException("There is no file in " + url + "!");
+                } while (outerEntry.isDirectory());
+
+                // check if there is MiniInstaller.exe in there. If there is, the build is not native.
+                ZipInputStream innerZip = new ZipInputStream(outerZip);
+                boolean isNative = true;
+                ZipEntry entry;
+                while ((entry = innerZip.getNextEntry()) != null) {
+                    if (entry.getName().equals("MiniInstaller.exe")) {
+                        isNative = false;
+                        break;
+                    }
+                }
+
+                metadata.put("isNative", isNative);
+            }
+
+            // read whatever is left to get the full size of the file
+            IOUtils.consume(counter);
+            metadata.put("size", counter.getCount());
+        }
+
+        log.debug("Inspected {} by downloading it: {}", url, metadata);
+    }
+}
@@ -20,12 +20,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 /**
  * This class lists all Everest versions, making calls to GitHub and Azure APIs as required.
@@ -61,10 +58,13 @@ public class EverestVersionLister {
         }
 
         // get the latest Azure builds for dev and beta branches
+        Map<String, JSONArray> azureBuildsPerBranch = new LinkedHashMap<>();
         List<Integer> currentAzureBuilds = new ArrayList<>();
         for (String branch : Arrays.asList("dev", "beta")) {
-            try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://dev.azure.com/EverestAPI/Everest/_apis/build/builds?definitions=3&branchName=refs/heads/" + branch + "&statusFilter=completed&resultFilter=succeeded&api-version=5.0")) {
-                currentAzureBuilds.addAll(new JSONObject(new JSONTokener(is)).getJSONArray("value")
+            try (InputStream is = ConnectionUtils.openStreamWithCache("https://dev.azure.com/EverestAPI/Everest/_apis/build/builds?definitions=3&branchName=refs/heads/" + branch + "&statusFilter=completed&resultFilter=succeeded&api-version=5.0")) {
+                JSONArray azureBuilds = new JSONObject(new JSONTokener(is)).getJSONArray("value");
+                azureBuildsPerBranch.put(branch, azureBuilds);
+                currentAzureBuilds.addAll(azureBuilds
                         .toList().stream()
                         .map(version -> (int) ((Map<String, Object>) version).get("id"))
                         .collect(Collectors.toList()));
@@ -72,7 +72,8 @@ public class EverestVersionLister {
         }
 
         // get the latest GitHub release names
-        List<String> currentGitHubReleases = getAllGitHubReleases()
+        JSONArray gitHubReleases = getAllGitHubReleases();
+        List<String> currentGitHubReleases = gitHubReleases
                 .toList().stream()
                 .map(version -> (String) ((Map<String, Object>) version).get("name"))
                 .collect(Collectors.toList());
@@ -82,7 +83,7 @@ public class EverestVersionLister {
             log.info("Updating Everest versions as the latest versions changed: Azure {} -> {}, GitHub {} -> {}",
                     latestAzureBuilds, currentAzureBuilds, latestGitHubReleases, currentGitHubReleases);
 
-            updateEverestVersions();
+            updateEverestVersions(gitHubReleases, azureBuildsPerBranch);
 
             latestAzureBuilds = currentAzureBuilds;
             latestGitHubReleases = currentGitHubReleases;
@@ -95,21 +96,25 @@ public class EverestVersionLister {
         }
     }
 
-    private static void updateEverestVersions() throws IOException {
+    /**
+     * Regenerates the versions list from the given GitHub releases and Azure builds.
+     * Builds that are already in the existing list are taken from it, so only new builds cost API calls and downloads.
+     */
+    private static void updateEverestVersions(JSONArray gitHubReleases, Map<String, JSONArray> azureBuildsPerBranch) throws IOException {
         List<Map<String, Object>> infoNoNative = new ArrayList<>();
         List<Map<String, Object>> infoWithNative = new ArrayList<>();
+        EverestArtifactProbe artifactProbe = new EverestArtifactProbe();
+        Map<String, JSONObject> knownBuilds = loadKnownBuilds();
+        int newBuilds = 0;
 
         // === GitHub Releases: for stable builds
 
         {
-            JSONArray gitHubReleases = getAllGitHubReleases();
-
             for (Object b : gitHubReleases) {
                 Map<String, Object> entry = new HashMap<>();
                 JSONObject build = (JSONObject) b;
 
                 entry.put("date", build.getString("published_at"));
-                entry.put("commit", getGitHubReleaseCommit(build));
 
                 // "beta" and "stable" is determined by the "prerelease" flag on the release.
                 entry.put("branch", build.getBoolean("prerelease") ? "beta" : "stable");
@@ -135,27 +140,28 @@ public class EverestVersionLister {
                     }
                 }
 
-                entry.put("mainFileSize", getFileSize((String) entry.get("mainDownload"), "main"));
-                entry.put("olympusBuildFileSize", getFileSize((String) entry.get("olympusBuildDownload"), "olympusBuild"));
-                entry.put("olympusMetaFileSize", getFileSize((String) entry.get("olympusMetaDownload"), "olympusMeta"));
-
-                boolean isNative = isNative((String) entry.get("olympusBuildDownload"));
-                entry.put("isNative", isNative);
+                // the commit and artifact details of a release never change, so only look them up for new releases
+                JSONObject knownBuild = knownBuilds.get((String) entry.get("mainDownload"));
+                if (knownBuild != null) {
+                    entry.put("commit", knownBuild.getString("commit"));
+                    copyArtifactDetails(knownBuild, entry);
+                } else {
+                    entry.put("commit", getGitHubReleaseCommit(build));
+                    computeArtifactDetails(entry, artifactProbe);
+                    newBuilds++;
+                }
 
-                if (!isNative) infoNoNative.add(entry);
+                if (!((boolean) entry.get("isNative"))) infoNoNative.add(entry);
                 infoWithNative.add(entry);
             }
         }
 
         // === Azure: for dev and beta builds
 
-        for (String branch : Arrays.asList("dev", "beta")) {
-            JSONObject azureBuilds;
-            try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://dev.azure.com/EverestAPI/Everest/_apis/build/builds?definitions=3&branchName=refs/heads/" + branch + "&statusFilter=completed&resultFilter=succeeded&api-version=5.0")) {
-                azureBuilds = new JSONObject(new JSONTokener(is));
-            }
+        for (Map.Entry<String, JSONArray> azureBuilds : azureBuildsPerBranch.entrySet()) {
+            String branch = azureBuilds.getKey();
 
-            for (Object b : azureBuilds.getJSONArray("value")) {
+            for (Object b : azureBuilds.getValue()) {
                 Map<String, Object> entry = new HashMap<>();
                 JSONObject build = (JSONObject) b;
 
@@ -168,6 +174,20 @@ public class EverestVersionLister {
                 entry.put("olympusMetaDownload", "https://dev.azure.com/EverestAPI/Everest/_apis/build/builds/" + build.getInt("id") + "/artifacts?artifactName=olympus-meta&api-version=5.0&%24format=zip");
                 entry.put("olympusBuildDownload", "https://dev.azure.com/EverestAPI/Everest/_apis/build/builds/" + build.getInt("id") + "/artifacts?artifactName=olympus-build&api-version=5.0&%24format=zip");
 
+                JSONObject knownBuild = knownBuilds.get((String) entry.get("mainDownload"));
+                if (knownBuild != null) {
+                    // this build was already looked up during a previous run
+                    if (knownBuild.has("author")) entry.put("author", knownBuild.getString("author"));
+                    if (knownBuild.has("description")) entry.put("description", knownBuild.getString("description"));
+                    copyArtifactDetails(knownBuild, entry);
+
+                    if (!((boolean) entry.get("isNative"))) infoNoNative.add(entry);
+                    infoWithNative.add(entry);
+                    continue;
+                }
+
+                newBuilds++;
+
                 // only look for an author and description for commit-related builds, not manual ones
                 if (!"beta".equals(branch) && build.getString("reason").equals("individualCI")) {
                     Matcher pullRequestMatcher = PULL_REQUEST_MERGE.matcher(build.getJSONObject("triggerInfo").getString("ci.message"));
@@ -201,18 +221,15 @@ public class EverestVersionLister {
                     }
                 }
 
-                entry.put("mainFileSize", getFileSize((String) entry.get("mainDownload"), "main"));
-                entry.put("olympusBuildFileSize", getFileSize((String) entry.get("olympusBuildDownload"), "olympusBuild"));
-                entry.put("olympusMetaFileSize", getFileSize((String) entry.get("olympusMetaDownload"), "olympusMeta"));
+                computeArtifactDetails(entry, artifactProbe);
 
-                boolean isNative = isNative((String) entry.get("olympusBuildDownload"));
-                entry.put("isNative", isNative);
-
-                if (!isNative) infoNoNative.add(entry);
+                if (!((boolean) entry.get("isNative"))) infoNoNative.add(entry);
                 infoWithNative.add(entry);
             }
         }
 
+        log.info("Looked up {} new builds, took {} builds from the existing list", newBuilds, infoWithNative.size() - newBuilds);
+
         // sort the versions by descending number
         infoNoNative.sort(Comparator.comparingInt(build -> -((int) build.get("version"))));
         infoWithNative.sort(Comparator.comparingInt(build -> -((int) build.get("version"))));
@@ -295,79 +312,39 @@ public class EverestVersionLister {
     }
 
     /**
-     * Gets a file size by downloading it twice.
-     * This is useful for Azure, since it does not tell file sizes through response headers.
+     * Loads the existing Everest versions list, indexed by main download URL, since that identifies a build
+     * (the URL includes either the Azure build ID or the GitHub release tag).
      */
-    private static long getFileSize(String url, String name) throws IOException {
-        Optional<Long> calculated = getPreviouslyCalculatedValue(name + "Download", url, v -> v.getLong(name + "FileSize"));
-        if (calculated.isPresent()) return calculated.get();
-
-        long[] size = new long[2];
-
-        for (int i = 0; i < 2; i++) {
-            byte[] buffer = new byte[4096];
-            try (InputStream is = ConnectionUtils.openStreamWithTimeout(url)) {
-                while (true) {
-                    int read = is.read(buffer);
-                    if (read == -1) break;
-                    size[i] += read;
-                }
-            }
-        }
+    private static Map<String, JSONObject> loadKnownBuilds() throws IOException {
+        Path existingList = Paths.get("/shared/celeste/everest-versions-with-native.json");
+        Map<String, JSONObject> knownBuilds = new HashMap<>();
+        if (!Files.exists(existingList)) return knownBuilds;
+
+        try (InputStream is = Files.newInputStream(existingList)) {
+            JSONArray versions = new JSONArray(new JSONTokener(is));
 
-        if (size[0] == size[1]) {
-            log.debug("Size of file {} is {} bytes", url, size[0]);
-            return size[0];
+            for (int i = 0; i < versions.length(); i++) {
+                JSONObject version = versions.getJSONObject(i);
+                if (version.has("mainDownload")) knownBuilds.put(version.getString("mainDownload"), version);
+            }
         }
 
-        throw new IOException("Got different sizes for " + url + ": " + size[0] + " and " + size[1] + "!");
+        return knownBuilds;
     }
 
-    /**
-     * Checks whether the Olympus build at the given URL is a native build,
-     * by checking if it contains MiniInstaller.exe.
-     */
-    private static boolean isNative(String url) throws IOException {
-        Optional<Boolean> calculated = getPreviouslyCalculatedValue("olympusBuildDownload", url, v -> v.getBoolean("isNative"));
-        if (calculated.isPresent()) return calculated.get();
-
-        try (InputStream is = ConnectionUtils.openStreamWithTimeout(url);
-             ZipInputStream outerZip = new ZipInputStream(is)) {
-
-            // seek to the inner zip, which is the only flat file there is in the outer zip
-            while (outerZip.getNextEntry().isDirectory()) ;
-
-            try (ZipInputStream innerZip = new ZipInputStream(outerZip)) {
-                // check if there is MiniInstaller.exe in there. If there is, the build is not native.
-                ZipEntry entry;
-                while ((entry = innerZip.getNextEntry()) != null) {
-                    if (entry.getName().equals("MiniInstaller.exe")) {
-                        return false;
-                    }
-                }
-
-                return true;
-            }
+    private static void copyArtifactDetails(JSONObject knownBuild, Map<String, Object> entry) {
+        entry.put("isNative", knownBuild.getBoolean("isNative"));
+        for (String name : Arrays.asList("main", "olympusBuild", "olympusMeta")) {
+            entry.put(name + "FileSize", knownBuild.getLong(name + "FileSize"));
         }
     }
 
-    /**
-     * Retrieves a previously calculated value from the existing Everest versions list file,
-     * since this is way faster than redownloading the Everest version to check its size or contents.
-     */
-    private static <T> Optional<T> getPreviouslyCalculatedValue(String fieldToMatch, String valueToMatch, Function<JSONObject, T> getter) throws IOException {
-        try (InputStream is = Files.newInputStream(Paths.get("/shared/celeste/everest-versions-with-native.json"))) {
-            JSONArray versions = new JSONArray(new JSONTokener(is));
-
-            for (int i = 0; i < versions.length(); i++) {
-                JSONObject version = versions.getJSONObject(i);
-
-                if (valueToMatch.equals(version.getString(fieldToMatch))) {
-                    return Optional.of(getter.apply(version));
-                }
-            }
+    private static void computeArtifactDetails(Map<String, Object> entry, EverestArtifactProbe artifactProbe) throws IOException {
+        // checking if the build is native first allows getting the Olympus build size out of the same download, if we need one
+        entry.put("isNative", artifactProbe.isNative((String) entry.get("olympusBuildDownload")));
 
-            return Optional.empty();
+        for (String name : Arrays.asList("main", "olympusBuild", "olympusMeta")) {
+            entry.put(name + "FileSize", artifactProbe.getSize((String) entry.get(name + "Download")));
         }
     }
 }
@@ -0,0 +1,163 @@
+package ovh.maddie480.randomstuff.backend.celeste.crontabs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * A set of strings that gets sorted on disk, so that huge sets can be built and compared using a bounded amount of memory.
+ * Strings are added in sorted runs of {@value #RUN_SIZE} strings, that are merged into a single sorted file when the set is complete.
+ * Strings cannot contain line breaks.
+ */
+final class ExternalSortedSet implements Closeable {
+    private static final int RUN_SIZE = 10_000;
+
+    /**
+     * Differences between 2 sets, with up to {@value #SAMPLE_SIZE} examples of each kind of difference.
+     */
+    record Difference(long missingCount, List<String> missingSample, long extraCount, List<String> extraSample) {
+        private static final int SAMPLE_SIZE = 20;
+
+        boolean isEmpty() {
+            return missingCount == 0 && extraCount == 0;
+        }
+
+        @Override
+        public String toString() {
+            List<String> parts = new ArrayList<>();
+            if (missingCount != 0) parts.add(missingCount + " missing (" + describe(missingSample, missingCount) + ")");
+            if (extraCount != 0) parts.add(extraCount + " extra (" + describe(extraSample, extraCount) + ")");
+            return String.join(", ", parts);
+        }
+
+        private static String describe(List<String> sample, long count) {
+            return String.join(", ", sample) + (count > sample.size() ? ", ..." : "");
+        }
+    }
+
+    private final TreeSet<String> currentRun = new TreeSet<>();
+    private final List<Path> runs = new ArrayList<>();
+    private Path sorted;
+
+    /**
+     * Adds a string to the set. This cannot be called once {@link #finish()} was called.
+     */
+    void add(String string) throws IOException {
+        if (sorted != null) throw new IllegalStateException("This set is already complete!");
+
+        currentRun.add(string);
+        if (currentRun.size() >= RUN_SIZE) writeRun();
+    }
+
+    /**
+     * Merges all sorted runs into a single sorted file without duplicates.
+     * Calling this several times is fine.
+     */
+    ExternalSortedSet finish() throws IOException {
+        if (sorted != null) return this;
+
+        writeRun();
+        sorted = Files.createTempFile("sorted_set_", ".txt");
+
+        List<BufferedReader> readers = new ArrayList<>();
+        try (BufferedWriter bw = Files.newBufferedWriter(sorted)) {
+            record Head(String line, BufferedReader reader) {
+            }
+            PriorityQueue<Head> heads = new PriorityQueue<>(Comparator.comparing(Head::line));
+
+            for (Path run : runs) {
+                BufferedReader reader = Files.newBufferedReader(run);
+                readers.add(reader);
+                String line = reader.readLine();
+                if (line != null) heads.add(new Head(line, reader));
+            }
+
+            String previous = null;
+            while (!heads.isEmpty()) {
+                Head head = heads.poll();
+                if (!head.line().equals(previous)) {
+                    bw.write(head.line());
+                    bw.newLine();
+                    previous = head.line();
+                }
+
+                String line = head.reader().readLine();
+                if (line != null) heads.add(new Head(line, head.reader()));
+            }
+        } finally {
+            for (BufferedReader reader : readers) reader.close();
+            deleteRuns();
+        }
+
+        return this;
+    }
+
+    /**
+     * Compares this set with the expected contents, by walking both sorted files at the same time.
+     * Both sets need to be {@link #finish()}ed.
+     */
+    Difference compareTo(ExternalSortedSet expected) throws IOException {
+        long missingCount = 0, extraCount = 0;
+        List<String> missingSample = new ArrayList<>();
+        List<String> extraSample = new ArrayList<>();
+
+        try (BufferedReader expectedReader = Files.newBufferedReader(expected.sorted);
+             BufferedReader actualReader = Files.newBufferedReader(sorted)) {
+
+            String expectedLine = expectedReader.readLine();
+            String actualLine = actualReader.readLine();
+
+            while (expectedLine != null || actualLine != null) {
+                int comparison = expectedLine == null ? 1 : actualLine == null ? -1 : expectedLine.compareTo(actualLine);
+
+                if (comparison < 0) {
+                    missingCount++;
+                    if (missingSample.size() < Difference.SAMPLE_SIZE) missingSample.add(expectedLine);
+                    expectedLine = expectedReader.readLine();
+                } else if (comparison > 0) {
+                    extraCount++;
+                    if (extraSample.size() < Difference.SAMPLE_SIZE) extraSample.add(actualLine);
+                    actualLine = actualReader.readLine();
+                } else {
+                    expectedLine = expectedReader.readLine();
+                    actualLine = actualReader.readLine();
+                }
+            }
+        }
+
+        return new Difference(missingCount, missingSample, extraCount, extraSample);
+    }
+
+    @Override
+    public void close() throws IOException {
+        deleteRuns();
+        if (sorted != null) Files.deleteIfExists(sorted);
+    }
+
+    private void writeRun() throws IOException {
+        if (currentRun.isEmpty()) return;
+
+        Path run = Files.createTempFile("sorted_run_", ".txt");
+        runs.add(run);
+        try (BufferedWriter bw = Files.newBufferedWriter(run)) {
+            for (String string : currentRun) {
+                bw.write(string);
+                bw.newLine();
+            }
+        }
+        currentRun.clear();
+    }
+
+    private void deleteRuns() throws IOException {
+        for (Path run : runs) Files.deleteIfExists(run);
+        runs.clear();
+    }
+}
@@ -1,6 +1,7 @@
 package ovh.maddie480.randomstuff.backend.celeste.crontabs;
 
 import com.google.common.collect.ImmutableMap;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.json.JSONArray;
@@ -14,12 +15,10 @@ import ovh.maddie480.everest.updatechecker.ZipFileWithAutoEncoding;
 import ovh.maddie480.randomstuff.backend.SecretConstants;
 import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
 import ovh.maddie480.randomstuff.backend.utils.HttpPostMultipart;
-import ovh.maddie480.randomstuff.backend.utils.OutputStreamLogger;
 import ovh.maddie480.randomstuff.backend.utils.WebhookExecutor;
 
 import java.io.*;
 import java.net.HttpURLConnection;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -52,7 +51,7 @@ public class GameBananaAutomatedChecks {
     private static final Pattern objDirectoryRegex = Pattern.compile(".*(?:/|^)obj/(Debug|Release)(?:/|$).*");
 
     /**
-     * Downloads every mod with a DLL and decompiles it looking for a "yield return orig.Invoke",
+     * Downloads every mod with a DLL and scans its code looking for a "yield return orig.Invoke",
      * because mods shouldn't use those.
      * <p>
      * Also checks if a mod uses "the IntPtr trick" to call (for example) base.base.Awake() instead of base.Awake()
@@ -71,6 +70,9 @@ public class GameBananaAutomatedChecks {
             oldResults = YamlUtil.load(is);
         }
 
+        // DLL SHA-256 => what was found in it
+        Map<String, AssemblyScanner.Verdict> dllVerdicts = loadDllVerdicts();
+
         // download the updater database to figure out which mods we should scan...
         Map<String, Map<String, Object>> updaterDatabase;
         try (InputStream is = new FileInputStream("uploads/everestupdate.yaml")) {
@@ -100,120 +102,106 @@ public class GameBananaAutomatedChecks {
                     // file listing contains dll, so download!
                     logger.debug("Downloading mod {} (file id {})", modName, fileName);
 
-                    try (InputStream is = ConnectionUtils.openStreamWithTimeout(mod.get("MirrorURL").toString())) {
-                        FileUtils.copyToFile(is, new File("/tmp/mod_yield_police.zip"));
-                    }
-
-                    logger.debug("Searching for DLL");
-
-                    try (ZipFile zip = ZipFileWithAutoEncoding.open("/tmp/mod_yield_police.zip")) {
-                        // find the everest.yaml name used in this mod.
-                        ZipEntry yaml = zip.getEntry("everest.yaml");
-                        if (yaml == null) {
-                            yaml = zip.getEntry("everest.yml");
+                    Path modZip = Files.createTempFile("mod_yield_police_", ".zip");
+                    try {
+                        try (InputStream is = ConnectionUtils.openStreamWithTimeout(mod.get("MirrorURL").toString())) {
+                            FileUtils.copyToFile(is, modZip.toFile());
                         }
 
-                        // read everest.yaml without extracting
-                        List<Map<String, Object>> yamlContent;
-                        try (InputStream is = zip.getInputStream(yaml)) {
-                            yamlContent = YamlUtil.load(is);
-                        }
+                        logger.debug("Searching for DLL");
 
-                        boolean yieldReturnIssue = false;
-                        boolean consoleWriteLine = false;
-                        boolean dllEntryFoundInYaml = false;
-
-                        // read "DLL" fields for each everest.yaml entry
-                        for (Map<String, Object> yamlEntry : yamlContent) {
-                            Object dllPath = yamlEntry.get("DLL");
-                            if (dllPath == null) {
-                                logger.info("Mod actually has no DLL, skipping");
-                            } else {
-                                dllEntryFoundInYaml = true;
-                                ZipEntry entry = zip.getEntry(dllPath.toString());
-
-                                if (entry == null) {
-                                    logger.info("The DLL specified in the yaml file \"{}\" does not exist! Skipping.", dllPath);
-                                } else {
-                                    logger.debug("Extracting DLL from {}", dllPath);
-
-                                    try (InputStream is = zip.getInputStream(entry)) {
-                                        FileUtils.copyToFile(is, new File("/tmp/mod_yield_police.dll"));
-                                    }
-
-                                    // invoke ilspycmd to decompile the mod.
-                                    logger.debug("Decompiling DLL...");
-                                    Process p = OutputStreamLogger.redirectErrorOutput(logger,
-                                            new ProcessBuilder("/home/ubuntu/.dotnet/tools/ilspycmd", "/tmp/mod_yield_police.dll").start());
-
-                                    String fullDecompile;
-                                    try (InputStream is = p.getInputStream()) {
-                                        fullDecompile = IOUtils.toString(is, StandardCharsets.UTF_8);
-                                    }
-
-                                    try {
-                                        p.waitFor();
-                                    } catch (InterruptedException e) {
-                                        throw new IOException(e);
-                                    }
+                        try (ZipFile zip = ZipFileWithAutoEncoding.open(modZip.toString())) {
+                            // find the everest.yaml name used in this mod.
+                            ZipEntry yaml = zip.getEntry("everest.yaml");
+                            if (yaml == null) {
+                                yaml = zip.getEntry("everest.yml");
+                            }
 
-                                    if (p.exitValue() != 0) {
-                                        throw new IOException("ilspycmd returned exit code " + p.exitValue());
-                                    }
+                            // read everest.yaml without extracting
+                            List<Map<String, Object>> yamlContent;
+                            try (InputStream is = zip.getInputStream(yaml)) {
+                                yamlContent = YamlUtil.load(is);
+                            }
 
-                                    logger.debug("Decompiled {} lines of code",
-                                            fullDecompile.chars().filter(c -> c == '\n').count());
+                            boolean yieldReturnIssue = false;
+                            boolean consoleWriteLine = false;
+                            boolean dllEntryFoundInYaml = false;
 
-                                    // search for anything looking like yield return orig(self)
-                                    if (fullDecompile.contains("yield return orig.Invoke")) {
-                                        logger.warn("Mod {} uses yield return orig(self)!", modName);
-                                        yieldReturnIssue = true;
-                                    }
-                                    if (!Arrays.asList("FrostHelper", "MappingUtils").contains(modName) && fullDecompile.contains("Console.WriteLine")) {
-                                        logger.warn("Mod {} contains Console.WriteLine", modName);
-                                        consoleWriteLine = true;
+                            // read "DLL" fields for each everest.yaml entry
+                            for (Map<String, Object> yamlEntry : yamlContent) {
+                                Object dllPath = yamlEntry.get("DLL");
+                                if (dllPath == null) {
+                                    logger.info("Mod actually has no DLL, skipping");
+                                } else {
+                                    dllEntryFoundInYaml = true;
+                                    ZipEntry entry = zip.getEntry(dllPath.toString());
+
+                                    if (entry == null) {
+                                        logger.info("The DLL specified in the yaml file \"{}\" does not exist! Skipping.", dllPath);
+                                    } else {
+                                        byte[] dll;
+                                        try (InputStream is = zip.getInputStream(entry)) {
+                                            dll = IOUtils.toByteArray(is);
+                                        }
+
+                                        // the same helper DLLs ship with a lot of mods, so there is no need to scan them again
+                                        String dllHash = DigestUtils.sha256Hex(dll);
+                                        AssemblyScanner.Verdict verdict = dllVerdicts.get(dllHash);
+                                        if (verdict == null) {
+                                            logger.debug("Scanning DLL {} with hash {}...", dllPath, dllHash);
+                                            verdict = AssemblyScanner.scan(dll);
+                                            dllVerdicts.put(dllHash, verdict);
+                                        } else {
+                                            logger.debug("DLL {} with hash {} was already scanned: {}", dllPath, dllHash, verdict);
+                                        }
+
+                                        if (verdict.yieldsOrigInvoke()) {
+                                            logger.warn("Mod {} uses yield return orig(self)!", modName);
+                                            yieldReturnIssue = true;
+                                        }
+                                        if (!Arrays.asList("FrostHelper", "MappingUtils").contains(modName) && verdict.callsConsoleWriteLine()) {
+                                            logger.warn("Mod {} contains Console.WriteLine", modName);
+                                            consoleWriteLine = true;
+                                        }
                                     }
-
-                                    logger.debug("Deleting temporary DLL");
-                                    FileUtils.forceDelete(new File("/tmp/mod_yield_police.dll"));
                                 }
                             }
-                        }
 
-                        newResults.add(fileName);
+                            newResults.add(fileName);
 
-                        if (yieldReturnIssue) {
-                            sendAlertToWebhook(":warning: The mod called **" + modName + "** uses `yield return orig(self)`!" +
-                                    " This might change timings and desync TASes <:UnimpressedPoggersGuneline:971378034441601034>\n:arrow_right: https://gamebanana.com/"
-                                    + mod.get("GameBananaType").toString().toLowerCase() + "s/" + mod.get("GameBananaId"));
-                        }
+                            if (yieldReturnIssue) {
+                                sendAlertToWebhook(":warning: The mod called **" + modName + "** uses `yield return orig(self)`!" +
+                                        " This might change timings and desync TASes <:UnimpressedPoggersGuneline:971378034441601034>\n:arrow_right: https://gamebanana.com/"
+                                        + mod.get("GameBananaType").toString().toLowerCase() + "s/" + mod.get("GameBananaId"));
+                            }
 
-                        if (consoleWriteLine) {
-                            sendAlertToWebhook(":warning: The mod called **" + modName + "** uses `Console.WriteLine`!" +
-                                    " This might pollute the logs <:faintshiro:463773786819264512>\n:arrow_right: https://gamebanana.com/"
-                                    + mod.get("GameBananaType").toString().toLowerCase() + "s/" + mod.get("GameBananaId"));
-                        }
+                            if (consoleWriteLine) {
+                                sendAlertToWebhook(":warning: The mod called **" + modName + "** uses `Console.WriteLine`!" +
+                                        " This might pollute the logs <:faintshiro:463773786819264512>\n:arrow_right: https://gamebanana.com/"
+                                        + mod.get("GameBananaType").toString().toLowerCase() + "s/" + mod.get("GameBananaId"));
+                            }
 
-                        if (!dllEntryFoundInYaml) {
-                            sendAlertToWebhook(":warning: The mod called **" + modName + "** ships with DLLs, but does not refer to any in its everest.yaml." +
-                                    " Might be an oversight? <:laugheline:454887887847030814>\n:arrow_right: https://gamebanana.com/"
-                                    + mod.get("GameBananaType").toString().toLowerCase() + "s/" + mod.get("GameBananaId"));
+                            if (!dllEntryFoundInYaml) {
+                                sendAlertToWebhook(":warning: The mod called **" + modName + "** ships with DLLs, but does not refer to any in its everest.yaml." +
+                                        " Might be an oversight? <:laugheline:454887887847030814>\n:arrow_right: https://gamebanana.com/"
+                                        + mod.get("GameBananaType").toString().toLowerCase() + "s/" + mod.get("GameBananaId"));
+                            }
+                        } catch (ZipException | AssemblyScanner.InvalidAssemblyException e) {
+                            logger.warn("Error while reading mod. Adding to the whitelist so that it isn't retried.", e);
+                            newResults.add(fileName);
+
+                            // send an angry ping to the owner to have the mod manually checked
+                            WebhookExecutor.executeWebhook(SecretConstants.UPDATE_CHECKER_LOGS_HOOK,
+                                    "https://raw.githubusercontent.com/maddie480/RandomBackendStuff/main/webhook-avatars/gamebanana.png",
+                                    "Banana Watch",
+                                    "<@" + SecretConstants.OWNER_ID + "> The mod called **" + modName + "** could not be checked. Please check it manually.\n" +
+                                            ":arrow_right: https://gamebanana.com/" + mod.get("GameBananaType").toString().toLowerCase() + "s/" + mod.get("GameBananaId"),
+                                    SecretConstants.OWNER_ID);
                         }
-                    } catch (ZipException e) {
-                        logger.warn("Error while reading zip. Adding to the whitelist so that it isn't retried.", e);
-                        newResults.add(fileName);
-
-                        // send an angry ping to the owner to have the mod manually checked
-                        WebhookExecutor.executeWebhook(SecretConstants.UPDATE_CHECKER_LOGS_HOOK,
-                                "https://raw.githubusercontent.com/maddie480/RandomBackendStuff/main/webhook-avatars/gamebanana.png",
-                                "Banana Watch",
-                                "<@" + SecretConstants.OWNER_ID + "> The mod called **" + modName + "** could not be checked. Please check it manually.\n" +
-                                        ":arrow_right: https://gamebanana.com/" + mod.get("GameBananaType").toString().toLowerCase() + "s/" + mod.get("GameBananaId"),
-                                SecretConstants.OWNER_ID);
+                    } finally {
+                        logger.debug("Deleting temporary ZIP");
+                        Files.delete(modZip);
                     }
-
-                    logger.debug("Deleting temporary ZIP");
-                    FileUtils.forceDelete(new File("/tmp/mod_yield_police.zip"));
                 }
             }
         }
@@ -221,6 +209,36 @@ public class GameBananaAutomatedChecks {
         try (OutputStream os = new FileOutputStream("already_validated_dll_files.yaml")) {
             YamlUtil.dump(newResults, os);
         }
+
+        saveDllVerdicts(dllVerdicts);
+    }
+
+    private static Map<String, AssemblyScanner.Verdict> loadDllVerdicts() throws IOException {
+        Map<String, AssemblyScanner.Verdict> verdicts = new HashMap<>();
+        if (!Files.exists(Paths.get("dll_scan_verdicts.json"))) return verdicts;
+
+        try (BufferedReader br = Files.newBufferedReader(Paths.get("dll_scan_verdicts.json"))) {
+            JSONObject verdictsJson = new JSONObject(new JSONTokener(br));
+            for (String hash : verdictsJson.keySet()) {
+                JSONObject verdict = verdictsJson.getJSONObject(hash);
+                verdicts.put(hash, new AssemblyScanner.Verdict(verdict.getBoolean("yieldsOrigInvoke"), verdict.getBoolean("callsConsoleWriteLine")));
+            }
+        }
+        return verdicts;
+    }
+
+    private static void saveDllVerdicts(Map<String, AssemblyScanner.Verdict> verdicts) throws IOException {
+        JSONObject verdictsJson = new JSONObject();
+        for (Map.Entry<String, AssemblyScanner.Verdict> verdict : verdicts.entrySet()) {
+            JSONObject verdictJson = new JSONObject();
+            verdictJson.put("yieldsOrigInvoke", verdict.getValue().yieldsOrigInvoke());
+            verdictJson.put("callsConsoleWriteLine", verdict.getValue().callsConsoleWriteLine());
+            verdictsJson.put(verdict.getKey(), verdictJson);
+        }
+
+        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get("dll_scan_verdicts.json"))) {
+            verdictsJson.write(bw);
+        }
     }
 
     /**
@@ -329,7 +347,7 @@ public class GameBananaAutomatedChecks {
         }
 
         Map<String, Map<String, Object>> everestUpdate;
-        try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/everest_update.yaml")) {
+        try (InputStream is = ConnectionUtils.openStreamWithCache("https://maddie480.ovh/celeste/everest_update.yaml")) {
             everestUpdate = YamlUtil.load(is);
         }
 
@@ -743,13 +761,17 @@ public class GameBananaAutomatedChecks {
         }
     }
 
-    private static void sendAlertToWebhook(String message) throws IOException {
+    private static void sendAlertToWebhook(String message) {
         for (String webhook : SecretConstants.GAMEBANANA_ISSUES_ALERT_HOOKS) {
-            WebhookExecutor.executeWebhook(webhook,
-                    "https://raw.githubusercontent.com/maddie480/RandomBackendStuff/main/webhook-avatars/gamebanana.png",
-                    "Banana Watch",
-                    message,
-                    ImmutableMap.of("X-Everest-Log", "true"));
+            WebhookExecutor.executeWebhookAsync(webhook,
+                            "https://raw.githubusercontent.com/maddie480/RandomBackendStuff/main/webhook-avatars/gamebanana.png",
+                            "Banana Watch",
+                            message,
+                            ImmutableMap.of("X-Everest-Log", "true"))
+                    .exceptionally(e -> {
+                        logger.error("Could not send alert {} to webhook {}!", message, webhook, e);
+                        return null;
+                    });
         }
     }
 }
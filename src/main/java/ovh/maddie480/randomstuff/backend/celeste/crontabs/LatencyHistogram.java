@@ -0,0 +1,80 @@
+package ovh.maddie480.randomstuff.backend.celeste.crontabs;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the latencies of a health check: all of them are counted in buckets, and the most recent ones
+ * are kept as-is to tell if the service got slower lately.
+ */
+final class LatencyHistogram {
+    // upper bounds of the buckets, in milliseconds
+    private static final long[] BUCKET_BOUNDS = {50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, Long.MAX_VALUE};
+
+    private final long[] bucketCounts = new long[BUCKET_BOUNDS.length];
+    private long totalCount = 0;
+
+    private final long[] recentLatencies;
+    private int recentCount = 0;
+    private int nextRecentIndex = 0;
+
+    /**
+     * @param recentWindowSize How many of the latest latencies are used to compute recent percentiles
+     */
+    LatencyHistogram(int recentWindowSize) {
+        recentLatencies = new long[recentWindowSize];
+    }
+
+    synchronized void record(long latencyMillis) {
+        int bucket = 0;
+        while (latencyMillis > BUCKET_BOUNDS[bucket]) bucket++;
+        bucketCounts[bucket]++;
+        totalCount++;
+
+        recentLatencies[nextRecentIndex] = latencyMillis;
+        nextRecentIndex = (nextRecentIndex + 1) % recentLatencies.length;
+        recentCount = Math.min(recentCount + 1, recentLatencies.length);
+    }
+
+    /**
+     * Computes a percentile over the latest latencies.
+     *
+     * @param percentile The percentile, between 0 and 1
+     * @return The latency in milliseconds, or -1 if there are not enough latencies to fill the window yet
+     */
+    synchronized long getRecentPercentile(double percentile) {
+        if (recentCount < recentLatencies.length) return -1;
+
+        long[] sorted = recentLatencies.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(percentile * sorted.length) - 1];
+    }
+
+    /**
+     * Computes a percentile over all latencies that were ever recorded.
+     *
+     * @param percentile The percentile, between 0 and 1
+     * @return The upper bound of the bucket this percentile falls in, in milliseconds, or -1 if nothing was recorded
+     */
+    synchronized long getPercentile(double percentile) {
+        if (totalCount == 0) return -1;
+
+        long target = (long) Math.ceil(percentile * totalCount);
+        long seen = 0;
+        for (int bucket = 0; bucket < bucketCounts.length; bucket++) {
+            seen += bucketCounts[bucket];
+            if (seen >= target) return BUCKET_BOUNDS[bucket];
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (totalCount == 0) return "no data";
+        return totalCount + " checks, p50 <= " + describe(getPercentile(0.5)) + ", p90 <= " + describe(getPercentile(0.9))
+                + ", p99 <= " + describe(getPercentile(0.99));
+    }
+
+    private static String describe(long bound) {
+        return bound == Long.MAX_VALUE ? "infinity" : bound + " ms";
+    }
+}
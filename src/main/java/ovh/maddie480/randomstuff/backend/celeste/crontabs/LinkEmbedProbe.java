@@ -0,0 +1,155 @@
+package ovh.maddie480.randomstuff.backend.celeste.crontabs;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks whether links have an embed (that is, Open Graph meta tags), in order to post them separately from the status.
+ * Links are checked concurrently, only the head of the page is read, and results are cached for a few hours,
+ * since the same links tend to show up in several statuses and feeds.
+ */
+final class LinkEmbedProbe {
+    private static final Logger log = LoggerFactory.getLogger(LinkEmbedProbe.class);
+
+    // meta tags are supposed to be in the head, so there is no point in reading further than that
+    private static final int MAX_HEAD_SIZE = 512 * 1024;
+    private static final byte[] END_OF_HEAD = "</head>".getBytes(StandardCharsets.US_ASCII);
+
+    private static final Cache<String, Boolean> cache = CacheBuilder.newBuilder()
+            .maximumSize(500)
+            .expireAfterWrite(6, TimeUnit.HOURS)
+            .build();
+
+    private LinkEmbedProbe() {
+        // this class only has static methods
+    }
+
+    /**
+     * Keeps only the links that have an embed, in the order they were given in.
+     */
+    static List<String> filterLinksWithEmbeds(List<String> urls) {
+        Map<String, Future<Boolean>> checks = new HashMap<>();
+
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("Link Embed Probe #", 0).factory())) {
+            for (String url : urls) {
+                String normalizedUrl = normalize(url);
+                if (!checks.containsKey(normalizedUrl)) {
+                    checks.put(normalizedUrl, executor.submit(() -> hasEmbed(url, normalizedUrl)));
+                }
+            }
+
+            List<String> linksWithEmbeds = new ArrayList<>();
+            for (String url : urls) {
+                try {
+                    if (checks.get(normalize(url)).get()) linksWithEmbeds.add(url);
+                } catch (ExecutionException e) {
+                    log.warn("Could not check if {} has an embed", url, e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.warn("Interrupted while checking if {} has an embed", url, e);
+                }
+            }
+            return linksWithEmbeds;
+        }
+    }
+
+    private static boolean hasEmbed(String url, String normalizedUrl) {
+        Boolean cached = cache.getIfPresent(normalizedUrl);
+        if (cached != null) {
+            log.debug("Embed check for {} was cached: {}", url, cached);
+            return cached;
+        }
+
+        try {
+            log.debug("Sending request to {} to check if it has an embed...", url);
+
+            Connection.Response response = Jsoup
+                    .connect(url)
+                    .userAgent("Mozilla/5.0 (compatible; Discordbot/2.0; +https://discordapp.com)")
+                    .followRedirects(true)
+                    .timeout(10000)
+                    .execute();
+
+            byte[] head;
+            try (InputStream is = response.bodyStream()) {
+                head = readHead(is);
+            }
+
+            boolean hasEmbed = Jsoup.parse(new String(head, StandardCharsets.UTF_8), url)
+                    .select("meta")
+                    .stream()
+                    .anyMatch(meta -> meta.attr("property").startsWith("og:"));
+
+            cache.put(normalizedUrl, hasEmbed);
+            return hasEmbed;
+        } catch (IOException e) {
+            // errors are not cached, the page might work next time
+            log.warn("Cannot access {} to check for embeds", url, e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads the page up to and including the end of the head.
+     */
+    private static byte[] readHead(InputStream is) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int matched = 0;
+
+        int read;
+        while (head.size() < MAX_HEAD_SIZE && (read = is.read(buffer)) != -1) {
+            head.write(buffer, 0, read);
+
+            for (int i = 0; i < read; i++) {
+                // the tag might have any case, and might be split between 2 reads
+                if (Character.toLowerCase((char) buffer[i]) == END_OF_HEAD[matched]) {
+                    matched++;
+                    if (matched == END_OF_HEAD.length) return head.toByteArray();
+                } else {
+                    matched = Character.toLowerCase((char) buffer[i]) == END_OF_HEAD[0] ? 1 : 0;
+                }
+            }
+        }
+
+        return head.toByteArray();
+    }
+
+    /**
+     * Normalizes the URL so that the same page with a different case in its host, or with another fragment,
+     * hits the same cache entry.
+     */
+    private static String normalize(String url) {
+        try {
+            URI uri = new URI(url).normalize();
+            if (uri.getScheme() == null || uri.getHost() == null) return url;
+
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            String host = uri.getHost().toLowerCase(Locale.ROOT);
+            int port = ("http".equals(scheme) && uri.getPort() == 80) || ("https".equals(scheme) && uri.getPort() == 443) ? -1 : uri.getPort();
+            String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+
+            return scheme + "://" + (uri.getRawUserInfo() == null ? "" : uri.getRawUserInfo() + "@") + host
+                    + (port == -1 ? "" : ":" + port) + path + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package ovh.maddie480.randomstuff.backend.celeste.crontabs;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.function.IOConsumer;
@@ -19,9 +21,15 @@ import java.net.URLEncoder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -36,6 +44,19 @@ public class MastodonUpdateChecker {
 
     private static final Map<String, Set<String>> previousStatuses = new HashMap<>();
 
+    // Discord rate limits are per webhook, and WebhookExecutor deals with them, so this is only there to avoid a burst of requests
+    private static final int MAX_CONCURRENT_DELIVERIES = 8;
+
+    // the subscriber list is only read again from disk if the file changed
+    private static List<Subscriber> subscribers = null;
+    private static FileTime subscribersLastModified = null;
+
+    // once a video was uploaded to a subscriber, the other subscribers get a link to that upload
+    private static final Cache<String, String> uploadedVideos = CacheBuilder.newBuilder()
+            .maximumSize(20)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+
     /**
      * Loads all previous Mastodon IDs from disk.
      * Ran on bot startup.
@@ -198,35 +219,82 @@ public class MastodonUpdateChecker {
     /**
      * Calls the given method for all webhooks subscribed to #celeste_news_network,
      * and unsubscribes webhooks automatically if an UnknownWebhookException happens.
+     * The first subscriber gets the message on its own, so that anything it uploaded can be reused for the others,
+     * then the others get it concurrently.
      */
-    static void sendToCelesteNewsNetwork(IOConsumer<String> handler, String channel) throws IOException {
+    static synchronized void sendToCelesteNewsNetwork(IOConsumer<String> handler, String channel) throws IOException {
         Path saveFile = Paths.get("/shared/celeste/celeste-news-network-subscribers.json");
 
-        // load webhook URLs from Cloud Storage
-        List<Subscriber> subscribers;
-        try (InputStream is = Files.newInputStream(saveFile)) {
-            subscribers = new JSONArray(new JSONTokener(is)).toList()
-                    .stream()
-                    .map(object -> {
-                        Map<String, Object> subscriberRaw = (Map<String, Object>) object;
-                        return new Subscriber((String) subscriberRaw.get("webhook"), (List<String>) subscriberRaw.get("channels"));
-                    })
-                    .collect(Collectors.toCollection(ArrayList::new));
+        // load webhook URLs from Cloud Storage if they changed since last time
+        FileTime lastModified = Files.getLastModifiedTime(saveFile);
+        if (subscribers == null || !lastModified.equals(subscribersLastModified)) {
+            log.debug("Loading #celeste_news_network subscribers");
+            try (InputStream is = Files.newInputStream(saveFile)) {
+                subscribers = new JSONArray(new JSONTokener(is)).toList()
+                        .stream()
+                        .map(object -> {
+                            Map<String, Object> subscriberRaw = (Map<String, Object>) object;
+                            return new Subscriber((String) subscriberRaw.get("webhook"), (List<String>) subscriberRaw.get("channels"));
+                        })
+                        .collect(Collectors.toCollection(ArrayList::new));
+            }
+            subscribersLastModified = lastModified;
         }
 
-        // invoke webhooks
-        List<Subscriber> goneSubscribers = new ArrayList<>();
+        List<Subscriber> recipients = new ArrayList<>();
         for (Subscriber subscriber : subscribers) {
-            if (!subscriber.channels.contains(channel)) {
+            if (subscriber.channels.contains(channel)) {
+                recipients.add(subscriber);
+            } else {
                 log.debug("{} did not subscribe to {}, skipping", subscriber.webhook, channel);
-                continue;
             }
+        }
 
+        // invoke webhooks
+        List<Subscriber> goneSubscribers = new ArrayList<>();
+        IOException error = null;
+
+        if (!recipients.isEmpty()) {
             try {
-                handler.accept(subscriber.webhook);
+                handler.accept(recipients.get(0).webhook);
             } catch (WebhookExecutor.UnknownWebhookException e) {
                 // if this happens, this means the webhook was deleted.
-                goneSubscribers.add(subscriber);
+                goneSubscribers.add(recipients.get(0));
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        if (recipients.size() > 1) {
+            ExecutorService deliveryThreads = Executors.newFixedThreadPool(Math.min(recipients.size() - 1, MAX_CONCURRENT_DELIVERIES),
+                    runnable -> new Thread(runnable, "Celeste News Network Delivery"));
+
+            try {
+                Map<Subscriber, Future<Void>> deliveries = new LinkedHashMap<>();
+                for (Subscriber subscriber : recipients.subList(1, recipients.size())) {
+                    deliveries.put(subscriber, deliveryThreads.submit(() -> {
+                        handler.accept(subscriber.webhook);
+                        return null;
+                    }));
+                }
+
+                for (Map.Entry<Subscriber, Future<Void>> delivery : deliveries.entrySet()) {
+                    try {
+                        delivery.getValue().get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof WebhookExecutor.UnknownWebhookException) {
+                            goneSubscribers.add(delivery.getKey());
+                        } else if (error == null) {
+                            error = e.getCause() instanceof IOException ioException ? ioException : new IOException(e.getCause());
+                        } else {
+                            error.addSuppressed(e.getCause());
+                        }
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+            } finally {
+                deliveryThreads.shutdown();
             }
         }
 
@@ -252,8 +320,10 @@ public class MastodonUpdateChecker {
             try (BufferedWriter bw = Files.newBufferedWriter(saveFile)) {
                 data.write(bw);
             }
-
+            subscribersLastModified = Files.getLastModifiedTime(saveFile);
         }
+
+        if (error != null) throw error;
     }
 
 
@@ -265,12 +335,11 @@ public class MastodonUpdateChecker {
         }
 
         String content = consideredStatus.getString("content");
-        return Jsoup.parse(content)
+        return LinkEmbedProbe.filterLinksWithEmbeds(Jsoup.parse(content)
                 .select("a:not(.mention):not(.hashtag)")
                 .stream()
                 .map(element -> element.attr("href"))
-                .filter(MastodonUpdateChecker::hasEmbed)
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
     }
 
     /**
@@ -286,11 +355,21 @@ public class MastodonUpdateChecker {
         if (videoUrl != null) {
             boolean videoSent = false;
             File video = new File("/tmp/status_video" + getFileExtension(videoUrl));
-            if (video.exists() && video.length() <= 10 * 1024 * 1024) {
+            String uploadedVideo = uploadedVideos.getIfPresent(videoUrl);
+
+            if (uploadedVideo != null) {
+                // the video was already uploaded to another webhook, Discord will embed the link to it just like the file
+                WebhookExecutor.executeWebhook(webhook, profilePictureUrl, username, ":arrow_up: Video: " + uploadedVideo);
+                videoSent = true;
+            } else if (video.exists() && video.length() <= 10 * 1024 * 1024) {
                 // post the video as a file, to avoid having to post a long link
                 try {
-                    WebhookExecutor.executeWebhook(webhook, profilePictureUrl, username, ":arrow_up: Video:", false, Collections.singletonList(video));
+                    JSONObject message = WebhookExecutor.executeWebhookAndGetMessage(webhook, profilePictureUrl, username, ":arrow_up: Video:", Collections.singletonList(video));
                     videoSent = true;
+
+                    if (message != null && !message.getJSONArray("attachments").isEmpty()) {
+                        uploadedVideos.put(videoUrl, message.getJSONArray("attachments").getJSONObject(0).getString("url"));
+                    }
                 } catch (IOException e) {
                     log.error("Could not send Mastodon video as an attachment to the webhook!", e);
                 }
@@ -397,23 +476,4 @@ public class MastodonUpdateChecker {
 
         return embed;
     }
-
-    static boolean hasEmbed(String url) {
-        try {
-            log.debug("Sending request to {} to check if it has an embed...", url);
-
-            return Jsoup
-                    .connect(url)
-                    .userAgent("Mozilla/5.0 (compatible; Discordbot/2.0; +https://discordapp.com)")
-                    .followRedirects(true)
-                    .timeout(10000)
-                    .get()
-                    .select("meta")
-                    .stream()
-                    .anyMatch(meta -> meta.attr("property").startsWith("og:"));
-        } catch (IOException e) {
-            log.warn("Cannot access {} to check for embeds", url, e);
-            return false;
-        }
-    }
 }
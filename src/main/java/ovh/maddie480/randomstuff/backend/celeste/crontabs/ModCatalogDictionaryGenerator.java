@@ -1,6 +1,9 @@
 package ovh.maddie480.randomstuff.backend.celeste.crontabs;
 
 import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ovh.maddie480.everest.updatechecker.YamlUtil;
@@ -16,6 +19,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
@@ -25,54 +32,73 @@ public class ModCatalogDictionaryGenerator {
     private static final Pattern regex = Pattern.compile("^(?:entities|triggers|style\\.effects)\\.([^.]+)\\.(?:placements\\.)?name(?:\\.[^=]+)?=(.*)$", Pattern.MULTILINE);
     private static final Logger logger = LoggerFactory.getLogger(ModCatalogDictionaryGenerator.class);
 
+    private static final String LANG_FILE = "Loenn/lang/en_gb.lang";
+
+    // the names found in each mod file, as [id, name] pairs. A file never changes once it is uploaded to GameBanana.
+    private static final Path CACHE_FILE = Paths.get("mod_catalog_dictionary_cache.json");
+
     static Map<String, String> generateModCatalogDictionary() throws IOException {
-        List<String> toCheck;
-        try (InputStream is = new FileInputStream("uploads/everestupdate.yaml")) {
-            toCheck = YamlUtil.<Map<String, Map<String, Object>>>load(is)
-                    .values().stream()
-                    .filter(map -> {
-                        try (InputStream iss = Files.newInputStream(Paths.get("modfilesdatabase", map.get("GameBananaType").toString(), map.get("GameBananaId").toString(), map.get("GameBananaFileId") + ".yaml"))) {
-                            return YamlUtil.<List<String>>load(iss).contains("Loenn/lang/en_gb.lang");
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    })
-                    .map(map -> "https://celestemodupdater.0x0a.de/banana-mirror/" + map.get("GameBananaFileId") + ".zip")
-                    .toList();
+        JSONObject cache = new JSONObject();
+        if (Files.exists(CACHE_FILE)) {
+            try (InputStream is = Files.newInputStream(CACHE_FILE)) {
+                cache = new JSONObject(new JSONTokener(is));
+            }
         }
 
-        Map<String, Set<String>> dictionary = new TreeMap<>();
+        // only keep the files that are still in the database, and look at the files we didn't scan yet
+        List<String> fileIds = new ArrayList<>();
+        JSONObject namesPerFile = new JSONObject();
+        List<String> toCheck = new ArrayList<>();
+        try (InputStream is = new FileInputStream("uploads/everestupdate.yaml")) {
+            for (Map<String, Object> mod : YamlUtil.<Map<String, Map<String, Object>>>load(is).values()) {
+                String fileId = mod.get("GameBananaFileId").toString();
+                fileIds.add(fileId);
 
-        Path tempZip = Paths.get("/tmp/catalogscanner.zip");
+                if (cache.has(fileId)) {
+                    namesPerFile.put(fileId, cache.getJSONArray(fileId));
+                } else if (hasLangFile(mod)) {
+                    toCheck.add(fileId);
+                } else {
+                    namesPerFile.put(fileId, new JSONArray());
+                }
+            }
+        }
 
-        for (String url : toCheck) {
-            logger.debug("Scanning {}", url);
-            try (InputStream is = ConnectionUtils.openStreamWithTimeout(url);
-                 OutputStream os = Files.newOutputStream(tempZip)) {
+        logger.debug("{} files to scan, {} files already scanned", toCheck.size(), namesPerFile.length());
 
-                IOUtils.copy(is, os);
-            }
+        if (!toCheck.isEmpty()) {
+            ExecutorService scanners = Executors.newFixedThreadPool(Math.min(toCheck.size(), 4),
+                    runnable -> new Thread(runnable, "Mod Catalog Dictionary Scanner"));
 
-            try (ZipFile file = ZipFileWithAutoEncoding.open(tempZip.toString())) {
-                ZipEntry entry = file.getEntry("Loenn/lang/en_gb.lang");
-                if (entry == null) continue;
+            try {
+                Map<String, Future<JSONArray>> scans = new LinkedHashMap<>();
+                for (String fileId : toCheck) {
+                    scans.put(fileId, scanners.submit(() -> findNames(fileId)));
+                }
 
-                try (InputStream is = file.getInputStream(entry)) {
-                    Matcher matcher = regex.matcher(IOUtils.toString(is, StandardCharsets.UTF_8));
-                    while (matcher.find()) {
-                        if (dictionary.containsKey(matcher.group(1))) {
-                            logger.debug("Adding {} => {}", matcher.group(1), matcher.group(2).trim());
-                            dictionary.get(matcher.group(1)).add(matcher.group(2).trim());
-                        } else {
-                            logger.debug("Found {} => {}", matcher.group(1), matcher.group(2).trim());
-                            dictionary.put(matcher.group(1), new LinkedHashSet<>(Collections.singleton(matcher.group(2).trim())));
-                        }
+                for (Map.Entry<String, Future<JSONArray>> scan : scans.entrySet()) {
+                    try {
+                        namesPerFile.put(scan.getKey(), scan.getValue().get());
+                    } catch (ExecutionException e) {
+                        throw new IOException("Could not scan file " + scan.getKey(), e.getCause());
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
                     }
                 }
+            } finally {
+                scanners.shutdownNow();
             }
         }
 
-        Files.delete(tempZip);
+        Files.writeString(CACHE_FILE, namesPerFile.toString(), StandardCharsets.UTF_8);
+
+        Map<String, Set<String>> dictionary = new TreeMap<>();
+        for (String fileId : fileIds) {
+            for (Object n : namesPerFile.getJSONArray(fileId)) {
+                JSONArray name = (JSONArray) n;
+                dictionary.computeIfAbsent(name.getString(0), k -> new LinkedHashSet<>()).add(name.getString(1));
+            }
+        }
 
         Map<String, String> result = new TreeMap<>();
         for (Map.Entry<String, Set<String>> entry : dictionary.entrySet()) {
@@ -80,4 +106,73 @@ public class ModCatalogDictionaryGenerator {
         }
         return result;
     }
+
+    private static boolean hasLangFile(Map<String, Object> mod) throws IOException {
+        try (InputStream is = Files.newInputStream(Paths.get("modfilesdatabase", mod.get("GameBananaType").toString(), mod.get("GameBananaId").toString(), mod.get("GameBananaFileId") + ".yaml"))) {
+            return YamlUtil.<List<String>>load(is).contains(LANG_FILE);
+        }
+    }
+
+    /**
+     * Finds the entity, trigger and effect names in the Lönn lang file of a mod.
+     * Only the lang file is downloaded if the mirror supports range requests, otherwise the whole zip is.
+     */
+    private static JSONArray findNames(String fileId) throws IOException {
+        String url = "https://celestemodupdater.0x0a.de/banana-mirror/" + fileId + ".zip";
+        logger.debug("Scanning {}", url);
+
+        String langFile = null;
+        boolean readWithRanges = false;
+
+        RemoteZip.Headers headers = RemoteZip.probeHeaders(url);
+        if (headers != null && headers.acceptsRanges()) {
+            try {
+                List<RemoteZip.Entry> entries = RemoteZip.readCentralDirectory(url, 0, headers.size());
+                if (entries != null) {
+                    readWithRanges = true;
+                    RemoteZip.Entry entry = entries.stream().filter(e -> e.name().equals(LANG_FILE)).findFirst().orElse(null);
+                    if (entry != null) langFile = new String(RemoteZip.readEntry(url, entry), StandardCharsets.UTF_8);
+                }
+            } catch (IOException e) {
+                logger.warn("Could not read {} from {} with range requests, downloading it instead", LANG_FILE, url, e);
+            }
+        }
+
+        if (!readWithRanges) {
+            langFile = readLangFileByDownloading(url);
+        }
+
+        JSONArray names = new JSONArray();
+        if (langFile == null) return names;
+
+        Matcher matcher = regex.matcher(langFile);
+        while (matcher.find()) {
+            logger.debug("Found {} => {}", matcher.group(1), matcher.group(2).trim());
+            names.put(new JSONArray(Arrays.asList(matcher.group(1), matcher.group(2).trim())));
+        }
+        return names;
+    }
+
+    private static String readLangFileByDownloading(String url) throws IOException {
+        Path tempZip = Files.createTempFile("catalogscanner_", ".zip");
+
+        try {
+            try (InputStream is = ConnectionUtils.openStreamWithTimeout(url);
+                 OutputStream os = Files.newOutputStream(tempZip)) {
+
+                IOUtils.copy(is, os);
+            }
+
+            try (ZipFile file = ZipFileWithAutoEncoding.open(tempZip.toString())) {
+                ZipEntry entry = file.getEntry(LANG_FILE);
+                if (entry == null) return null;
+
+                try (InputStream is = file.getInputStream(entry)) {
+                    return IOUtils.toString(is, StandardCharsets.UTF_8);
+                }
+            }
+        } finally {
+            Files.delete(tempZip);
+        }
+    }
 }
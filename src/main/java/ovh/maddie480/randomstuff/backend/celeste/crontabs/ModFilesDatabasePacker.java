@@ -0,0 +1,110 @@
+package ovh.maddie480.randomstuff.backend.celeste.crontabs;
+
+import org.apache.commons.compress.archivers.zip.DefaultBackingStoreSupplier;
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Zips the mod files database, which is made of tens of thousands of small files that rarely change.
+ * Files that did not change since the previous zip are copied over from it without being decompressed and compressed again,
+ * and the other ones are compressed in parallel.
+ */
+final class ModFilesDatabasePacker {
+    private static final Logger log = LoggerFactory.getLogger(ModFilesDatabasePacker.class);
+
+    private ModFilesDatabasePacker() {
+        // this class only has static methods
+    }
+
+    /**
+     * Zips an entire folder, reusing the compressed contents of the zip it replaces when possible.
+     *
+     * @param sourceDir   The directory to compress
+     * @param zipFilePath The destination zip, that gets replaced atomically once the new zip is complete
+     * @throws IOException In case an error occurs while zipping the folder
+     */
+    static void pack(Path sourceDir, Path zipFilePath) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walker = Files.walk(sourceDir)) {
+            files = walker.filter(path -> !Files.isDirectory(path)).toList();
+        }
+
+        Path tempZip = zipFilePath.resolveSibling(zipFilePath.getFileName() + ".tmp");
+        ExecutorService compressors = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                runnable -> new Thread(runnable, "Mod Files Database Packer"));
+
+        try (ZipFile previousZip = Files.exists(zipFilePath) ? ZipFile.builder().setPath(zipFilePath).get() : null;
+             ZipArchiveOutputStream zs = new ZipArchiveOutputStream(tempZip)) {
+
+            ParallelScatterZipCreator compressedEntries = new ParallelScatterZipCreator(compressors,
+                    new DefaultBackingStoreSupplier(null), Deflater.BEST_COMPRESSION);
+            int reusedCount = 0;
+
+            for (Path file : files) {
+                String name = sourceDir.relativize(file).toString();
+                ZipArchiveEntry previousEntry = previousZip == null ? null : previousZip.getEntry(name);
+
+                if (previousEntry != null && isUnchanged(file, previousEntry)) {
+                    try (InputStream is = previousZip.getRawInputStream(previousEntry)) {
+                        zs.addRawArchiveEntry(previousEntry, is);
+                    }
+                    reusedCount++;
+                } else {
+                    ZipArchiveEntry entry = new ZipArchiveEntry(name);
+                    entry.setMethod(ZipEntry.DEFLATED);
+                    entry.setTime(Files.getLastModifiedTime(file).toMillis());
+                    compressedEntries.addArchiveEntry(entry, () -> {
+                        try {
+                            return Files.newInputStream(file);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+            }
+
+            compressedEntries.writeTo(zs);
+            log.debug("Packed {} files into {}: {} were reused from the previous zip, {} were compressed",
+                    files.size(), zipFilePath, reusedCount, files.size() - reusedCount);
+        } catch (InterruptedException | ExecutionException e) {
+            Files.deleteIfExists(tempZip);
+            throw new IOException("Some files failed to zip!", e);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempZip);
+            throw e;
+        } finally {
+            compressors.shutdownNow();
+        }
+
+        Files.move(tempZip, zipFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean isUnchanged(Path file, ZipArchiveEntry previousEntry) throws IOException {
+        if (previousEntry.getMethod() != ZipEntry.DEFLATED || Files.size(file) != previousEntry.getSize()) {
+            return false;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(file));
+        return crc.getValue() == previousEntry.getCrc();
+    }
+}
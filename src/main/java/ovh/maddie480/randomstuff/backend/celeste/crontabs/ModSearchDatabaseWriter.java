@@ -0,0 +1,235 @@
+package ovh.maddie480.randomstuff.backend.celeste.crontabs;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Writes the mod search database in a compact binary format that the frontend can memory-map instead of deserializing it,
+ * with the search index and sort orders already computed.
+ * All numbers are big-endian ints, and all offsets are in bytes from the start of the file.
+ * <ul>
+ *     <li><b>Header:</b> magic "MSDB", format version, mod count, string count, token count, category count,
+ *     then the offsets of the string table, mods, tokens, sort orders, categories and postings sections</li>
+ *     <li><b>String table:</b> (string count + 1) offsets relative to the start of the string data, followed by the UTF-8 string data.
+ *     String n goes from offset n to offset n + 1. Every string is only stored once, and referred to by its index everywhere else.</li>
+ *     <li><b>Mods:</b> one 40-byte record per mod: type (string), id, likes, views, downloads, category id,
+ *     subcategory id (-1 if none), creation date, name (string), full info as JSON (string)</li>
+ *     <li><b>Tokens:</b> one 12-byte record per name token as returned by the tokenizer, sorted by token:
+ *     token (string), index of the first posting, posting count. The postings are the ordinals of the mods having the token in their names.</li>
+ *     <li><b>Sort orders:</b> 4 lists of all mod ordinals, sorted by likes, views, downloads and creation date, most first</li>
+ *     <li><b>Categories:</b> one 16-byte record per category or subcategory, sorted by id:
+ *     id, name (string), index of the first posting, posting count. The postings are the ordinals of the mods in the (sub)category.</li>
+ *     <li><b>Postings:</b> the mod ordinals referred to by tokens and categories, in ascending order for each token or category</li>
+ * </ul>
+ */
+final class ModSearchDatabaseWriter {
+    static final int MAGIC = 0x4D534442; // "MSDB"
+    static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 6 * 4 + 6 * 4;
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+    private ModSearchDatabaseWriter() {
+        // instances only live for the duration of a write
+    }
+
+    /**
+     * Writes the given mods to the given path, replacing the existing file atomically.
+     *
+     * @param mods        The mods from the mod search database, in the order they appear in it
+     * @param tokenizer   The function giving the search tokens for a mod name
+     * @param destination The file to write
+     */
+    static void write(List<? extends Map<String, Object>> mods, Function<String, String[]> tokenizer, Path destination) throws IOException {
+        byte[] contents = new ModSearchDatabaseWriter().serialize(mods, tokenizer);
+
+        Path temp = destination.resolveSibling(destination.getFileName() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(temp)) {
+            os.write(contents);
+        }
+        Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private byte[] serialize(List<? extends Map<String, Object>> mods, Function<String, String[]> tokenizer) throws IOException {
+        ByteArrayOutputStream modSection = new ByteArrayOutputStream();
+        DataOutputStream modOut = new DataOutputStream(modSection);
+
+        SortedMap<String, List<Integer>> postingsByToken = new TreeMap<>();
+        SortedMap<Integer, String> categoryNames = new TreeMap<>();
+        SortedMap<Integer, List<Integer>> postingsByCategory = new TreeMap<>();
+
+        int[] likes = new int[mods.size()];
+        int[] views = new int[mods.size()];
+        int[] downloads = new int[mods.size()];
+        int[] createdDates = new int[mods.size()];
+
+        for (int ordinal = 0; ordinal < mods.size(); ordinal++) {
+            Map<String, Object> mod = mods.get(ordinal);
+            String name = (String) mod.get("Name");
+            String[] tokens = tokenizer.apply(name);
+
+            int categoryId = (int) mod.get("CategoryId");
+            int subcategoryId = mod.containsKey("SubcategoryId") ? (int) mod.get("SubcategoryId") : -1;
+
+            categoryNames.put(categoryId, mod.get("CategoryName").toString());
+            addPosting(postingsByCategory.computeIfAbsent(categoryId, k -> new ArrayList<>()), ordinal);
+            if (subcategoryId != -1) {
+                categoryNames.put(subcategoryId, mod.get("SubcategoryName").toString());
+                addPosting(postingsByCategory.computeIfAbsent(subcategoryId, k -> new ArrayList<>()), ordinal);
+            }
+
+            for (String token : tokens) {
+                if (token.isEmpty()) continue;
+                addPosting(postingsByToken.computeIfAbsent(token, k -> new ArrayList<>()), ordinal);
+            }
+
+            Map<String, Object> fullInfo = new HashMap<>(mod);
+            fullInfo.put("TokenizedName", tokens);
+
+            likes[ordinal] = (int) mod.get("Likes");
+            views[ordinal] = (int) mod.get("Views");
+            downloads[ordinal] = (int) mod.get("Downloads");
+            createdDates[ordinal] = (int) mod.get("CreatedDate");
+
+            modOut.writeInt(intern(mod.get("GameBananaType").toString()));
+            modOut.writeInt((int) mod.get("GameBananaId"));
+            modOut.writeInt(likes[ordinal]);
+            modOut.writeInt(views[ordinal]);
+            modOut.writeInt(downloads[ordinal]);
+            modOut.writeInt(categoryId);
+            modOut.writeInt(subcategoryId);
+            modOut.writeInt(createdDates[ordinal]);
+            modOut.writeInt(intern(name));
+            modOut.writeInt(intern(new JSONObject(fullInfo).toString()));
+        }
+
+        ByteArrayOutputStream postingSection = new ByteArrayOutputStream();
+        DataOutputStream postingOut = new DataOutputStream(postingSection);
+        int postingCount = 0;
+
+        ByteArrayOutputStream tokenSection = new ByteArrayOutputStream();
+        DataOutputStream tokenOut = new DataOutputStream(tokenSection);
+        for (Map.Entry<String, List<Integer>> token : postingsByToken.entrySet()) {
+            tokenOut.writeInt(intern(token.getKey()));
+            tokenOut.writeInt(postingCount);
+            tokenOut.writeInt(token.getValue().size());
+            postingCount += writePostings(postingOut, token.getValue());
+        }
+
+        ByteArrayOutputStream categorySection = new ByteArrayOutputStream();
+        DataOutputStream categoryOut = new DataOutputStream(categorySection);
+        for (Map.Entry<Integer, List<Integer>> category : postingsByCategory.entrySet()) {
+            categoryOut.writeInt(category.getKey());
+            categoryOut.writeInt(intern(categoryNames.get(category.getKey())));
+            categoryOut.writeInt(postingCount);
+            categoryOut.writeInt(category.getValue().size());
+            postingCount += writePostings(postingOut, category.getValue());
+        }
+
+        ByteArrayOutputStream sortSection = new ByteArrayOutputStream();
+        DataOutputStream sortOut = new DataOutputStream(sortSection);
+        for (int[] sortKey : Arrays.asList(likes, views, downloads, createdDates)) {
+            for (int ordinal : sortByDescending(mods.size(), i -> sortKey[i])) {
+                sortOut.writeInt(ordinal);
+            }
+        }
+
+        byte[] stringSection = serializeStrings();
+
+        // and now, assemble everything!
+        long stringOffset = HEADER_SIZE;
+        long modOffset = stringOffset + stringSection.length;
+        long tokenOffset = modOffset + modSection.size();
+        long sortOffset = tokenOffset + tokenSection.size();
+        long categoryOffset = sortOffset + sortSection.size();
+        long postingOffset = categoryOffset + categorySection.size();
+        long totalSize = postingOffset + postingSection.size();
+
+        if (totalSize > Integer.MAX_VALUE) {
+            throw new IOException("Mod search database is too big: " + totalSize + " bytes");
+        }
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream((int) totalSize);
+        DataOutputStream out = new DataOutputStream(file);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(mods.size());
+        out.writeInt(strings.size());
+        out.writeInt(postingsByToken.size());
+        out.writeInt(postingsByCategory.size());
+        out.writeInt((int) stringOffset);
+        out.writeInt((int) modOffset);
+        out.writeInt((int) tokenOffset);
+        out.writeInt((int) sortOffset);
+        out.writeInt((int) categoryOffset);
+        out.writeInt((int) postingOffset);
+
+        out.write(stringSection);
+        modSection.writeTo(out);
+        tokenSection.writeTo(out);
+        sortSection.writeTo(out);
+        categorySection.writeTo(out);
+        postingSection.writeTo(out);
+        out.flush();
+
+        return file.toByteArray();
+    }
+
+    private int intern(String string) {
+        return stringIndexes.computeIfAbsent(string, s -> {
+            strings.add(s);
+            return strings.size() - 1;
+        });
+    }
+
+    private byte[] serializeStrings() throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ByteArrayOutputStream section = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(section);
+
+        out.writeInt(0);
+        for (String string : strings) {
+            data.write(string.getBytes(StandardCharsets.UTF_8));
+            out.writeInt(data.size());
+        }
+
+        data.writeTo(out);
+        out.flush();
+        return section.toByteArray();
+    }
+
+    private static void addPosting(List<Integer> postings, int ordinal) {
+        // mods are added in order, so we only need to check the last one to avoid duplicates
+        if (postings.isEmpty() || postings.get(postings.size() - 1) != ordinal) {
+            postings.add(ordinal);
+        }
+    }
+
+    private static int writePostings(DataOutputStream out, List<Integer> postings) throws IOException {
+        for (int ordinal : postings) {
+            out.writeInt(ordinal);
+        }
+        return postings.size();
+    }
+
+    private static int[] sortByDescending(int count, ToIntFunction<Integer> sortKey) {
+        return IntStream.range(0, count).boxed()
+                .sorted(Comparator.comparingInt(sortKey).reversed().thenComparingInt(i -> i))
+                .mapToInt(i -> i)
+                .toArray();
+    }
+}
@@ -1,7 +1,9 @@
 package ovh.maddie480.randomstuff.backend.celeste.crontabs;
 
 import com.google.common.collect.ImmutableMap;
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ovh.maddie480.everest.updatechecker.YamlUtil;
@@ -11,7 +13,9 @@ import ovh.maddie480.randomstuff.backend.utils.WebhookExecutor;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -23,36 +27,65 @@ import java.util.stream.Stream;
 public class OlympusNewsUpdateChecker {
     private static final Logger log = LoggerFactory.getLogger(OlympusNewsUpdateChecker.class);
 
+    private static final Path STATE_FILE = Paths.get("previous_olympus_news.txt");
+
+    // entries with ignore = true are checked again every time, since they can be un-ignored later on.
+    // this file maps their names to the hash of their contents, so that they are only parsed again if they changed.
+    private static final Path IGNORED_STATE_FILE = Paths.get("ignored_olympus_news.json");
+
     private static Set<String> alreadyNotified = new HashSet<>();
+    private static JSONObject ignoredEntries = new JSONObject();
 
     public static void loadPreviouslyPostedNews() {
-        try (Stream<String> lines = Files.lines(Paths.get("previous_olympus_news.txt"))) {
+        try (Stream<String> lines = Files.lines(STATE_FILE)) {
             alreadyNotified = lines.collect(Collectors.toCollection(HashSet::new));
         } catch (IOException e) {
             log.error("Could not load previously posted news!", e);
         }
+
+        if (Files.exists(IGNORED_STATE_FILE)) {
+            try {
+                ignoredEntries = new JSONObject(Files.readString(IGNORED_STATE_FILE, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                log.error("Could not load ignored news!", e);
+            }
+        }
     }
 
     public static void checkForUpdates() throws IOException {
         // this is pretty much a port of what Olympus itself does to parse the news.
         log.debug("Checking for Olympus News updates...");
 
-        // list the Olympus news posts
+        // list the Olympus news posts (this request is conditional, so an unchanged index is read from the HTTP cache)
         List<String> entries = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(ConnectionUtils.openStreamWithTimeout("https://everestapi.github.io/olympusnews/index.txt")))) {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(ConnectionUtils.openStreamWithCache("https://everestapi.github.io/olympusnews/index.txt")))) {
             String s;
             while ((s = br.readLine()) != null) {
-                if (s.endsWith(".md")) {
+                if (s.endsWith(".md") && !alreadyNotified.contains(s)) {
                     entries.add(s);
                 }
             }
         }
 
+        if (entries.isEmpty()) {
+            log.debug("No new Olympus News entry");
+            return;
+        }
+
         // sort them by descending order
         entries.sort(Comparator.<String>naturalOrder().reversed());
 
         for (String entryName : entries) {
-            String data = ConnectionUtils.toStringWithTimeout("https://everestapi.github.io/olympusnews/" + entryName, StandardCharsets.UTF_8);
+            String data;
+            try (InputStream is = ConnectionUtils.openStreamWithCache("https://everestapi.github.io/olympusnews/" + entryName)) {
+                data = IOUtils.toString(is, StandardCharsets.UTF_8);
+            }
+
+            String hash = DigestUtils.sha256Hex(data);
+            if (hash.equals(ignoredEntries.optString(entryName, null))) {
+                log.debug("Skipped {} because it is still ignored", entryName);
+                continue;
+            }
 
             // split between data, preview and full text
             String[] split = data.split("\n---\n", 3);
@@ -66,13 +99,19 @@ public class OlympusNewsUpdateChecker {
                 dataParsed = YamlUtil.load(is);
             }
 
-            // skip ignored news
+            // skip ignored news, and remember their contents so that they don't get parsed again unless they change
             if ((boolean) dataParsed.get("ignore")) {
                 log.debug("Skipped {} because ignored = true", entryName);
+                ignoredEntries.put(entryName, hash);
+                saveIgnoredEntries();
                 continue;
             }
             dataParsed.remove("ignore");
 
+            if (ignoredEntries.remove(entryName) != null) {
+                saveIgnoredEntries();
+            }
+
             // relative image links should be turned into absolute ones
             if (dataParsed.containsKey("image") && dataParsed.get("image").toString().startsWith("./")) {
                 dataParsed.put("image", "https://everestapi.github.io/olympusnews/" + dataParsed.get("image").toString().substring(2));
@@ -91,14 +130,22 @@ public class OlympusNewsUpdateChecker {
 
             log.debug("Parsed {} -> {}", entryName, dataParsed);
 
-            // if we didn't encounter that file name before, it's time to post about it!
-            if (!alreadyNotified.contains(entryName)) {
-                postToDiscord(dataParsed);
-                alreadyNotified.add(entryName);
-            }
+            // we didn't encounter that file name before, so it's time to post about it!
+            postToDiscord(dataParsed);
+            markAsNotified(entryName);
         }
+    }
+
+    private static void markAsNotified(String entryName) throws IOException {
+        alreadyNotified.add(entryName);
+
+        // the file has no line break at the end
+        String line = (Files.exists(STATE_FILE) && Files.size(STATE_FILE) > 0 ? "\n" : "") + entryName;
+        Files.writeString(STATE_FILE, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
 
-        FileUtils.writeStringToFile(new File("previous_olympus_news.txt"), String.join("\n", alreadyNotified), StandardCharsets.UTF_8);
+    private static void saveIgnoredEntries() throws IOException {
+        Files.writeString(IGNORED_STATE_FILE, ignoredEntries.toString(), StandardCharsets.UTF_8);
     }
 
     private static void postToDiscord(Map<String, Object> newsEntry) throws IOException {
@@ -20,6 +20,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
@@ -49,10 +53,14 @@ public class OlympusVersionLister {
         }
 
         // get the latest Azure builds for main, stable and windows-init branches
+        // (those requests are conditional, so unchanged lists are read from the HTTP cache)
+        Map<String, JSONArray> azureBuildsPerBranch = new LinkedHashMap<>();
         List<Integer> currentAzureBuilds = new ArrayList<>();
         for (String branch : Arrays.asList("main", "stable", "windows-init")) {
-            try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://dev.azure.com/EverestAPI/Olympus/_apis/build/builds?definitions=4&branchName=refs/heads/" + branch + "&statusFilter=completed&resultFilter=succeeded&api-version=5.0")) {
-                currentAzureBuilds.addAll(new JSONObject(new JSONTokener(is)).getJSONArray("value")
+            try (InputStream is = ConnectionUtils.openStreamWithCache("https://dev.azure.com/EverestAPI/Olympus/_apis/build/builds?definitions=4&branchName=refs/heads/" + branch + "&statusFilter=completed&resultFilter=succeeded&api-version=5.0")) {
+                JSONArray azureBuilds = new JSONObject(new JSONTokener(is)).getJSONArray("value");
+                azureBuildsPerBranch.put(branch, azureBuilds);
+                currentAzureBuilds.addAll(azureBuilds
                         .toList().stream()
                         .map(version -> (int) ((Map<String, Object>) version).get("id"))
                         .collect(Collectors.toList()));
@@ -62,7 +70,7 @@ public class OlympusVersionLister {
         if (!currentAzureBuilds.equals(latestAzureBuilds)) {
             // one of them changed => trigger an update
             log.info("Updating Olympus versions as the latest versions changed: {} -> {}", latestAzureBuilds, currentAzureBuilds);
-            updateOlympusVersions();
+            updateOlympusVersions(azureBuildsPerBranch);
 
             latestAzureBuilds = currentAzureBuilds;
         }
@@ -73,16 +81,14 @@ public class OlympusVersionLister {
         }
     }
 
-    private static void updateOlympusVersions() throws IOException {
+    private static void updateOlympusVersions(Map<String, JSONArray> azureBuildsPerBranch) throws IOException {
         List<Map<String, Object>> info = new ArrayList<>();
+        JSONObject changelogs = getChangelogs(azureBuildsPerBranch.values());
 
-        for (String branch : Arrays.asList("main", "stable", "windows-init")) {
-            JSONObject azureBuilds;
-            try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://dev.azure.com/EverestAPI/Olympus/_apis/build/builds?definitions=4&branchName=refs/heads/" + branch + "&statusFilter=completed&resultFilter=succeeded&api-version=5.0")) {
-                azureBuilds = new JSONObject(new JSONTokener(is));
-            }
+        for (Map.Entry<String, JSONArray> azureBuilds : azureBuildsPerBranch.entrySet()) {
+            String branch = azureBuilds.getKey();
 
-            for (Object b : azureBuilds.getJSONArray("value")) {
+            for (Object b : azureBuilds.getValue()) {
                 Map<String, Object> entry = new HashMap<>();
                 JSONObject build = (JSONObject) b;
 
@@ -95,10 +101,7 @@ public class OlympusVersionLister {
                     entry.put(os + "Download", "https://dev.azure.com/EverestAPI/Olympus/_apis/build/builds/" + build.getInt("id") + "/artifacts?artifactName=" + os + ".main&api-version=5.0&%24format=zip");
                 }
 
-                try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://raw.githubusercontent.com/EverestAPI/Olympus/" + build.getString("sourceVersion") + "/changelog.txt")) {
-                    String changelogFile = IOUtils.toString(is, StandardCharsets.UTF_8);
-                    entry.put("changelog", changelogFile.substring(changelogFile.indexOf("#changelog#") + 11).trim());
-                }
+                entry.put("changelog", changelogs.getString(build.getString("sourceVersion")));
 
                 info.add(entry);
             }
@@ -120,4 +123,68 @@ public class OlympusVersionLister {
                     ImmutableMap.of("X-Everest-Log", "true"));
         }
     }
+
+    /**
+     * Gets the changelogs of all the given builds, indexed by commit.
+     * The changelog of a commit never changes, so changelogs are kept in a file, and only the missing ones are downloaded.
+     */
+    private static JSONObject getChangelogs(Collection<JSONArray> azureBuildLists) throws IOException {
+        Path changelogCacheFile = Paths.get("olympus_changelogs.json");
+        JSONObject cachedChangelogs = new JSONObject();
+        if (Files.exists(changelogCacheFile)) {
+            try (InputStream is = Files.newInputStream(changelogCacheFile)) {
+                cachedChangelogs = new JSONObject(new JSONTokener(is));
+            }
+        }
+
+        // only keep the changelogs of the builds that are still listed
+        JSONObject changelogs = new JSONObject();
+        Set<String> missingCommits = new HashSet<>();
+        for (JSONArray azureBuilds : azureBuildLists) {
+            for (Object b : azureBuilds) {
+                String commit = ((JSONObject) b).getString("sourceVersion");
+                if (cachedChangelogs.has(commit)) {
+                    changelogs.put(commit, cachedChangelogs.getString(commit));
+                } else {
+                    missingCommits.add(commit);
+                }
+            }
+        }
+
+        if (!missingCommits.isEmpty()) {
+            log.debug("Downloading changelogs for commits {}", missingCommits);
+
+            ExecutorService fetchers = Executors.newFixedThreadPool(Math.min(missingCommits.size(), 4),
+                    runnable -> new Thread(runnable, "Olympus Changelog Fetcher"));
+
+            try {
+                Map<String, Future<String>> fetchedChangelogs = new HashMap<>();
+                for (String commit : missingCommits) {
+                    fetchedChangelogs.put(commit, fetchers.submit(() -> downloadChangelog(commit)));
+                }
+
+                for (Map.Entry<String, Future<String>> fetchedChangelog : fetchedChangelogs.entrySet()) {
+                    try {
+                        changelogs.put(fetchedChangelog.getKey(), fetchedChangelog.getValue().get());
+                    } catch (ExecutionException e) {
+                        throw new IOException("Could not download changelog for commit " + fetchedChangelog.getKey(), e.getCause());
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+            } finally {
+                fetchers.shutdownNow();
+            }
+        }
+
+        Files.writeString(changelogCacheFile, changelogs.toString(), StandardCharsets.UTF_8);
+        return changelogs;
+    }
+
+    private static String downloadChangelog(String commit) throws IOException {
+        try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://raw.githubusercontent.com/EverestAPI/Olympus/" + commit + "/changelog.txt")) {
+            String changelogFile = IOUtils.toString(is, StandardCharsets.UTF_8);
+            return changelogFile.substring(changelogFile.indexOf("#changelog#") + 11).trim();
+        }
+    }
 }
@@ -8,28 +8,44 @@ import ovh.maddie480.everest.updatechecker.YamlUtil;
 import ovh.maddie480.randomstuff.backend.SecretConstants;
 import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.MGF1ParameterSpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.PSSParameterSpec;
-import java.util.Base64;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Tells the otobot mirror which files the Banana Mirror has.
+ * By default, the full list is sent uncompressed every time, and the signature is computed over the plain body.
+ * If the receiver supports it, -Dotobot.mirror.delta=true makes it send only the files that were added or removed
+ * since the last acknowledged update (a "delta"), and the full list (a "snapshot") once a day or whenever the receiver
+ * says it lost track of the sequence. In that mode, bodies are gzipped and the signature is computed over the gzipped body.
+ */
 public class OtobotMirror {
     private static final Logger log = LoggerFactory.getLogger(OtobotMirror.class);
     private static OtobotMirror instance;
 
+    private static final String ENDPOINT = System.getProperty("otobot.mirror.endpoint", "https://celestemods.com/api/gamebanana-mirror/update-webhook");
+    private static final boolean DELTA_MODE = Boolean.getBoolean("otobot.mirror.delta");
+    private static final Path STATE_FILE = Paths.get("otobot_mirror_state.json");
+    private static final long SNAPSHOT_INTERVAL_MILLIS = 24 * 3600 * 1000L;
+    private static final List<String> CATEGORIES = Arrays.asList("mods", "screenshots", "richPresenceIcons");
+
+    // the receiver answers this when a delta does not apply to what it has, and it needs a snapshot instead
+    private static final int SEQUENCE_MISMATCH = 409;
+
     public static OtobotMirror getInstance() throws IOException {
         if (instance == null) instance = new OtobotMirror();
         return instance;
@@ -57,19 +73,124 @@ public class OtobotMirror {
 
     public void update() throws IOException {
         log.debug("Building file list to submit...");
+        Map<String, Set<String>> current = new HashMap<>();
+        current.put("mods", getMirroredMods());
+        current.put("screenshots", getMirroredScreenshots());
+        current.put("richPresenceIcons", getMirroredRichPresenceIcons());
+
+        if (!DELTA_MODE) {
+            JSONObject request = new JSONObject();
+            for (String category : CATEGORIES) {
+                request.put(category, current.get(category));
+            }
+            request.put("isModSearchDatabaseUpdate", true);
+            request.put("timestamp", System.currentTimeMillis() / 1000);
+
+            log.debug("Calling mirror update endpoint with {} mods, {} screenshots and {} Rich Presence icons",
+                    current.get("mods").size(), current.get("screenshots").size(), current.get("richPresenceIcons").size());
+
+            int responseCode = callMirrorUpdateEndpoint(request, false);
+            if (responseCode != 200) {
+                throw new IOException("otobot mirror returned response code " + responseCode);
+            }
+
+            log.debug("Done!");
+            return;
+        }
+
+        // the state is what the receiver acknowledged last time
+        JSONObject state = Files.exists(STATE_FILE) ? new JSONObject(Files.readString(STATE_FILE, StandardCharsets.UTF_8)) : null;
+        long sequence = state == null ? 1 : state.getLong("sequence") + 1;
+
+        if (state != null && System.currentTimeMillis() - state.getLong("lastSnapshot") < SNAPSHOT_INTERVAL_MILLIS) {
+            JSONObject request = buildDelta(state, current, sequence);
+
+            if (request == null) {
+                log.debug("Nothing changed since update #{}, not calling the mirror update endpoint", state.getLong("sequence"));
+                return;
+            }
+
+            log.debug("Calling mirror update endpoint with delta #{} based on update #{}", sequence, state.getLong("sequence"));
+
+            int responseCode = callMirrorUpdateEndpoint(request, true);
+            if (responseCode == 200) {
+                saveState(current, sequence, state.getLong("lastSnapshot"));
+                log.debug("Done!");
+                return;
+            } else if (responseCode != SEQUENCE_MISMATCH) {
+                throw new IOException("otobot mirror returned response code " + responseCode);
+            }
+
+            log.warn("otobot mirror could not apply delta #{}, sending a full snapshot instead", sequence);
+        }
+
         JSONObject request = new JSONObject();
-        request.put("mods", getMirroredMods());
-        request.put("screenshots", getMirroredScreenshots());
-        request.put("richPresenceIcons", getMirroredRichPresenceIcons());
+        request.put("type", "snapshot");
+        request.put("sequence", sequence);
+        for (String category : CATEGORIES) {
+            request.put(category, current.get(category));
+        }
         request.put("isModSearchDatabaseUpdate", true);
         request.put("timestamp", System.currentTimeMillis() / 1000);
 
-        log.debug("Calling mirror update endpoint with {} mods, {} screenshots and {} Rich Presence icons",
-                request.getJSONArray("mods").length(),
-                request.getJSONArray("screenshots").length(),
-                request.getJSONArray("richPresenceIcons").length());
+        log.debug("Calling mirror update endpoint with snapshot #{}: {} mods, {} screenshots and {} Rich Presence icons", sequence,
+                current.get("mods").size(), current.get("screenshots").size(), current.get("richPresenceIcons").size());
 
-        callMirrorUpdateEndpoint(request);
+        int responseCode = callMirrorUpdateEndpoint(request, true);
+        if (responseCode != 200) {
+            throw new IOException("otobot mirror returned response code " + responseCode);
+        }
+
+        saveState(current, sequence, System.currentTimeMillis());
+        log.debug("Done!");
+    }
+
+    /**
+     * Builds a request with the files that were added and removed since the last acknowledged update.
+     *
+     * @return The request, or null if nothing changed
+     */
+    private static JSONObject buildDelta(JSONObject state, Map<String, Set<String>> current, long sequence) {
+        JSONObject added = new JSONObject();
+        JSONObject removed = new JSONObject();
+        boolean changed = false;
+
+        for (String category : CATEGORIES) {
+            Set<String> previous = new HashSet<>();
+            for (Object file : state.getJSONArray(category)) previous.add((String) file);
+
+            Set<String> addedFiles = new HashSet<>(current.get(category));
+            addedFiles.removeAll(previous);
+            Set<String> removedFiles = new HashSet<>(previous);
+            removedFiles.removeAll(current.get(category));
+
+            log.debug("{} added and {} removed {}", addedFiles.size(), removedFiles.size(), category);
+            added.put(category, addedFiles);
+            removed.put(category, removedFiles);
+            changed |= !addedFiles.isEmpty() || !removedFiles.isEmpty();
+        }
+
+        if (!changed) return null;
+
+        JSONObject request = new JSONObject();
+        request.put("type", "delta");
+        request.put("sequence", sequence);
+        request.put("baseSequence", state.getLong("sequence"));
+        request.put("added", added);
+        request.put("removed", removed);
+        request.put("isModSearchDatabaseUpdate", true);
+        request.put("timestamp", System.currentTimeMillis() / 1000);
+        return request;
+    }
+
+    private static void saveState(Map<String, Set<String>> current, long sequence, long lastSnapshot) throws IOException {
+        JSONObject state = new JSONObject();
+        state.put("sequence", sequence);
+        state.put("lastSnapshot", lastSnapshot);
+        for (String category : CATEGORIES) {
+            state.put(category, current.get(category));
+        }
+        Files.writeString(STATE_FILE, state.toString(), StandardCharsets.UTF_8);
     }
 
     private Set<String> getMirroredMods() throws IOException {
@@ -103,8 +224,21 @@ public class OtobotMirror {
                 .collect(Collectors.toSet());
     }
 
-    private void callMirrorUpdateEndpoint(JSONObject body) throws IOException {
+    /**
+     * Sends a signed request to the mirror update endpoint, gzipped if asked to.
+     * The signature is computed over the bytes that are actually sent.
+     *
+     * @return The response code
+     */
+    private int callMirrorUpdateEndpoint(JSONObject body, boolean gzip) throws IOException {
         byte[] bodyRaw = body.toString().getBytes(StandardCharsets.UTF_8);
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream os = new GZIPOutputStream(compressed)) {
+                os.write(bodyRaw);
+            }
+            bodyRaw = compressed.toByteArray();
+        }
 
         String authorizationHeader;
         try {
@@ -115,10 +249,11 @@ public class OtobotMirror {
             throw new IOException(e);
         }
 
-        HttpURLConnection connection = ConnectionUtils.openConnectionWithTimeout("https://celestemods.com/api/gamebanana-mirror/update-webhook");
+        HttpURLConnection connection = ConnectionUtils.openConnectionWithTimeout(ENDPOINT);
         connection.setReadTimeout(60000);
         connection.setRequestMethod("POST");
         connection.setRequestProperty("Content-Type", "application/json");
+        if (gzip) connection.setRequestProperty("Content-Encoding", "gzip");
         connection.setRequestProperty("Authorization", authorizationHeader);
         connection.setDoOutput(true);
 
@@ -126,11 +261,6 @@ public class OtobotMirror {
             os.write(bodyRaw);
         }
 
-        int responseCode = connection.getResponseCode();
-        if (responseCode != 200) {
-            throw new IOException("otobot mirror returned response code " + responseCode);
-        }
-
-        log.debug("Done!");
+        return connection.getResponseCode();
     }
 }
@@ -0,0 +1,215 @@
+package ovh.maddie480.randomstuff.backend.celeste.crontabs;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads zips over HTTP with range requests, to get their file listing or a single file out of them
+ * without downloading the whole thing.
+ */
+final class RemoteZip {
+    private static final Logger log = LoggerFactory.getLogger(RemoteZip.class);
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("^bytes 0-0/([0-9]+)$");
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+    // the end of central directory record is 22 bytes long, and can be followed by a comment of up to 65535 bytes
+    private static final int TAIL_SIZE = 22 + 65535;
+
+    record Headers(long size, boolean acceptsRanges) {
+    }
+
+    record Entry(String name, int method, long compressedSize, long uncompressedSize, long localHeaderOffset) {
+    }
+
+    private RemoteZip() {
+        // this class only has static methods
+    }
+
+    /**
+     * Asks for the first byte of the file, which gives its size either in the Content-Range header
+     * (if the server supports range requests) or in the Content-Length header (if it doesn't).
+     *
+     * @return The size of the file and whether range requests work, or null if the server did not give the size of the file
+     */
+    static Headers probeHeaders(String url) throws IOException {
+        HttpURLConnection connection = ConnectionUtils.openConnectionWithTimeout(url);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        connection.setRequestProperty("Range", "bytes=0-0");
+
+        try {
+            int responseCode = connection.getResponseCode();
+
+            if (responseCode == 206) {
+                Matcher contentRange = CONTENT_RANGE.matcher(String.valueOf(connection.getHeaderField("Content-Range")));
+                if (contentRange.matches()) {
+                    return new Headers(Long.parseLong(contentRange.group(1)), true);
+                }
+            } else if (responseCode == 200 && connection.getContentLengthLong() >= 0) {
+                return new Headers(connection.getContentLengthLong(), false);
+            }
+
+            log.debug("Could not get the size of {} from headers (response code {})", url, responseCode);
+            return null;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Reads the central directory of the zip that is located at the given offset in the file at the given URL.
+     *
+     * @return The entries of the zip, or null if the zip uses zip64
+     */
+    static List<Entry> readCentralDirectory(String url, long zipStart, long zipLength) throws IOException {
+        long tailOffset = Math.max(0, zipLength - TAIL_SIZE);
+        ByteBuffer tail = readRange(url, zipStart + tailOffset, zipLength - tailOffset);
+
+        int endOfCentralDirectory = -1;
+        for (int i = tail.limit() - 22; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                endOfCentralDirectory = i;
+                break;
+            }
+        }
+        if (endOfCentralDirectory == -1) {
+            throw new IOException("Could not find the end of central directory of the zip at offset " + zipStart + " in " + url);
+        }
+
+        long centralDirectorySize = unsignedInt(tail, endOfCentralDirectory + 12);
+        long centralDirectoryOffset = unsignedInt(tail, endOfCentralDirectory + 16);
+        if (centralDirectorySize == 0xFFFFFFFFL || centralDirectoryOffset == 0xFFFFFFFFL) {
+            return null;
+        }
+
+        ByteBuffer centralDirectory;
+        if (centralDirectoryOffset >= tailOffset) {
+            // we already downloaded it along with the end of central directory
+            centralDirectory = tail.slice((int) (centralDirectoryOffset - tailOffset), (int) centralDirectorySize)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        } else {
+            centralDirectory = readRange(url, zipStart + centralDirectoryOffset, centralDirectorySize);
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        int position = 0;
+        while (position + 46 <= centralDirectory.limit()) {
+            if (centralDirectory.getInt(position) != CENTRAL_DIRECTORY_ENTRY_SIGNATURE) {
+                throw new IOException("Invalid central directory entry at offset " + position + " of the zip at offset " + zipStart + " in " + url);
+            }
+
+            int nameLength = unsignedShort(centralDirectory, position + 28);
+            byte[] name = new byte[nameLength];
+            centralDirectory.get(position + 46, name);
+
+            entries.add(new Entry(
+                    new String(name, StandardCharsets.UTF_8),
+                    unsignedShort(centralDirectory, position + 10),
+                    unsignedInt(centralDirectory, position + 20),
+                    unsignedInt(centralDirectory, position + 24),
+                    unsignedInt(centralDirectory, position + 42)));
+
+            position += 46 + nameLength + unsignedShort(centralDirectory, position + 30) + unsignedShort(centralDirectory, position + 32);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Finds where the data of an entry starts, by reading its local header:
+     * it has its own file name and extra field lengths, that can be different from the ones in the central directory.
+     */
+    static long getDataOffset(String url, long zipStart, Entry entry) throws IOException {
+        ByteBuffer localHeader = readRange(url, zipStart + entry.localHeaderOffset(), 30);
+        if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Invalid local header for " + entry.name() + " in " + url);
+        }
+        return zipStart + entry.localHeaderOffset() + 30 + unsignedShort(localHeader, 26) + unsignedShort(localHeader, 28);
+    }
+
+    /**
+     * Downloads and decompresses a single entry of the zip at the start of the file at the given URL.
+     */
+    static byte[] readEntry(String url, Entry entry) throws IOException {
+        if (entry.compressedSize() == 0) return new byte[0];
+
+        ByteBuffer data = readRange(url, getDataOffset(url, 0, entry), entry.compressedSize());
+        byte[] compressed = new byte[data.limit()];
+        data.get(0, compressed);
+
+        if (entry.method() == ZipEntry.STORED) {
+            return compressed;
+        } else if (entry.method() != ZipEntry.DEFLATED) {
+            throw new IOException("Unsupported compression method " + entry.method() + " for " + entry.name() + " in " + url);
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] uncompressed = new byte[(int) entry.uncompressedSize()];
+            int length = 0;
+            while (length < uncompressed.length && !inflater.finished()) {
+                int inflated = inflater.inflate(uncompressed, length, uncompressed.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                length += inflated;
+            }
+            if (length != uncompressed.length) {
+                throw new IOException("Expected " + uncompressed.length + " bytes out of " + entry.name() + " in " + url + ", got " + length);
+            }
+            return uncompressed;
+        } catch (DataFormatException e) {
+            throw new IOException("Could not decompress " + entry.name() + " in " + url, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    static ByteBuffer readRange(String url, long offset, long length) throws IOException {
+        HttpURLConnection connection = ConnectionUtils.openConnectionWithTimeout(url);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+
+        int responseCode = connection.getResponseCode();
+        if (responseCode != 206) {
+            connection.disconnect();
+            throw new IOException("Range request to " + url + " failed with response code " + responseCode);
+        }
+
+        byte[] contents;
+        try (InputStream is = connection.getInputStream()) {
+            contents = IOUtils.toByteArray(is);
+        }
+        if (contents.length != length) {
+            throw new IOException("Expected " + length + " bytes from " + url + " at offset " + offset + ", got " + contents.length);
+        }
+
+        return ByteBuffer.wrap(contents).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int unsignedShort(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    private static long unsignedInt(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & 0xFFFFFFFFL;
+    }
+}
@@ -122,13 +122,12 @@ public class TwitterUpdateChecker {
 
 
     private static List<String> detectLinksInStatus(Element tweet) {
-        return Jsoup.parse(tweet.select("description").text())
+        return LinkEmbedProbe.filterLinksWithEmbeds(Jsoup.parse(tweet.select("description").text())
                 .select("a")
                 .stream()
                 .map(element -> element.attr("href"))
                 .filter(href -> !href.startsWith("https://nitter.privacydev.net/"))
-                .filter(MastodonUpdateChecker::hasEmbed)
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
     }
 
     /**
@@ -31,11 +31,7 @@ import java.time.format.FormatStyle;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.zip.Deflater;
-import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 import static com.max480.randomstuff.backend.celeste.crontabs.UpdateCheckerTracker.ModInfo;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -410,8 +406,7 @@ public class UpdateCheckerTracker extends EventListener {
             if (!newFileIdsHash.equals(fileIdsSha256)) {
                 log.info("Reloading mod files database as file_ids.yaml hash changed: {} -> {}", fileIdsSha256, newFileIdsHash);
 
-                pack("modfilesdatabase", "/tmp/mod_files_database.zip");
-                Files.move(Paths.get("/tmp/mod_files_database.zip"), Paths.get("/shared/celeste/updater/mod-files-database.zip"), StandardCopyOption.REPLACE_EXISTING);
+                ModFilesDatabasePacker.pack(Paths.get("modfilesdatabase"), Paths.get("/shared/celeste/updater/mod-files-database.zip"));
 
                 fileIdsSha256 = newFileIdsHash;
             }
@@ -457,7 +452,7 @@ public class UpdateCheckerTracker extends EventListener {
     }
 
     /**
-     * Executes a webhook, logging but continuing if the call is failing.
+     * Queues up a webhook call, logging if the call ends up failing.
      *
      * @param url      The URL of the webhook
      * @param message  The message to send
@@ -465,11 +460,11 @@ public class UpdateCheckerTracker extends EventListener {
      * @param nickname The nickname that will be used for the message
      */
     private static void executeWebhook(String url, String message, String avatar, String nickname) {
-        try {
-            WebhookExecutor.executeWebhook(url, avatar, nickname, message, ImmutableMap.of("X-Everest-Log", "true"));
-        } catch (IOException e) {
-            log.error("Error while sending log message", e);
-        }
+        WebhookExecutor.executeWebhookAsync(url, avatar, nickname, message, ImmutableMap.of("X-Everest-Log", "true"))
+                .exceptionally(e -> {
+                    log.error("Error while sending log message", e);
+                    return null;
+                });
     }
 
     private static String hash(String filePath) throws IOException {
@@ -478,41 +473,6 @@ public class UpdateCheckerTracker extends EventListener {
         }
     }
 
-    /**
-     * Zips an entire folder to a zip (thanks https://stackoverflow.com/a/32052016).
-     *
-     * @param sourceDirPath The path to the directory to compress
-     * @param zipFilePath   The path to the destination zip
-     * @throws IOException In case an error occurs while zipping the file
-     */
-    private static void pack(String sourceDirPath, String zipFilePath) throws IOException {
-        Path p = Files.createFile(Paths.get(zipFilePath));
-        try (ZipOutputStream zs = new ZipOutputStream(Files.newOutputStream(p))) {
-            zs.setLevel(Deflater.BEST_COMPRESSION);
-            Path pp = Paths.get(sourceDirPath);
-
-            try (Stream<Path> walker = Files.walk(pp)) {
-                if (!walker
-                        .filter(path -> !Files.isDirectory(path))
-                        .allMatch(path -> {
-                            ZipEntry zipEntry = new ZipEntry(pp.relativize(path).toString());
-                            try {
-                                zs.putNextEntry(zipEntry);
-                                Files.copy(path, zs);
-                                zs.closeEntry();
-                                return true;
-                            } catch (IOException e) {
-                                log.error("Unable to zip a file", e);
-                                return false;
-                            }
-                        })) {
-
-                    throw new IOException("Some files failed to zip!");
-                }
-            }
-        }
-    }
-
     private static void serializeModSearchDatabase() throws IOException {
         try (InputStream connectionToDatabase = new FileInputStream("uploads/modsearchdatabase.yaml")) {
             // download the mods
@@ -543,6 +503,9 @@ public class UpdateCheckerTracker extends EventListener {
                 oos.writeObject(modCategories);
             }
             Files.move(Paths.get("/tmp/mod_search_database.ser"), Paths.get("/shared/celeste/mod-search-database.ser"), StandardCopyOption.REPLACE_EXISTING);
+
+            // same data in a format that can be memory-mapped, with the search index and sort orders already computed
+            ModSearchDatabaseWriter.write(mods, UpdateCheckerTracker::tokenize, Paths.get("/shared/celeste/mod-search-database.bin"));
         }
     }
 
@@ -1,10 +1,10 @@
 package ovh.maddie480.randomstuff.backend.discord.crontabs;
 
-import net.dv8tion.jda.api.entities.Guild;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ovh.maddie480.randomstuff.backend.SecretConstants;
-import ovh.maddie480.randomstuff.backend.utils.DiscardableJDA;
+import ovh.maddie480.randomstuff.backend.utils.DiscordBotRestClient;
 
 import java.io.IOException;
 import java.util.Arrays;
@@ -23,14 +23,19 @@ public class AutoLeaver {
         for (String token : Arrays.asList(SecretConstants.GAMES_BOT_TOKEN, SecretConstants.CUSTOM_SLASH_COMMANDS_TOKEN,
                 SecretConstants.TIMEZONE_BOT_LITE_TOKEN, SecretConstants.BANANABOT_TOKEN)) {
 
-            try (DiscardableJDA jda = new DiscardableJDA(token)) {
-                for (Guild guild : jda.getGuilds()) {
-                    if (guild.getSelfMember().getEffectiveName().equals(jda.getSelfUser().getEffectiveName())) {
-                        logger.warn("{} is leaving guild {}!", jda.getSelfUser(), guild);
-                        guild.leave().queue();
-                    } else {
-                        logger.info("Staying in server {} since user \"{}\" was renamed to \"{}\"", guild, jda.getSelfUser().getEffectiveName(), guild.getSelfMember().getEffectiveName());
-                    }
+            DiscordBotRestClient client = new DiscordBotRestClient(token);
+            JSONObject selfUser = client.getSelfUser();
+            String selfName = DiscordBotRestClient.getEffectiveName(selfUser);
+
+            for (JSONObject guild : client.getGuilds()) {
+                String guildId = guild.getString("id");
+                String nameInGuild = DiscordBotRestClient.getEffectiveName(client.getSelfMember(guildId), selfUser);
+
+                if (nameInGuild.equals(selfName)) {
+                    logger.warn("{} is leaving guild {} ({})!", selfName, guild.getString("name"), guildId);
+                    client.leaveGuild(guildId);
+                } else {
+                    logger.info("Staying in server {} ({}) since user \"{}\" was renamed to \"{}\"", guild.getString("name"), guildId, selfName, nameInGuild);
                 }
             }
         }
@@ -10,19 +10,33 @@ import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
 
 import java.io.*;
 import java.net.HttpURLConnection;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public class TwitchUpdateChecker {
     private static final Logger log = LoggerFactory.getLogger(TwitchUpdateChecker.class);
 
+    // Helix accepts up to 100 user_login parameters per request
+    private static final int LOGINS_PER_REQUEST = 100;
+
+    // renew the token a bit before it actually expires, so that it doesn't expire in the middle of a run
+    private static final long TOKEN_EXPIRY_MARGIN_MILLIS = 10 * 60 * 1000L;
+
+    private static final Path TOKEN_FILE = Paths.get("twitch_app_token.json");
+
     private Map<String, String> streamingTitles = new HashMap<>();
     private Map<String, String> streamingGames = new HashMap<>();
 
+    private String accessToken;
+
     public void checkForUpdates(TextChannel target) throws IOException {
         Path stateFile = Paths.get("twitch_update_checker_state.ser");
 
@@ -36,80 +50,142 @@ public class TwitchUpdateChecker {
             }
         }
 
-        String accessToken;
-        {
-            JSONObject body = new JSONObject();
-            body.put("client_id", SecretConstants.TWITCH_CLIENT_ID);
-            body.put("client_secret", SecretConstants.TWITCH_CLIENT_SECRET);
-            body.put("grant_type", "client_credentials");
+        List<String> channelIds;
+        try (BufferedReader br = new BufferedReader(new FileReader("followed_twitch_channels.txt"))) {
+            channelIds = br.lines().toList();
+        }
+
+        // Twitch sends back logins in lowercase, so that is what we use to match them with the channels we follow
+        Map<String, JSONObject> liveStreams = new HashMap<>();
+        for (int i = 0; i < channelIds.size(); i += LOGINS_PER_REQUEST) {
+            for (JSONObject stream : getLiveStreams(channelIds.subList(i, Math.min(channelIds.size(), i + LOGINS_PER_REQUEST)))) {
+                liveStreams.put(stream.getString("user_login").toLowerCase(), stream);
+            }
+        }
+
+        boolean changed = false;
 
-            HttpURLConnection con = ConnectionUtils.openConnectionWithTimeout("https://id.twitch.tv/oauth2/token");
-            con.setRequestMethod("POST");
-            con.setDoOutput(true);
-            con.setRequestProperty("Content-Type", "application/json");
+        for (String channelId : channelIds) {
+            JSONObject stream = liveStreams.get(channelId.toLowerCase());
 
-            try (OutputStream os = con.getOutputStream();
-                 OutputStreamWriter bw = new OutputStreamWriter(os, StandardCharsets.UTF_8)) {
+            if (stream == null) {
+                log.debug("{} est hors-ligne", channelId);
 
-                body.write(bw);
+                // streamer is not live
+                if (streamingTitles.containsKey(channelId)) {
+                    sendMessage(target, "**" + channelId + "** n'est plus en direct.");
+                    streamingTitles.remove(channelId);
+                    streamingGames.remove(channelId);
+                    changed = true;
+                }
+            } else {
+                String gameName = stream.getString("game_name");
+                String streamTitle = stream.getString("title");
+
+                log.debug("{} est en ligne sur {}, titre du stream = {}", channelId, gameName, streamTitle);
+
+                // streamer is live
+                if (streamingTitles.containsKey(channelId)) {
+                    if (!streamingTitles.get(channelId).equals(streamTitle)
+                            || !streamingGames.get(channelId).equals(gameName)) {
+
+                        sendMessage(target, "**" + channelId + "** a changé le sujet de son stream : le stream s'appelle maintenant \"**" + streamTitle + "**\" " +
+                                "sur le jeu **" + gameName + "**.\n:arrow_right: <https://twitch.tv/" + channelId + ">");
+                        changed = true;
+                    }
+                } else {
+                    sendMessage(target, "**" + channelId + "** est en direct sur le jeu **" + gameName + "** ! Le nom du stream est \"**" + streamTitle + "**\"." +
+                            "\n:arrow_right: <https://twitch.tv/" + channelId + ">");
+                    changed = true;
+                }
+
+                streamingTitles.put(channelId, streamTitle);
+                streamingGames.put(channelId, gameName);
+            }
+        }
+
+        // save state
+        if (changed) {
+            try (ObjectOutputStream os = new ObjectOutputStream(Files.newOutputStream(stateFile))) {
+                os.writeObject(streamingTitles);
+                os.writeObject(streamingGames);
+            }
+        }
+    }
+
+    /**
+     * Gets the streams that are live among the given channels, in a single request.
+     */
+    private List<JSONObject> getLiveStreams(List<String> channelIds) throws IOException {
+        String url = "https://api.twitch.tv/helix/streams?first=" + LOGINS_PER_REQUEST + "&" + channelIds.stream()
+                .map(channelId -> "user_login=" + URLEncoder.encode(channelId, StandardCharsets.UTF_8))
+                .collect(Collectors.joining("&"));
+
+        for (int attempt = 0; ; attempt++) {
+            HttpURLConnection con = ConnectionUtils.openConnectionWithTimeout(url);
+            con.setRequestProperty("Authorization", "Bearer " + getAccessToken(attempt > 0));
+            con.setRequestProperty("Client-Id", SecretConstants.TWITCH_CLIENT_ID);
+
+            if (con.getResponseCode() == 401 && attempt == 0) {
+                // the token was revoked or expired early, get a new one and try again
+                log.warn("Twitch rejected the access token, getting a new one");
+                continue;
             }
 
             try (InputStream is = ConnectionUtils.connectionToInputStream(con)) {
                 JSONObject result = new JSONObject(new JSONTokener(is));
-                accessToken = result.getString("access_token");
+
+                List<JSONObject> streams = new ArrayList<>();
+                for (int i = 0; i < result.getJSONArray("data").length(); i++) {
+                    streams.add(result.getJSONArray("data").getJSONObject(i));
+                }
+                return streams;
             }
         }
+    }
 
-        try (BufferedReader br = new BufferedReader(new FileReader("followed_twitch_channels.txt"))) {
-            String channelId;
-            while ((channelId = br.readLine()) != null) {
-                HttpURLConnection con = ConnectionUtils.openConnectionWithTimeout("https://api.twitch.tv/helix/streams?first=1&user_login=" + channelId);
-                con.setRequestProperty("Authorization", "Bearer " + accessToken);
-                con.setRequestProperty("Client-Id", SecretConstants.TWITCH_CLIENT_ID);
-
-                try (InputStream is = ConnectionUtils.connectionToInputStream(con)) {
-                    JSONObject result = new JSONObject(new JSONTokener(is));
-
-                    if (result.getJSONArray("data").isEmpty()) {
-                        log.debug("{} est hors-ligne", channelId);
-
-                        // streamer is not live
-                        if (streamingTitles.containsKey(channelId)) {
-                            sendMessage(target, "**" + channelId + "** n'est plus en direct.");
-                            streamingTitles.remove(channelId);
-                            streamingGames.remove(channelId);
-                        }
-                    } else {
-                        String gameName = result.getJSONArray("data").getJSONObject(0).getString("game_name");
-                        String streamTitle = result.getJSONArray("data").getJSONObject(0).getString("title");
-
-                        log.debug("{} est en ligne sur {}, titre du stream = {}", channelId, gameName, streamTitle);
-
-                        // streamer is live
-                        if (streamingTitles.containsKey(channelId)) {
-                            if (!streamingTitles.get(channelId).equals(streamTitle)
-                                    || !streamingGames.get(channelId).equals(gameName)) {
-
-                                sendMessage(target, "**" + channelId + "** a changé le sujet de son stream : le stream s'appelle maintenant \"**" + streamTitle + "**\" " +
-                                        "sur le jeu **" + gameName + "**.\n:arrow_right: <https://twitch.tv/" + channelId + ">");
-                            }
-                        } else {
-                            sendMessage(target, "**" + channelId + "** est en direct sur le jeu **" + gameName + "** ! Le nom du stream est \"**" + streamTitle + "**\"." +
-                                    "\n:arrow_right: <https://twitch.tv/" + channelId + ">");
-                        }
-
-                        streamingTitles.put(channelId, streamTitle);
-                        streamingGames.put(channelId, gameName);
-                    }
-                }
+    /**
+     * Gets an app access token, reusing the one from the previous runs if it is still valid.
+     */
+    private String getAccessToken(boolean forceRenew) throws IOException {
+        if (!forceRenew && accessToken != null) return accessToken;
+
+        if (!forceRenew && Files.exists(TOKEN_FILE)) {
+            JSONObject savedToken = new JSONObject(Files.readString(TOKEN_FILE, StandardCharsets.UTF_8));
+            if (savedToken.getLong("expires_at") - TOKEN_EXPIRY_MARGIN_MILLIS > System.currentTimeMillis()) {
+                accessToken = savedToken.getString("access_token");
+                return accessToken;
             }
         }
 
-        // save state
-        try (ObjectOutputStream os = new ObjectOutputStream(Files.newOutputStream(stateFile))) {
-            os.writeObject(streamingTitles);
-            os.writeObject(streamingGames);
+        log.debug("Getting a new Twitch access token");
+
+        JSONObject body = new JSONObject();
+        body.put("client_id", SecretConstants.TWITCH_CLIENT_ID);
+        body.put("client_secret", SecretConstants.TWITCH_CLIENT_SECRET);
+        body.put("grant_type", "client_credentials");
+
+        HttpURLConnection con = ConnectionUtils.openConnectionWithTimeout("https://id.twitch.tv/oauth2/token");
+        con.setRequestMethod("POST");
+        con.setDoOutput(true);
+        con.setRequestProperty("Content-Type", "application/json");
+
+        try (OutputStream os = con.getOutputStream();
+             OutputStreamWriter bw = new OutputStreamWriter(os, StandardCharsets.UTF_8)) {
+
+            body.write(bw);
+        }
+
+        JSONObject savedToken = new JSONObject();
+        try (InputStream is = ConnectionUtils.connectionToInputStream(con)) {
+            JSONObject result = new JSONObject(new JSONTokener(is));
+            accessToken = result.getString("access_token");
+            savedToken.put("access_token", accessToken);
+            savedToken.put("expires_at", System.currentTimeMillis() + result.getLong("expires_in") * 1000);
         }
+
+        Files.writeString(TOKEN_FILE, savedToken.toString(), StandardCharsets.UTF_8);
+        return accessToken;
     }
 
     private static void sendMessage(TextChannel target, String message) {
@@ -0,0 +1,167 @@
+package ovh.maddie480.randomstuff.backend.discord.modstructureverifier;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ovh.maddie480.randomstuff.backend.utils.OutputStreamLogger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * Runs BMFont through Wine, with a few generations running at once, and caches the results.
+ * A persistent Wine server is kept running, so that every BMFont launch attaches to the already-initialized prefix
+ * instead of paying for the whole Wine startup.
+ */
+final class BMFontWorkerPool {
+    private static final Logger logger = LoggerFactory.getLogger(BMFontWorkerPool.class);
+
+    static final int WORKER_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static final Path CACHE_DIRECTORY = Paths.get("/tmp/font_generator_cache");
+    private static final int MAX_CACHE_ENTRIES = 200;
+    private static final String CACHED_BASE_NAME = "font";
+
+    private static final Semaphore workers = new Semaphore(WORKER_COUNT, true);
+    private static Process wineServer = null;
+
+    private BMFontWorkerPool() {
+        // this class only has static methods
+    }
+
+    /**
+     * Generates a font with BMFont, or takes it from the cache if the same font was already generated.
+     *
+     * @param cacheKey        A key identifying the font file, the config and the characters to generate
+     * @param fontConfig      The BMFont config to use
+     * @param textFile        The file containing the characters to generate
+     * @param outputDirectory The directory to write the .fnt and .png files to
+     * @param baseName        The name of the .fnt file, without extension. The .png files get named after it.
+     * @return The generated .fnt file, or null if BMFont did not generate anything
+     */
+    static Path generate(String cacheKey, Path fontConfig, Path textFile, Path outputDirectory, String baseName) throws IOException, InterruptedException {
+        Path cached = CACHE_DIRECTORY.resolve(cacheKey);
+        if (Files.isDirectory(cached)) {
+            try {
+                Path result = copyFont(cached, CACHED_BASE_NAME, outputDirectory, baseName);
+                Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+                logger.debug("Took font {} from the cache", cacheKey);
+                return result;
+            } catch (NoSuchFileException e) {
+                // the entry was evicted while we were copying it, so just generate the font again
+                logger.warn("Cache entry {} disappeared while reading it", cacheKey, e);
+            }
+        }
+
+        Path targetFile = outputDirectory.resolve(baseName + ".fnt");
+
+        workers.acquire();
+        try {
+            ensureWineServerIsRunning();
+
+            long startTime = System.currentTimeMillis();
+            OutputStreamLogger.redirectAllOutput(logger,
+                    new ProcessBuilder("/usr/bin/wine", "/app/static/font-generator-data/bmfont.exe",
+                            "-c", toWindowsPath(fontConfig),
+                            "-t", toWindowsPath(textFile),
+                            "-o", toWindowsPath(targetFile))
+                            .start()).waitFor();
+            logger.debug("BMFont ran in {} ms", System.currentTimeMillis() - startTime);
+        } finally {
+            workers.release();
+        }
+
+        if (!Files.exists(targetFile)) {
+            return null;
+        }
+
+        saveToCache(cacheKey, outputDirectory, baseName);
+        return targetFile;
+    }
+
+    static String toWindowsPath(Path path) {
+        // within Wine, the entire Linux filesystem is mapped to drive Z:\, for example /tmp/foo is at Z:\tmp\foo
+        // => we need to add Z: in front of the absolute path and to replace / with \
+        return "Z:" + path.toAbsolutePath().toString().replace("/", "\\");
+    }
+
+    private static synchronized void ensureWineServerIsRunning() throws IOException {
+        if (wineServer != null && wineServer.isAlive()) return;
+
+        logger.info("Starting persistent Wine server");
+        wineServer = OutputStreamLogger.redirectAllOutput(logger,
+                new ProcessBuilder("/usr/bin/wineserver", "--foreground", "--persistent").start());
+    }
+
+    private static void saveToCache(String cacheKey, Path outputDirectory, String baseName) {
+        try {
+            Files.createDirectories(CACHE_DIRECTORY);
+            Path temp = Files.createTempDirectory(CACHE_DIRECTORY, "tmp_");
+
+            try {
+                copyFont(outputDirectory, baseName, temp, CACHED_BASE_NAME);
+                Files.move(temp, CACHE_DIRECTORY.resolve(cacheKey), StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                // someone generated the same font at the same time as us
+                logger.debug("Font {} was already cached", cacheKey);
+            } finally {
+                if (Files.exists(temp)) FileUtils.deleteDirectory(temp.toFile());
+            }
+
+            evictOldEntries();
+        } catch (IOException e) {
+            logger.warn("Could not save font {} to the cache", cacheKey, e);
+        }
+    }
+
+    private static void evictOldEntries() throws IOException {
+        List<Path> entries;
+        try (Stream<Path> list = Files.list(CACHE_DIRECTORY)) {
+            entries = list.filter(path -> !path.getFileName().toString().startsWith("tmp_")).toList();
+        }
+        if (entries.size() <= MAX_CACHE_ENTRIES) return;
+
+        List<Path> oldestFirst = entries.stream()
+                .sorted(Comparator.comparing(path -> path.toFile().lastModified()))
+                .toList();
+
+        for (Path entry : oldestFirst.subList(0, entries.size() - MAX_CACHE_ENTRIES)) {
+            logger.debug("Evicting font {} from the cache", entry.getFileName());
+            FileUtils.deleteDirectory(entry.toFile());
+        }
+    }
+
+    /**
+     * Copies a .fnt file and its .png pages from a directory to another, renaming them along the way.
+     * The .fnt file refers to its pages by name, so the references get renamed as well.
+     */
+    private static Path copyFont(Path sourceDirectory, String sourceBaseName, Path targetDirectory, String targetBaseName) throws IOException {
+        // going through ISO-8859-1 keeps the bytes of the .fnt file as they are, whatever encoding BMFont used
+        Path targetFnt = targetDirectory.resolve(targetBaseName + ".fnt");
+        String fnt = Files.readString(sourceDirectory.resolve(sourceBaseName + ".fnt"), StandardCharsets.ISO_8859_1);
+        fnt = fnt.replace(asBytes("file=\"" + sourceBaseName + "_"), asBytes("file=\"" + targetBaseName + "_"));
+        Files.writeString(targetFnt, fnt, StandardCharsets.ISO_8859_1);
+
+        try (Stream<Path> list = Files.list(sourceDirectory)) {
+            for (Path page : list.toList()) {
+                String name = page.getFileName().toString();
+                if (name.startsWith(sourceBaseName + "_") && name.endsWith(".png")) {
+                    Files.copy(page, targetDirectory.resolve(targetBaseName + name.substring(sourceBaseName.length())),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+
+        return targetFnt;
+    }
+
+    private static String asBytes(String string) {
+        return new String(string.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+    }
+}
@@ -7,7 +7,6 @@ import net.dv8tion.jda.api.utils.FileUpload;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.function.IORunnable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -15,7 +14,6 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 import ovh.maddie480.randomstuff.backend.SecretConstants;
-import ovh.maddie480.randomstuff.backend.utils.OutputStreamLogger;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -28,7 +26,12 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -45,6 +48,12 @@ import java.util.zip.ZipOutputStream;
 public class FontGenerator {
     private static final Logger logger = LoggerFactory.getLogger(FontGenerator.class);
 
+    private static final int CHARSET_COUNT = 10;
+
+    private static final ExecutorService charSetProbes = Executors.newFixedThreadPool(BMFontWorkerPool.WORKER_COUNT + 1,
+            runnable -> new Thread(runnable, "Font Generator CharSet Probe"));
+    private static final Map<String, Integer> workingCharSets = new ConcurrentHashMap<>();
+
     public static void generateFontFromDiscord(File inputFile, String language, MessageChannel channel, Message message) {
         generateFont(inputFile, language, channel, null, null, 0, message, null);
         tryDeleteFile(inputFile.toPath());
@@ -69,59 +78,156 @@ public class FontGenerator {
             return;
         }
 
-        logger.debug("Generating reference non-existing font...");
+        try {
+            generateCustomFont(textFile, fontFile, fontFileName, fontName, sendResultToFrontend);
+        } catch (IOException e) {
+            logger.error("Failed generating the custom font!", e);
+            sendResultToFrontend.accept("❌ An error occurred while generating the font file!", Collections.emptyList());
+        }
+
+        tryDeleteFile(textFile.toPath());
+        tryDeleteFile(fontFile.toPath());
+    }
 
-        generateFont(textFile, fontFileName, null, new File("/tmp/nonexisting"), "nonexisting", 0, null,
-                (sampleResult, sampleFiles) -> interceptErrors(sampleResult, sampleFiles, sendResultToFrontend, () -> {
+    /**
+     * The result of a font generation, moved out of the generation directory so that it survives its cleanup.
+     */
+    private record FontAttempt(String result, List<File> files, Set<String> shaSums, Path directory) {
+        boolean isFailure() {
+            return result.startsWith("❌");
+        }
 
-                    Set<String> shaSums = getShaSumsOfPngs(sampleFiles);
-                    for (File f : sampleFiles) tryDeleteFile(f.toPath());
+        void discard() {
+            tryDeleteDirectory(directory);
+        }
+    }
 
-                    AtomicBoolean shouldContinue = new AtomicBoolean(true);
+    /**
+     * Custom fonts need the right charSet to be picked in the config for BMFont to find the characters, and the only way to know
+     * which one is right is to generate the font and to check if it is any different from the one we get with a font that does not exist.
+     * The reference font and the charSets are tried in parallel, starting with the charSet that worked last time for the same font.
+     */
+    private static void generateCustomFont(File textFile, File fontFile, String fontFileName, String fontName,
+                                           BiConsumer<String, List<File>> sendResultToFrontend) throws IOException {
 
-                    for (int i = 0; i < 10 && shouldContinue.get(); i++) {
-                        logger.debug("Generating font with charSet={}...", i);
-                        shouldContinue.set(false);
+        String fontHash = DigestUtils.sha256Hex(Files.readAllBytes(fontFile.toPath()));
+        List<Integer> charSets = planCharSets(fontHash);
 
-                        generateFont(textFile, fontFileName, null, fontFile, fontName, i, null,
-                                (result, files) -> interceptErrors(result, files, sendResultToFrontend, () -> {
+        logger.debug("Generating reference non-existing font...");
+        FontAttempt reference = null;
+        Future<FontAttempt> referenceFuture = charSetProbes.submit(() ->
+                attemptFont(textFile, fontFileName, new File("/tmp/nonexisting"), "nonexisting", 0));
 
-                                    Set<String> newShaSums = getShaSumsOfPngs(files);
-                                    if (newShaSums.equals(shaSums)) {
-                                        // the new font we generated matches the non-existing one, so just delete it and try another value
-                                        for (File f : files) tryDeleteFile(f.toPath());
-                                        shouldContinue.set(true);
-                                    } else {
-                                        // the new font actually has content! send it as a result.
-                                        sendResultToFrontend.accept(result, files);
-                                        shouldContinue.set(false);
-                                    }
-                                }));
+        try {
+            for (int start = 0; start < charSets.size(); start += BMFontWorkerPool.WORKER_COUNT) {
+                List<Integer> batch = charSets.subList(start, Math.min(charSets.size(), start + BMFontWorkerPool.WORKER_COUNT));
+                logger.debug("Generating font with charSets {}...", batch);
+
+                List<Future<FontAttempt>> futures = new ArrayList<>();
+                for (int charSetIndex : batch) {
+                    futures.add(charSetProbes.submit(() -> attemptFont(textFile, fontFileName, fontFile, fontName, charSetIndex)));
+                }
+
+                if (reference == null) {
+                    reference = awaitAll(Collections.singletonList(referenceFuture)).get(0);
+
+                    if (reference.isFailure()) {
+                        // underlying task has failed, pass the failure around
+                        awaitAll(futures).forEach(FontAttempt::discard);
+                        sendResultToFrontend.accept(reference.result(), reference.files());
+                        return;
                     }
+                }
+
+                List<FontAttempt> attempts = awaitAll(futures);
+                FontAttempt chosen = null;
+
+                for (int i = 0; i < attempts.size(); i++) {
+                    FontAttempt attempt = attempts.get(i);
 
-                    if (shouldContinue.get()) {
-                        throw new IOException("No appropriate charSet was found!");
+                    if (chosen == null && (attempt.isFailure() || !attempt.shaSums().equals(reference.shaSums()))) {
+                        // the new font actually has content (or the generation failed)! send it as a result.
+                        chosen = attempt;
+                        if (!attempt.isFailure()) workingCharSets.put(fontHash, batch.get(i));
+                    } else {
+                        // the font we generated matches the non-existing one (or we already have a result), so just delete it
+                        attempt.discard();
                     }
-                }));
+                }
 
-        tryDeleteFile(textFile.toPath());
-        tryDeleteFile(fontFile.toPath());
+                if (chosen != null) {
+                    sendResultToFrontend.accept(chosen.result(), chosen.files());
+                    chosen.discard();
+                    return;
+                }
+            }
+
+            throw new IOException("No appropriate charSet was found!");
+        } finally {
+            if (reference != null) reference.discard();
+        }
     }
 
+    /**
+     * Puts the charSet that worked last time for this font first, followed by all other ones.
+     */
+    private static List<Integer> planCharSets(String fontHash) {
+        List<Integer> charSets = new ArrayList<>();
+        Integer knownCharSet = workingCharSets.get(fontHash);
+        if (knownCharSet != null) charSets.add(knownCharSet);
 
-    private static void interceptErrors(String result, List<File> files, BiConsumer<String, List<File>> onFailure, IORunnable onSuccess) {
-        if (result.startsWith("❌")) {
-            // underlying task has failed, pass the failure around
-            onFailure.accept(result, files);
-        } else {
+        for (int i = 0; i < CHARSET_COUNT; i++) {
+            if (!charSets.contains(i)) charSets.add(i);
+        }
+        return charSets;
+    }
+
+    private static FontAttempt attemptFont(File textFile, String fontFileName, File fontFile, String fontName, int charSetIndex) throws IOException {
+        Path directory = Files.createTempDirectory("font_generator_result_");
+        AtomicReference<FontAttempt> attempt = new AtomicReference<>();
+
+        generateFont(textFile, fontFileName, null, fontFile, fontName, charSetIndex, null, (result, files) -> {
             try {
-                onSuccess.run();
+                List<File> movedFiles = new ArrayList<>();
+                for (File f : files) {
+                    Path target = directory.resolve(f.getName());
+                    Files.move(f.toPath(), target);
+                    movedFiles.add(target.toFile());
+                }
+                attempt.set(new FontAttempt(result, movedFiles, getShaSumsOfPngs(movedFiles), directory));
             } catch (IOException e) {
-                // task failed, so turn the result into an unhandled failure
-                logger.error("Failed generating the reference non-existing font!", e);
-                onFailure.accept("❌ An error occurred while generating the font file!", Collections.emptyList());
+                logger.error("Failed keeping the generated font!", e);
+                attempt.set(new FontAttempt("❌ An error occurred while generating the font file!", Collections.emptyList(), Collections.emptySet(), directory));
             }
+        });
+
+        if (attempt.get() == null) {
+            tryDeleteDirectory(directory);
+            throw new IOException("Font generation with charSet " + charSetIndex + " did not give any result!");
         }
+        return attempt.get();
+    }
+
+    /**
+     * Waits for all the given attempts to be done. If any of them failed, the other ones are discarded.
+     */
+    private static List<FontAttempt> awaitAll(List<Future<FontAttempt>> futures) throws IOException {
+        List<FontAttempt> attempts = new ArrayList<>();
+        Exception failure = null;
+
+        for (Future<FontAttempt> future : futures) {
+            try {
+                attempts.add(future.get());
+            } catch (InterruptedException | ExecutionException e) {
+                failure = e;
+            }
+        }
+
+        if (failure != null) {
+            attempts.forEach(FontAttempt::discard);
+            throw new IOException(failure);
+        }
+        return attempts;
     }
 
     private static void generateFont(File inputFile, String language, MessageChannel channel, File customFontFile, String customFontName, int charSetIndex,
@@ -176,46 +282,51 @@ public class FontGenerator {
             }
 
             // make a working directory, write the missing characters in it
-            tempDirectory = Files.createDirectory(Paths.get("/tmp/font_generator_" + System.currentTimeMillis()));
+            // (several fonts can be generated at the same time, so the names have to be unique)
+            tempDirectory = Files.createTempDirectory("font_generator_");
             Path textFile = tempDirectory.resolve("text.txt");
-            Path targetFile = tempDirectory.resolve(language + "_generated_" + System.currentTimeMillis() + ".fnt");
             FileUtils.writeStringToFile(textFile.toFile(), "\ufeff" + missingCharacters, StandardCharsets.UTF_8);
 
             Path fontConfig;
+            String fontIdentity, configIdentity;
             if (customFontFile != null) {
                 // temporarily create a font config file referencing our custom font, copying from Renogare
-                fontConfig = Paths.get("/tmp/custom_font_" + System.currentTimeMillis() + ".bmfc");
-                try (InputStream is = Files.newInputStream(Paths.get("/app/static/font-generator-data/configs/renogare.bmfc"));
-                     OutputStream os = Files.newOutputStream(fontConfig)) {
-
-                    String contents = IOUtils.toString(is, StandardCharsets.UTF_8);
-                    contents = contents
-                            .replace("..\\fonts\\Renogare.otf", toWindowsPath(customFontFile.toPath()))
-                            .replace("Renogare", customFontName)
-                            .replace("charSet=0", "charSet=" + charSetIndex);
-                    IOUtils.write(contents, os, StandardCharsets.UTF_8);
-                }
+                fontConfig = Files.createTempFile("custom_font_", ".bmfc");
+                String template = FileUtils.readFileToString(new File("/app/static/font-generator-data/configs/renogare.bmfc"), StandardCharsets.UTF_8);
+                String contents = template
+                        .replace("..\\fonts\\Renogare.otf", BMFontWorkerPool.toWindowsPath(customFontFile.toPath()))
+                        .replace("Renogare", customFontName)
+                        .replace("charSet=0", "charSet=" + charSetIndex);
+                FileUtils.writeStringToFile(fontConfig.toFile(), contents, StandardCharsets.UTF_8);
+
+                // the config refers to the font by a temporary path, so identify it by its hash instead
+                fontIdentity = customFontFile.exists() ? DigestUtils.sha256Hex(Files.readAllBytes(customFontFile.toPath())) : "nonexisting";
+                configIdentity = template + "\n" + customFontName + "\n" + charSetIndex;
             } else {
                 // read one of the static font configs that ship with the game
                 fontConfig = Paths.get("/app/static/font-generator-data/configs/" + language + ".bmfc");
+                fontIdentity = language;
+                configIdentity = FileUtils.readFileToString(fontConfig.toFile(), StandardCharsets.UTF_8);
             }
 
+            String cacheKey = DigestUtils.sha256Hex(fontIdentity + "\n" + DigestUtils.sha256Hex(configIdentity)
+                    + "\n" + DigestUtils.sha256Hex(missingCharacters));
+
             // run BMFont to generate the font!
             if (message != null) message.addReaction(Emoji.fromUnicode("\uD83E\uDD14")).queue(); // :thinking:
-            OutputStreamLogger.redirectAllOutput(logger,
-                    new ProcessBuilder("/usr/bin/wine", "/app/static/font-generator-data/bmfont.exe",
-                            "-c", toWindowsPath(fontConfig),
-                            "-t", toWindowsPath(textFile),
-                            "-o", toWindowsPath(targetFile))
-                            .start()).waitFor();
-            if (message != null) message.removeReaction(Emoji.fromUnicode("\uD83E\uDD14")).queue(); // :thinking:
-
-            if (customFontFile != null) {
-                // delete the temporary font file
-                Files.delete(fontConfig);
+            Path targetFile;
+            try {
+                targetFile = BMFontWorkerPool.generate(cacheKey, fontConfig, textFile, tempDirectory,
+                        language + "_generated_" + System.currentTimeMillis());
+            } finally {
+                if (customFontFile != null) {
+                    // delete the temporary font file
+                    Files.delete(fontConfig);
+                }
             }
+            if (message != null) message.removeReaction(Emoji.fromUnicode("\uD83E\uDD14")).queue(); // :thinking:
 
-            if (!Files.exists(targetFile)) {
+            if (targetFile == null) {
                 tryDeleteDirectory(tempDirectory);
                 throw new IOException("No font file was generated at all!");
             }
@@ -300,12 +411,6 @@ public class FontGenerator {
         tryDeleteDirectory(tempDirectory);
     }
 
-    private static String toWindowsPath(Path path) {
-        // within Wine, the entire Linux filesystem is mapped to drive Z:\, for example /tmp/foo is at Z:\tmp\foo
-        // => we need to add Z: in front of the absolute path and to replace / with \
-        return "Z:" + path.toAbsolutePath().toString().replace("/", "\\");
-    }
-
     private static void tryDeleteDirectory(Path directory) {
         if (directory != null) {
             logger.debug("Deleting directory {}...", directory.toAbsolutePath());
@@ -40,7 +40,7 @@ import ovh.maddie480.everest.updatechecker.ZipFileWithAutoEncoding;
 import ovh.maddie480.randomstuff.backend.SecretConstants;
 import ovh.maddie480.randomstuff.backend.celeste.crontabs.UpdateCheckerTracker;
 import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
-import ovh.maddie480.randomstuff.backend.utils.DiscardableJDA;
+import ovh.maddie480.randomstuff.backend.utils.DiscordBotRestClient;
 import ovh.maddie480.randomstuff.backend.utils.HttpPostMultipart;
 
 import javax.annotation.Nonnull;
@@ -187,9 +187,7 @@ public class ModStructureVerifier extends ListenerAdapter {
     }
 
     public static int getServerCount() throws IOException {
-        try (DiscardableJDA jda = new DiscardableJDA(SecretConstants.MOD_STRUCTURE_VERIFIER_TOKEN)) {
-            return jda.getGuilds().size();
-        }
+        return new DiscordBotRestClient(SecretConstants.MOD_STRUCTURE_VERIFIER_TOKEN).getGuilds().size();
     }
 
     // let the owner know when the bot joins or leaves servers
@@ -753,7 +751,7 @@ public class ModStructureVerifier extends ListenerAdapter {
         Set<String> availableDecals = new HashSet<>();
         Set<String> availableStylegrounds = new HashSet<>();
 
-        try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/graphics-dump-browser/list.json")) {
+        try (InputStream is = ConnectionUtils.openStreamWithCache("https://maddie480.ovh/celeste/graphics-dump-browser/list.json")) {
             for (Object o : new JSONArray(new JSONTokener(is))) {
                 String path = (String) o;
 
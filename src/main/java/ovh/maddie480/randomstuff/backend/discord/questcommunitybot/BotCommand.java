@@ -4,6 +4,8 @@ import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.events.message.react.MessageReactionAddEvent;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
 
 public interface BotCommand {
     String getCommandName();
@@ -21,4 +23,38 @@ public interface BotCommand {
     void runCommand(MessageReceivedEvent event, String[] parameters) throws IOException;
 
     boolean processReaction(MessageReactionAddEvent event, String reaction) throws IOException;
+
+    /**
+     * The reactions {@link #processReaction} can handle, as returned by {@link Utils#getUnicodeHexFromEmoji},
+     * so that reactions are only routed to the commands that care about them.
+     * By default, commands don't handle reactions at all.
+     *
+     * @return The handled reactions, or null if the command can handle any reaction
+     */
+    default Set<String> getHandledReactions() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Tells whether {@link #processReaction} could handle a reaction on the given message.
+     * This is called from the event thread, so it should be quick and thread-safe.
+     */
+    default boolean isWatchingMessage(long messageId) {
+        return true;
+    }
+
+    /**
+     * How long the command or a reaction can take to run before it is interrupted.
+     */
+    default int getTimeoutSeconds() {
+        return 60;
+    }
+
+    /**
+     * How many executions of this command (including reactions) can run at the same time.
+     * The default of 1 means the command never runs concurrently with itself, so its state doesn't need to be thread-safe.
+     */
+    default int getMaxConcurrency() {
+        return 1;
+    }
 }
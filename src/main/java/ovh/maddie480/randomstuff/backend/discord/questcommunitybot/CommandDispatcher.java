@@ -0,0 +1,165 @@
+package ovh.maddie480.randomstuff.backend.discord.questcommunitybot;
+
+import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.react.MessageReactionAddEvent;
+import org.apache.commons.io.function.IORunnable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ovh.maddie480.randomstuff.backend.SecretConstants;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the commands that should handle messages and reactions using indexes built once and for all,
+ * and runs them on virtual threads instead of the JDA event thread, so that a slow command doesn't hold up everyone else.
+ */
+final class CommandDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(CommandDispatcher.class);
+
+    private static final int MAX_RUNNING_TASKS = 16;
+    private static final int MAX_PENDING_TASKS = 64;
+
+    private final Map<String, BotCommand> commandsByName = new HashMap<>();
+    private final Map<String, List<BotCommand>> commandsByReaction = new HashMap<>();
+    private final List<BotCommand> commandsHandlingAnyReaction = new ArrayList<>();
+    private final Map<BotCommand, Integer> commandOrder = new IdentityHashMap<>();
+    private final Map<BotCommand, Semaphore> commandPermits = new IdentityHashMap<>();
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("Quest Community Bot Command #", 0).factory());
+    private final Semaphore runningTasks = new Semaphore(MAX_RUNNING_TASKS, true);
+    private final AtomicInteger pendingTasks = new AtomicInteger(0);
+
+    CommandDispatcher(List<BotCommand> commands) {
+        for (BotCommand command : commands) {
+            commandsByName.put(command.getCommandName(), command);
+            commandOrder.put(command, commandOrder.size());
+            commandPermits.put(command, new Semaphore(command.getMaxConcurrency(), true));
+
+            Set<String> handledReactions = command.getHandledReactions();
+            if (handledReactions == null) {
+                commandsHandlingAnyReaction.add(command);
+            } else {
+                for (String reaction : handledReactions) {
+                    commandsByReaction.computeIfAbsent(reaction, k -> new ArrayList<>()).add(command);
+                }
+            }
+        }
+    }
+
+    BotCommand getCommand(String name) {
+        return commandsByName.get(name);
+    }
+
+    void dispatchCommand(MessageReceivedEvent event, BotCommand command, String[] parameters) {
+        String description = "command " + command.getCommandName() + " with parameters " + Arrays.toString(parameters);
+
+        submit(description, command.getTimeoutSeconds(), event.getChannel(),
+                ":boom: Le bot a explosé pendant le traitement de cette commande.\n" +
+                        "<@" + SecretConstants.OWNER_ID + ">, au secours !",
+                () -> runWithPermit(command, () -> command.runCommand(event, parameters)));
+    }
+
+    void dispatchReaction(MessageReactionAddEvent event) {
+        String reaction = Utils.getUnicodeHexFromEmoji(event.getEmoji().getName());
+        long messageId = event.getMessageIdLong();
+
+        List<BotCommand> candidates = new ArrayList<>();
+        for (BotCommand command : commandsByReaction.getOrDefault(reaction, Collections.emptyList())) {
+            if (command.isWatchingMessage(messageId)) candidates.add(command);
+        }
+        for (BotCommand command : commandsHandlingAnyReaction) {
+            if (command.isWatchingMessage(messageId)) candidates.add(command);
+        }
+
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        // commands get to handle reactions in the order they were declared in, until one of them accepts it
+        candidates.sort(Comparator.comparing(commandOrder::get));
+
+        String description = "reaction " + event.getEmoji() + " on message " + event.getMessageId();
+        int timeoutSeconds = candidates.stream().mapToInt(BotCommand::getTimeoutSeconds).max().orElseThrow();
+
+        submit(description, timeoutSeconds, event.getChannel(),
+                ":boom: Le bot a explosé pendant le traitement de la réaction.\n" +
+                        "<@" + SecretConstants.OWNER_ID + ">, au secours !",
+                () -> {
+                    for (BotCommand command : candidates) {
+                        boolean[] processed = new boolean[1];
+                        runWithPermit(command, () -> processed[0] = command.processReaction(event, reaction));
+
+                        if (processed[0]) {
+                            log.debug("Command {} processed reaction {} on message {}",
+                                    command.getCommandName(), event.getEmoji(), event.getMessageId());
+                            return;
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Runs the action once the command has a free permit, and one of the {@value #MAX_RUNNING_TASKS} running slots is available.
+     * The command permit is taken first, so that tasks waiting on a busy command don't hold running slots other commands could use.
+     */
+    private void runWithPermit(BotCommand command, IORunnable action) throws IOException, InterruptedException {
+        Semaphore permit = commandPermits.get(command);
+        permit.acquire();
+        try {
+            runningTasks.acquire();
+            try {
+                action.run();
+            } finally {
+                runningTasks.release();
+            }
+        } finally {
+            permit.release();
+        }
+    }
+
+    private interface Task {
+        void run() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Runs the task on a virtual thread. The task itself goes through {@link #runWithPermit} to limit how many commands run at once.
+     * If the task takes longer than the timeout (including the time spent waiting for its turn), it gets interrupted.
+     */
+    private void submit(String description, int timeoutSeconds, MessageChannel channel, String failureMessage, Task task) {
+        if (pendingTasks.incrementAndGet() > MAX_PENDING_TASKS) {
+            pendingTasks.decrementAndGet();
+            log.warn("Too many pending tasks, dropping {}", description);
+            channel.sendMessage(":hourglass: Le bot est débordé, réessaie dans quelques instants !").queue();
+            return;
+        }
+
+        executor.submit(() -> {
+            try {
+                Future<Void> execution = executor.submit(() -> {
+                    task.run();
+                    return null;
+                });
+
+                try {
+                    execution.get(timeoutSeconds, TimeUnit.SECONDS);
+                } catch (TimeoutException e) {
+                    execution.cancel(true);
+                    log.error("Timed out after {} seconds while processing {}", timeoutSeconds, description);
+                    channel.sendMessage(":hourglass: Le traitement a pris trop de temps et a été abandonné.").queue();
+                } catch (ExecutionException e) {
+                    log.error("Exception occurred while processing {}", description, e.getCause());
+                    channel.sendMessage(failureMessage).queue();
+                }
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while processing {}", description, e);
+            } finally {
+                pendingTasks.decrementAndGet();
+            }
+        });
+    }
+}
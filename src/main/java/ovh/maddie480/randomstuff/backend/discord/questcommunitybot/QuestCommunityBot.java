@@ -44,6 +44,7 @@ public class QuestCommunityBot extends ListenerAdapter implements BotCommand {
 
     private final Map<String, List<BotCommand>> commandCategories;
     private final PlagiatTatsumaki levelingManager;
+    private final CommandDispatcher dispatcher;
 
     public QuestCommunityBot() throws IOException {
         JDA client;
@@ -143,6 +144,8 @@ public class QuestCommunityBot extends ListenerAdapter implements BotCommand {
                 ),
                 "Plus d'infos", Collections.singletonList(this)
         );
+
+        dispatcher = new CommandDispatcher(commandCategories.values().stream().flatMap(List::stream).toList());
     }
 
     @Override
@@ -174,10 +177,7 @@ public class QuestCommunityBot extends ListenerAdapter implements BotCommand {
             log.debug("Trimmed espaces between \"!\" and command: {}", commandParsed);
         }
 
-        BotCommand command = commandCategories.values().stream()
-                .flatMap(List::stream)
-                .filter(c -> c.getCommandName().equals(commandParsed.get(0).substring(1)))
-                .findFirst().orElse(null);
+        BotCommand command = dispatcher.getCommand(commandParsed.get(0).substring(1));
 
         if (command == null) {
             log.debug("Command not recognized");
@@ -218,13 +218,7 @@ public class QuestCommunityBot extends ListenerAdapter implements BotCommand {
             return;
         }
 
-        try {
-            command.runCommand(event, parameters);
-        } catch (Exception e) {
-            log.error("Exception occurred while processing command {} with parameters {}", command.getCommandName(), parameters, e);
-            event.getChannel().sendMessage(":boom: Le bot a explosé pendant le traitement de cette commande.\n" +
-                    "<@" + SecretConstants.OWNER_ID + ">, au secours !").queue();
-        }
+        dispatcher.dispatchCommand(event, command, parameters);
     }
 
     @Override
@@ -233,21 +227,7 @@ public class QuestCommunityBot extends ListenerAdapter implements BotCommand {
             return;
         }
 
-        for (BotCommand command : commandCategories.values().stream().flatMap(List::stream).toList()) {
-            try {
-                if (command.processReaction(event, Utils.getUnicodeHexFromEmoji(event.getEmoji().getName()))) {
-                    log.debug("Command {} processed reaction {} on message {}",
-                            command.getCommandName(), event.getEmoji(), event.getMessageId());
-                    break;
-                }
-            } catch (Exception e) {
-                log.error("Exception occurred while processing reaction {} on message {} with command {}!",
-                        event.getEmoji(), event.getMessageId(), command.getCommandName(), e);
-
-                event.getChannel().sendMessage(":boom: Le bot a explosé pendant le traitement de la réaction.\n" +
-                        "<@" + SecretConstants.OWNER_ID + ">, au secours !").queue();
-            }
-        }
+        dispatcher.dispatchReaction(event);
     }
 
     private String getHelpMessage(BotCommand command) {
@@ -302,18 +282,13 @@ public class QuestCommunityBot extends ListenerAdapter implements BotCommand {
 
     @Override
     public boolean areParametersValid(String[] parameters) {
-        return parameters.length == 0 || commandCategories.values().stream()
-                .flatMap(List::stream)
-                .anyMatch(c -> c.getCommandName().equals(parameters[0]));
+        return parameters.length == 0 || dispatcher.getCommand(parameters[0]) != null;
     }
 
     @Override
     public void runCommand(MessageReceivedEvent event, String[] parameters) throws IOException {
         if (parameters.length == 1) {
-            BotCommand command = commandCategories.values().stream()
-                    .flatMap(List::stream)
-                    .filter(c -> c.getCommandName().equals(parameters[0]))
-                    .findFirst().orElseThrow();
+            BotCommand command = dispatcher.getCommand(parameters[0]);
 
             event.getChannel().sendMessage(getHelpMessage(command)).queue();
             return;
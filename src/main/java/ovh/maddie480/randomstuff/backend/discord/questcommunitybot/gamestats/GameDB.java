@@ -8,120 +8,175 @@ import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 public class GameDB {
     private static final Logger log = LoggerFactory.getLogger(GameDB.class);
+    private static final Path gameDBPath = Paths.get("/app/static/games.json");
 
     public static MessageEmbed findGame(String name) {
         return findGame(name, false);
     }
 
     public static MessageEmbed findGame(String name, boolean ignoreCase) {
+        Catalog catalog = getCatalog();
+        if (catalog == null) return null;
+
+        List<MessageEmbed> matches = ignoreCase ? catalog.gamesByFoldedName().get(foldCase(name)) : catalog.gamesByName().get(name);
+
+        if (matches == null) {
+            log.debug("Je renvoie null");
+            return null;
+        }
+        if (matches.size() > 1) {
+            log.warn("Il y a plusieurs jeux qui correspondent => abandon");
+            return null;
+        }
+
+        log.debug("Je renvoie quelque chose");
+        return matches.get(0);
+    }
+
+    /**
+     * The game database, indexed by name and alias. Each name or alias is associated to the embeds of all games having it.
+     */
+    private record Catalog(long lastModified, Map<String, List<MessageEmbed>> gamesByName, Map<String, List<MessageEmbed>> gamesByFoldedName) {
+    }
+
+    private static Catalog catalog;
+
+    /**
+     * Returns the game database, loading it if it was never loaded or if the file changed since it was last loaded.
+     */
+    private static synchronized Catalog getCatalog() {
+        long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(gameDBPath).toMillis();
+        } catch (IOException e) {
+            log.error("Impossible de lire la base de données de jeux", e);
+            return catalog;
+        }
+
+        if (catalog == null || catalog.lastModified() != lastModified) {
+            try {
+                catalog = loadCatalog(lastModified);
+            } catch (Exception e) {
+                log.error("Impossible de lire la base de données de jeux", e);
+            }
+        }
+
+        return catalog;
+    }
+
+    private static Catalog loadCatalog(long lastModified) throws IOException {
         JSONArray gameDB;
-        try (InputStream is = new FileInputStream("/app/static/games.json")) {
+        try (InputStream is = Files.newInputStream(gameDBPath)) {
             log.debug("Reloading game DB");
             gameDB = new JSONArray(new JSONTokener(is));
-        } catch (Exception e) {
-            log.error("Impossible de lire la base de données de jeux", e);
-            return null;
         }
 
-        try {
-            JSONObject result = null;
-            for (Object object : gameDB) {
-                JSONObject game = (JSONObject) object;
-
-                boolean matches = false;
-                if (ignoreCase) {
-                    if (game.getString("name").equalsIgnoreCase(name)) {
-                        matches = true;
-                    } else if ((game.has("aliases"))) {
-                        for (Object alias : game.getJSONArray("aliases")) {
-                            if (name.equalsIgnoreCase(alias.toString())) {
-                                matches = true;
-                            }
-                        }
-                    }
-                } else {
-                    if (game.getString("name").equals(name)) {
-                        matches = true;
-                    } else if ((game.has("aliases"))) {
-                        for (Object alias : game.getJSONArray("aliases")) {
-                            if (name.equals(alias)) {
-                                matches = true;
-                                break;
-                            }
-                        }
-                    }
-                }
+        Map<String, List<MessageEmbed>> gamesByName = new HashMap<>();
+        Map<String, List<MessageEmbed>> gamesByFoldedName = new HashMap<>();
 
-                if (matches) {
-                    if (result != null) {
-                        log.warn("Il y a plusieurs jeux qui correspondent => abandon");
-                        return null;
-                    } else {
-                        result = game;
-                    }
+        for (Object object : gameDB) {
+            JSONObject game = (JSONObject) object;
+
+            MessageEmbed embed;
+            try {
+                embed = buildEmbed(game);
+            } catch (Exception e) {
+                log.error("Impossible de lire le jeu {}", game, e);
+                continue;
+            }
+
+            // a game that has the same name and alias should only be counted once
+            Set<String> names = new HashSet<>();
+            names.add(game.getString("name"));
+            if (game.has("aliases")) {
+                for (Object alias : game.getJSONArray("aliases")) {
+                    names.add(alias.toString());
                 }
             }
 
-            if (result != null) {
-                EmbedBuilder builder = new EmbedBuilder()
-                        .setTitle(result.getString("name"));
+            for (String name : names) {
+                gamesByName.computeIfAbsent(name, k -> new ArrayList<>(1)).add(embed);
+            }
+            for (String name : names.stream().map(GameDB::foldCase).collect(Collectors.toSet())) {
+                gamesByFoldedName.computeIfAbsent(name, k -> new ArrayList<>(1)).add(embed);
+            }
+        }
 
-                if (result.has("description")) {
-                    builder.setDescription(result.getString("description"));
-                }
+        log.debug("Loaded {} games, {} names and aliases", gameDB.length(), gamesByName.size());
+        return new Catalog(lastModified, gamesByName, gamesByFoldedName);
+    }
 
-                if (result.has("icon") && result.has("id")) {
-                    builder.setThumbnail("https://cdn.discordapp.com/app-icons/" + result.getString("id") + "/"
-                            + result.getString("icon") + ".webp");
-                }
+    /**
+     * Folds the case of a name, so that 2 names are equal once folded if and only if they are equalsIgnoreCase.
+     * This goes code point by code point like equalsIgnoreCase does, since String.toUpperCase and String.toLowerCase
+     * can change the length of the string ("ß" becomes "SS", "İ" becomes "i" followed by a combining dot).
+     */
+    private static String foldCase(String name) {
+        return name.codePoints()
+                .map(c -> Character.toLowerCase(Character.toUpperCase(c)))
+                .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append)
+                .toString();
+    }
 
-                if (result.has("splash") && result.has("id")) {
-                    builder.setImage("https://cdn.discordapp.com/app-icons/" + result.getString("id") + "/"
-                            + result.getString("splash") + ".webp?size=512");
-                }
+    private static MessageEmbed buildEmbed(JSONObject result) {
+        EmbedBuilder builder = new EmbedBuilder()
+                .setTitle(result.getString("name"));
 
-                if (result.has("developers") && !result.getJSONArray("developers").isEmpty()) {
-                    List<String> devs = new ArrayList<>();
-                    for (Object dev : result.getJSONArray("developers")) {
-                        devs.add(((JSONObject) dev).getString("name"));
-                    }
-                    builder.addField("Développé par", String.join(", ", devs), false);
-                }
+        if (result.has("description")) {
+            builder.setDescription(result.getString("description"));
+        }
 
-                if (result.has("publishers") && !result.getJSONArray("publishers").isEmpty()) {
-                    List<String> devs = new ArrayList<>();
-                    for (Object dev : result.getJSONArray("publishers")) {
-                        devs.add(((JSONObject) dev).getString("name"));
-                    }
-                    builder.addField("Publié par", String.join(", ", devs), false);
-                }
+        if (result.has("icon") && result.has("id")) {
+            builder.setThumbnail("https://cdn.discordapp.com/app-icons/" + result.getString("id") + "/"
+                    + result.getString("icon") + ".webp");
+        }
 
-                if (result.has("third_party_skus")) {
-                    for (Object vendor : result.getJSONArray("third_party_skus")) {
-                        JSONObject vendorObj = (JSONObject) vendor;
-                        if (vendorObj.get("distributor").equals("steam")) {
-                            builder.addField("Steam", "https://store.steampowered.com/app/" + vendorObj.getString("id") + "/", false);
-                        }
-                    }
-                }
+        if (result.has("splash") && result.has("id")) {
+            builder.setImage("https://cdn.discordapp.com/app-icons/" + result.getString("id") + "/"
+                    + result.getString("splash") + ".webp?size=512");
+        }
+
+        if (result.has("developers") && !result.getJSONArray("developers").isEmpty()) {
+            List<String> devs = new ArrayList<>();
+            for (Object dev : result.getJSONArray("developers")) {
+                devs.add(((JSONObject) dev).getString("name"));
+            }
+            builder.addField("Développé par", String.join(", ", devs), false);
+        }
 
-                builder.setFooter("Base de données Discord", null);
+        if (result.has("publishers") && !result.getJSONArray("publishers").isEmpty()) {
+            List<String> devs = new ArrayList<>();
+            for (Object dev : result.getJSONArray("publishers")) {
+                devs.add(((JSONObject) dev).getString("name"));
+            }
+            builder.addField("Publié par", String.join(", ", devs), false);
+        }
 
-                log.debug("Je renvoie quelque chose");
-                return builder.build();
+        if (result.has("third_party_skus")) {
+            for (Object vendor : result.getJSONArray("third_party_skus")) {
+                JSONObject vendorObj = (JSONObject) vendor;
+                if (vendorObj.get("distributor").equals("steam")) {
+                    builder.addField("Steam", "https://store.steampowered.com/app/" + vendorObj.getString("id") + "/", false);
+                }
             }
-        } catch (Exception e) {
-            log.error("Impossible de lire la base de données de jeux", e);
         }
 
-        log.debug("Je renvoie null");
-        return null;
+        builder.setFooter("Base de données Discord", null);
+        return builder.build();
     }
 }
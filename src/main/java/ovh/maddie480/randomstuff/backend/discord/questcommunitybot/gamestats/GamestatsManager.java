@@ -60,7 +60,10 @@ public class GamestatsManager {
                         }
 
                         if (ZonedDateTime.now().getMinute() == 0) {
-                            steamCommand.refreshSteamStats(guild.getJDA());
+                            // this runs in the background, so that the gamestats keep being counted during the refresh
+                            steamCommand.refreshSteamStats(true).whenComplete((result, e) -> {
+                                if (e != null) log.error("Uncaught exception during Steam gamestats refresh", e);
+                            });
                         }
                     } catch (Exception e) {
                         log.error("Uncaught exception during gamestats refresh", e);
@@ -156,6 +159,10 @@ public class GamestatsManager {
         }
     }
 
+    HashMap<String, HashMap<Long, Integer>> getSteamGamestats() {
+        return gamestats.get(STEAM);
+    }
+
     void putSteamGamestats(HashMap<String, HashMap<Long, Integer>> steamGamestats) {
         gamestats.set(STEAM, steamGamestats);
     }
@@ -1,6 +1,6 @@
 package ovh.maddie480.randomstuff.backend.discord.questcommunitybot.gamestats;
 
-import net.dv8tion.jda.api.JDA;
+import com.google.common.util.concurrent.RateLimiter;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.User;
@@ -23,6 +23,12 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URLEncoder;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -31,10 +37,20 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public class SteamCommand implements BotCommand {
     private static final Logger log = LoggerFactory.getLogger(SteamCommand.class);
 
-    private final Map<Long, List<String>> steamProfilesForMessage = new HashMap<>();
-    private final Map<Long, Long> allowedUsersForMessage = new HashMap<>();
+    private final Map<Long, List<String>> steamProfilesForMessage = new ConcurrentHashMap<>();
+    private final Map<Long, Long> allowedUsersForMessage = new ConcurrentHashMap<>();
 
-    private final Map<String, String> discordToSteamUsers = new HashMap<>();
+    private final Map<String, String> discordToSteamUsers = new ConcurrentHashMap<>();
+
+    // those are only accessed from the Steam Stats Refresher thread
+    private final Map<String, String> fetchedSteamIds = new HashMap<>(); // Discord ID => Steam ID we last fetched stats for
+    private final Map<String, Map<String, Integer>> publishedPlayTimes = new HashMap<>();
+    private HashMap<String, HashMap<Long, Integer>> steamGamestats = new HashMap<>();
+    private boolean restoredSavedStats = false;
+
+    private final ExecutorService steamRefresher = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "Steam Stats Refresher"));
+    private final ExecutorService steamFetchers = Executors.newFixedThreadPool(4, runnable -> new Thread(runnable, "Steam Stats Fetcher"));
+    private final RateLimiter steamRateLimiter = RateLimiter.create(2); // requests per second
 
     private final GamestatsManager gamestatsManager;
 
@@ -105,38 +121,161 @@ public class SteamCommand implements BotCommand {
         log.debug("Map des comptes Discord avec leurs comptes Steam = {}", discordToSteamUsers);
     }
 
-    void refreshSteamStats(JDA client) throws IOException {
-        log.debug("Refreshing Steam stats");
+    /**
+     * Refreshes the Steam gamestats in the background. Refreshes run one after the other.
+     *
+     * @param allAccounts true to fetch all accounts again (hourly refresh), false to only fetch the accounts
+     *                    that were linked since the last refresh (when someone links or unlinks their account)
+     * @return A future that completes when the refresh is done
+     */
+    CompletableFuture<Void> refreshSteamStats(boolean allAccounts) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                refreshSteamStatsNow(allAccounts);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, steamRefresher);
+    }
 
-        final HashMap<String, HashMap<Long, Integer>> steamGamestats = new HashMap<>();
+    private void refreshSteamStatsNow(boolean allAccounts) throws IOException {
+        log.debug("Refreshing Steam stats (all accounts = {})", allAccounts);
 
-        for (Map.Entry<String, String> account : discordToSteamUsers.entrySet()) {
-            addSteamGamestatsWithRetry(client, steamGamestats, account);
+        if (!restoredSavedStats) {
+            restoreSavedStats();
+            restoredSavedStats = true;
         }
 
-        log.debug("Terminé ! Les gamestats de Steam contiennent {} jeux", steamGamestats.size());
-        gamestatsManager.putSteamGamestats(steamGamestats);
-    }
+        Map<String, String> accounts = new HashMap<>(discordToSteamUsers);
+        Map<String, Map<String, Integer>> changedPlayTimes = new HashMap<>();
+
+        // users that unlinked their account should disappear from the stats
+        fetchedSteamIds.keySet().retainAll(accounts.keySet());
+        for (String discordId : publishedPlayTimes.keySet()) {
+            if (!accounts.containsKey(discordId)) {
+                changedPlayTimes.put(discordId, Collections.emptyMap());
+            }
+        }
 
-    private static void addSteamGamestatsWithRetry(JDA client,
-                                                   HashMap<String, HashMap<Long, Integer>> steamGamestats,
-                                                   Map.Entry<String, String> account) throws IOException {
+        // fetch the accounts in parallel
+        Map<String, Future<Map<String, Integer>>> fetches = new HashMap<>();
+        for (Map.Entry<String, String> account : accounts.entrySet()) {
+            if (!allAccounts && account.getValue().equals(fetchedSteamIds.get(account.getKey()))) {
+                log.debug("Les stats de {} (steamid {}) ont déjà été récupérées", account.getKey(), account.getValue());
+                continue;
+            }
 
-        User user = client.getUserById(account.getKey());
-        int tries = 3;
-        log.debug("Je tente de récupérer les stats de {} (steamid {}), tentatives restantes = {}", user, account.getValue(), tries);
+            fetches.put(account.getKey(), steamFetchers.submit(() -> ConnectionUtils.runWithRetry(() -> {
+                steamRateLimiter.acquire();
+                log.debug("Je tente de récupérer les stats de {} (steamid {})", account.getKey(), account.getValue());
+                return getSteamPlayTimes(account.getValue());
+            })));
+        }
 
-        ConnectionUtils.runWithRetry(() -> {
-            addSteamGamestatsForUser(steamGamestats, account);
-            return null;
-        });
+        IOException failure = null;
+        for (Map.Entry<String, Future<Map<String, Integer>>> fetch : fetches.entrySet()) {
+            String discordId = fetch.getKey();
+            Map<String, Integer> playTimes;
+
+            try {
+                playTimes = fetch.getValue().get();
+            } catch (InterruptedException | ExecutionException e) {
+                // keep the stats we had before for this user, even if they come from before a restart
+                log.warn("Could not retrieve Steam gamestats for user {}, keeping their previous stats", discordId, e);
+                if (failure == null) failure = new IOException("Could not retrieve Steam gamestats for user " + discordId, e);
+                continue;
+            }
+
+            fetchedSteamIds.put(discordId, accounts.get(discordId));
+            if (!playTimes.equals(publishedPlayTimes.getOrDefault(discordId, Collections.emptyMap()))) {
+                changedPlayTimes.put(discordId, playTimes);
+            }
+        }
+
+        if (!changedPlayTimes.isEmpty()) {
+            applyChangedPlayTimes(changedPlayTimes);
+            gamestatsManager.putSteamGamestats(steamGamestats);
+        }
+
+        log.debug("Terminé ! {} comptes récupérés, {} comptes ont changé, les gamestats de Steam contiennent {} jeux",
+                fetches.size(), changedPlayTimes.size(), steamGamestats.size());
+
+        if (failure != null) throw failure;
     }
 
-    private static void addSteamGamestatsForUser(HashMap<String, HashMap<Long, Integer>> steamGamestats,
-                                                 Map.Entry<String, String> account) throws IOException {
-        Long discordId = Long.parseLong(account.getKey());
-        String steamId = account.getValue();
+    /**
+     * Starts from the Steam gamestats that were saved by the gamestats manager before the bot restarted,
+     * so that users whose stats cannot be fetched on the first refresh keep the ones they had.
+     */
+    private void restoreSavedStats() {
+        HashMap<String, HashMap<Long, Integer>> savedGamestats = gamestatsManager.getSteamGamestats();
+        if (savedGamestats == null) return;
+
+        steamGamestats = savedGamestats;
+        for (Map.Entry<String, HashMap<Long, Integer>> game : savedGamestats.entrySet()) {
+            for (Map.Entry<Long, Integer> player : game.getValue().entrySet()) {
+                publishedPlayTimes.computeIfAbsent(Long.toString(player.getKey()), k -> new HashMap<>())
+                        .put(game.getKey(), player.getValue());
+            }
+        }
+
+        log.debug("Restored saved Steam gamestats for {} users", publishedPlayTimes.size());
+    }
+
+    /**
+     * Updates the game => user => play time map with the play times that changed.
+     * The map is copied, and only the entries of the games that changed are replaced, so that
+     * the map that was previously handed over to the gamestats manager is never modified.
+     */
+    private void applyChangedPlayTimes(Map<String, Map<String, Integer>> changedPlayTimes) {
+        HashMap<String, HashMap<Long, Integer>> newGamestats = new HashMap<>(steamGamestats);
+        Set<String> copiedGames = new HashSet<>();
+
+        for (Map.Entry<String, Map<String, Integer>> change : changedPlayTimes.entrySet()) {
+            long discordId = Long.parseLong(change.getKey());
+            Map<String, Integer> newPlayTimes = change.getValue();
+
+            Map<String, Integer> oldPlayTimes = publishedPlayTimes.getOrDefault(change.getKey(), Collections.emptyMap());
+
+            Set<String> games = new HashSet<>(oldPlayTimes.keySet());
+            games.addAll(newPlayTimes.keySet());
+
+            for (String game : games) {
+                Integer newPlayTime = newPlayTimes.get(game);
+                if (Objects.equals(oldPlayTimes.get(game), newPlayTime)) continue;
+
+                HashMap<Long, Integer> players = newGamestats.get(game);
+                if (players == null) {
+                    players = new HashMap<>();
+                } else if (!copiedGames.contains(game)) {
+                    players = new HashMap<>(players);
+                }
+                copiedGames.add(game);
+
+                if (newPlayTime == null) {
+                    players.remove(discordId);
+                } else {
+                    players.put(discordId, newPlayTime);
+                }
+
+                if (players.isEmpty()) {
+                    newGamestats.remove(game);
+                } else {
+                    newGamestats.put(game, players);
+                }
+            }
+
+            if (newPlayTimes.isEmpty()) {
+                publishedPlayTimes.remove(change.getKey());
+            } else {
+                publishedPlayTimes.put(change.getKey(), newPlayTimes);
+            }
+        }
+
+        steamGamestats = newGamestats;
+    }
 
+    private static Map<String, Integer> getSteamPlayTimes(String steamId) throws IOException {
         JSONObject games;
         try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://api.steampowered.com/IPlayerService/GetOwnedGames/v0001/?key="
                 + SecretConstants.STEAM_WEB_API_KEY + "&steamid=" + steamId + "&include_played_free_games=1&include_appinfo=1")) {
@@ -144,25 +283,19 @@ public class SteamCommand implements BotCommand {
             games = new JSONObject(new JSONTokener(is));
         }
 
+        Map<String, Integer> playTimes = new HashMap<>();
+
         if (!games.getJSONObject("response").has("games")) {
             log.warn("Could not retrieve Steam gamestats for account {}! It probably has private play times.", steamId);
-            return;
+            return playTimes;
         }
 
         games.getJSONObject("response").getJSONArray("games").forEach(gameObj -> {
             JSONObject game = (JSONObject) gameObj;
-
-            String name = game.getString("name");
-            Integer gameTimeMinutes = game.getInt("playtime_forever");
-
-            if (steamGamestats.containsKey(name)) {
-                steamGamestats.get(name).put(discordId, gameTimeMinutes);
-            } else {
-                HashMap<Long, Integer> newMap = new HashMap<>();
-                newMap.put(discordId, gameTimeMinutes);
-                steamGamestats.put(name, newMap);
-            }
+            playTimes.put(game.getString("name"), game.getInt("playtime_forever"));
         });
+
+        return playTimes;
     }
 
     @Override
@@ -259,6 +392,16 @@ public class SteamCommand implements BotCommand {
         return discordToSteamUsers.containsKey("" + discordId);
     }
 
+    @Override
+    public Set<String> getHandledReactions() {
+        return Set.of("e28fad", "e29c85");
+    }
+
+    @Override
+    public boolean isWatchingMessage(long messageId) {
+        return steamProfilesForMessage.containsKey(messageId);
+    }
+
     @Override
     public boolean processReaction(MessageReactionAddEvent event, String reaction) throws IOException {
         long messageId = event.getMessageIdLong();
@@ -334,13 +477,14 @@ public class SteamCommand implements BotCommand {
                             save();
 
                             channel.sendTyping().queue();
-                            try {
-                                refreshSteamStats(channel.getJDA());
-                                channel.sendMessage(":white_check_mark: C'est enregistré !").queue();
-                            } catch (Exception e) {
-                                log.error("Error during forced Steam refresh", e);
-                                channel.sendMessage(":x: Ton profil a bien été enregistré, mais il y a eu un problème de relevé des stats Steam.").queue();
-                            }
+                            refreshSteamStats(false).whenComplete((result, e) -> {
+                                if (e == null) {
+                                    channel.sendMessage(":white_check_mark: C'est enregistré !").queue();
+                                } else {
+                                    log.error("Error during forced Steam refresh", e);
+                                    channel.sendMessage(":x: Ton profil a bien été enregistré, mais il y a eu un problème de relevé des stats Steam.").queue();
+                                }
+                            });
 
                             log.debug("Map des comptes Discord avec leurs comptes Steam = {}", discordToSteamUsers);
                         }
@@ -364,14 +508,15 @@ public class SteamCommand implements BotCommand {
             save();
 
             chan.sendTyping().queue();
-            try {
-                refreshSteamStats(chan.getJDA());
-                chan.sendMessage(":white_check_mark: Ton compte Steam a bien été dissocié de ton compte Discord.").queue();
-            } catch (Exception e) {
-                log.error("Error during forced Steam refresh", e);
-                chan.sendMessage(":x: Ton compte Steam a bien été dissocié de ton compte Discord, " +
-                        "mais il y a eu un problème de relevé des stats Steam, donc il est possible que tes stats n'aient pas été supprimées.").queue();
-            }
+            refreshSteamStats(false).whenComplete((result, e) -> {
+                if (e == null) {
+                    chan.sendMessage(":white_check_mark: Ton compte Steam a bien été dissocié de ton compte Discord.").queue();
+                } else {
+                    log.error("Error during forced Steam refresh", e);
+                    chan.sendMessage(":x: Ton compte Steam a bien été dissocié de ton compte Discord, " +
+                            "mais il y a eu un problème de relevé des stats Steam, donc il est possible que tes stats n'aient pas été supprimées.").queue();
+                }
+            });
         } else {
             chan.sendMessage("Tu n'as pas de compte Steam associé à ton compte Discord.\n" +
                     "Pour en associer un, utilise `!steam [pseudo]`.").queue();
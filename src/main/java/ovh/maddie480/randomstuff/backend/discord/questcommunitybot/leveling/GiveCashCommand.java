@@ -7,6 +7,7 @@ import ovh.maddie480.randomstuff.backend.discord.questcommunitybot.BotCommand;
 import ovh.maddie480.randomstuff.backend.discord.questcommunitybot.Utils;
 
 import java.io.IOException;
+import java.util.Set;
 
 public class GiveCashCommand implements BotCommand {
     private final PlagiatTatsumaki levelingEngine;
@@ -59,6 +60,11 @@ public class GiveCashCommand implements BotCommand {
         }
     }
 
+    @Override
+    public Set<String> getHandledReactions() {
+        return Set.of("e29c85");
+    }
+
     @Override
     public boolean processReaction(MessageReactionAddEvent event, String reaction) throws IOException {
         if (Utils.getUnicodeHexFromEmoji(event.getEmoji().getName()).equals("e29c85")) {
@@ -0,0 +1,72 @@
+package ovh.maddie480.randomstuff.backend.discord.questcommunitybot.leveling;
+
+import java.util.Map;
+
+/**
+ * Updates the cash and XP of members. XP is gained on the event thread while commands run in parallel on their own threads,
+ * so every update goes through here while holding the ledger's lock, and transfers between two members are done in one go.
+ * {@link PlagiatTatsumaki} also holds this lock when updating its other leveling maps, and when saving them all.
+ */
+final class LevelingLedger {
+    record XpGain(long oldXp, long newXp, long newCash) {
+    }
+
+    private final Map<Long, Long> cash;
+    private final Map<Long, Long> xp;
+
+    LevelingLedger(Map<Long, Long> cash, Map<Long, Long> xp) {
+        this.cash = cash;
+        this.xp = xp;
+    }
+
+    long getCash(long userId) {
+        return cash.getOrDefault(userId, 0L);
+    }
+
+    long getXp(long userId) {
+        return xp.getOrDefault(userId, 0L);
+    }
+
+    /**
+     * Gives XP and cash to a member for talking.
+     */
+    synchronized XpGain gainXp(long userId, long xpAmount, long cashAmount) {
+        long oldXp = getXp(userId);
+        long newXp = oldXp + xpAmount;
+        xp.put(userId, newXp);
+        return new XpGain(oldXp, newXp, addCash(userId, cashAmount));
+    }
+
+    /**
+     * Gives cash to a member (or takes it, if the amount is negative).
+     *
+     * @return The new cash of the member
+     */
+    synchronized long addCash(long userId, long amount) {
+        long newCash = getCash(userId) + amount;
+        cash.put(userId, newCash);
+        return newCash;
+    }
+
+    /**
+     * Takes cash from a member, if they have enough of it.
+     *
+     * @return Whether the member had enough cash
+     */
+    synchronized boolean spend(long userId, long amount) {
+        if (getCash(userId) < amount) return false;
+        addCash(userId, -amount);
+        return true;
+    }
+
+    /**
+     * Moves cash from a member to another one, if the first member has enough of it.
+     *
+     * @return Whether the first member had enough cash
+     */
+    synchronized boolean transfer(long from, long to, long amount) {
+        if (!spend(from, amount)) return false;
+        addCash(to, amount);
+        return true;
+    }
+}
@@ -188,6 +188,9 @@ public class PlagiatTatsumaki {
     private ConcurrentHashMap<Long, ArrayList<String>> boughtGameBackgrounds = new ConcurrentHashMap<>();
     private ConcurrentHashMap<Long, ArrayList<Long>> ownedPaidRoles = new ConcurrentHashMap<>();
 
+    // all updates to cash and xp go through this, and its lock is held when updating the other maps above
+    private LevelingLedger ledger;
+
     private final ConcurrentHashMap<Long, PendingTransaction> transactions = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Long, PendingTransaction> buyBackgroundTransactions = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Long, PendingTransaction> buyRoleTransactions = new ConcurrentHashMap<>();
@@ -207,6 +210,8 @@ public class PlagiatTatsumaki {
             throw new IOException(e);
         }
 
+        ledger = new LevelingLedger(cash, xp);
+
         if (ownedPaidRoles.isEmpty()) {
             logger.info("Initializing ownedPaidRoles map");
             for (Member member : guild.getMembers()) {
@@ -246,18 +251,20 @@ public class PlagiatTatsumaki {
     }
 
     private void save() {
-        try (ObjectOutputStream stream = new ObjectOutputStream(new FileOutputStream("tatsumaclone.ser"))) {
-            stream.writeObject(cash);
-            stream.writeObject(xp);
-            stream.writeObject(rep);
-            stream.writeObject(lastDailyAt);
-            stream.writeObject(lastRepAt);
-            stream.writeObject(boughtBackgrounds);
-            stream.writeObject(dailyStreak);
-            stream.writeObject(boughtGameBackgrounds);
-            stream.writeObject(ownedPaidRoles);
-        } catch (IOException e) {
-            logger.error("Impossible de sauver les statistiques Tatsumaki", e);
+        synchronized (ledger) {
+            try (ObjectOutputStream stream = new ObjectOutputStream(new FileOutputStream("tatsumaclone.ser"))) {
+                stream.writeObject(cash);
+                stream.writeObject(xp);
+                stream.writeObject(rep);
+                stream.writeObject(lastDailyAt);
+                stream.writeObject(lastRepAt);
+                stream.writeObject(boughtBackgrounds);
+                stream.writeObject(dailyStreak);
+                stream.writeObject(boughtGameBackgrounds);
+                stream.writeObject(ownedPaidRoles);
+            } catch (IOException e) {
+                logger.error("Impossible de sauver les statistiques Tatsumaki", e);
+            }
         }
     }
 
@@ -267,7 +274,13 @@ public class PlagiatTatsumaki {
         if (!lastSpokeAt.containsKey(authorId) ||
                 lastSpokeAt.get(authorId).plusMinutes(2).isBefore(ZonedDateTime.now())) {
 
-            long oldExp = xp.getOrDefault(authorId, 0L);
+            int expGet = (int) (Math.random() * 11 + 10);
+            LevelingLedger.XpGain gain = ledger.gainXp(authorId, expGet, 1);
+            lastSpokeAt.put(authorId, ZonedDateTime.now());
+
+            long oldExp = gain.oldXp();
+            long newExp = gain.newXp();
+            long newCash = gain.newCash();
 
             int level = 0;
             while (oldExp >= getLevelXP(level + 1)) {
@@ -275,14 +288,6 @@ public class PlagiatTatsumaki {
             }
             long nextLevel = getLevelXP(level + 1);
 
-            int expGet = (int) (Math.random() * 11 + 10);
-            long newExp = oldExp + expGet;
-            xp.put(authorId, newExp);
-            lastSpokeAt.put(authorId, ZonedDateTime.now());
-
-            long newCash = cash.getOrDefault(authorId, 0L) + 1;
-            cash.put(authorId, newCash);
-
             save();
 
             logger.debug("{} a obtenu {} exp en parlant, et en possède maintenant {}, il/elle a {} pièces. Seuil de niveau = {}", message.getAuthor(), expGet, newExp, newCash, nextLevel);
@@ -298,58 +303,57 @@ public class PlagiatTatsumaki {
     void daily(MessageChannel channel, User author) {
         long authorId = author.getIdLong();
 
-        if (!lastDailyAt.containsKey(authorId) ||
-                lastDailyAt.get(authorId).truncatedTo(DAYS).plusDays(1).isBefore(ZonedDateTime.now())) {
+        synchronized (ledger) {
+            if (!lastDailyAt.containsKey(authorId) ||
+                    lastDailyAt.get(authorId).truncatedTo(DAYS).plusDays(1).isBefore(ZonedDateTime.now())) {
 
-            int streakStatus = dailyStreak.getOrDefault(authorId, 0);
-            if (lastDailyAt.containsKey(authorId) && lastDailyAt.get(authorId).truncatedTo(DAYS).plusDays(2).isAfter(ZonedDateTime.now())) {
-                // le dernier daily date d'hier
-                streakStatus++;
-            } else {
-                // le dernier daily est plus ancien qu'hier => on le remet à 1
-                streakStatus = 1;
-            }
+                int streakStatus = dailyStreak.getOrDefault(authorId, 0);
+                if (lastDailyAt.containsKey(authorId) && lastDailyAt.get(authorId).truncatedTo(DAYS).plusDays(2).isAfter(ZonedDateTime.now())) {
+                    // le dernier daily date d'hier
+                    streakStatus++;
+                } else {
+                    // le dernier daily est plus ancien qu'hier => on le remet à 1
+                    streakStatus = 1;
+                }
 
-            long newCash = cash.getOrDefault(authorId, 0L);
-            newCash += 200;
-            if (streakStatus == 7) newCash += 350;
-            cash.put(authorId, newCash);
+                long newCash = ledger.addCash(authorId, streakStatus == 7 ? 200 + 350 : 200);
 
-            lastDailyAt.put(authorId, ZonedDateTime.now());
+                lastDailyAt.put(authorId, ZonedDateTime.now());
 
-            String intro = "**" + author.getName() + "**, tu as gagné 200 pièces !";
-            String credit = "\nTon crédit est maintenant de **" + separated.format(newCash) + "** pièces.";
-            String streakBar = "\n**Combo :** " +
-                    "`[" + StringUtils.repeat("=", streakStatus * 2) + StringUtils.repeat(" ", (7 - streakStatus) * 2) + "]`" +
-                    " (" + streakStatus + "/7)";
+                String intro = "**" + author.getName() + "**, tu as gagné 200 pièces !";
+                String credit = "\nTon crédit est maintenant de **" + separated.format(newCash) + "** pièces.";
+                String streakBar = "\n**Combo :** " +
+                        "`[" + StringUtils.repeat("=", streakStatus * 2) + StringUtils.repeat(" ", (7 - streakStatus) * 2) + "]`" +
+                        " (" + streakStatus + "/7)";
 
-            String message;
-            if (streakStatus == 7) {
-                message = intro + streakBar + "\n**Tu viens de réaliser un combo !** Tu gagnes 350 pièces supplémentaires." + credit;
-                streakStatus = 0;
-            } else {
-                message = intro + credit + streakBar;
-            }
+                String message;
+                if (streakStatus == 7) {
+                    message = intro + streakBar + "\n**Tu viens de réaliser un combo !** Tu gagnes 350 pièces supplémentaires." + credit;
+                    streakStatus = 0;
+                } else {
+                    message = intro + credit + streakBar;
+                }
 
-            dailyStreak.put(authorId, streakStatus);
-            save();
+                dailyStreak.put(authorId, streakStatus);
+                save();
 
-            channel.sendMessage(message).queue();
-        } else {
-            ZonedDateTime timeDailyAvailable = lastDailyAt.get(authorId).truncatedTo(DAYS).plusDays(1);
+                channel.sendMessage(message).queue();
+            } else {
+                ZonedDateTime timeDailyAvailable = lastDailyAt.get(authorId).truncatedTo(DAYS).plusDays(1);
 
-            long minutes = Instant.now().until(timeDailyAvailable.toInstant(), ChronoUnit.MINUTES);
+                long minutes = Instant.now().until(timeDailyAvailable.toInstant(), ChronoUnit.MINUTES);
 
-            long remainingMinutes = minutes % 60;
-            long hours = minutes / 60;
+                long remainingMinutes = minutes % 60;
+                long hours = minutes / 60;
 
-            String s = "";
-            if (hours != 0) {
-                s += (hours == 1 ? "1 heure et " : hours + " heures et ");
-            }
-            s += (remainingMinutes == 1 ? "1 minute" : remainingMinutes + " minutes");
+                String s = "";
+                if (hours != 0) {
+                    s += (hours == 1 ? "1 heure et " : hours + " heures et ");
+                }
+                s += (remainingMinutes == 1 ? "1 minute" : remainingMinutes + " minutes");
 
-            channel.sendMessage("**" + author.getName() + "**, tu dois encore attendre **" + s + "** avant de pouvoir relancer `!daily`.").queue();
+                channel.sendMessage("**" + author.getName() + "**, tu dois encore attendre **" + s + "** avant de pouvoir relancer `!daily`.").queue();
+            }
         }
     }
 
@@ -362,33 +366,33 @@ public class PlagiatTatsumaki {
             return;
         }
 
-        if (!lastRepAt.containsKey(authorId) ||
-                lastRepAt.get(authorId).truncatedTo(DAYS).plusDays(1).isBefore(ZonedDateTime.now())) {
+        synchronized (ledger) {
+            if (!lastRepAt.containsKey(authorId) ||
+                    lastRepAt.get(authorId).truncatedTo(DAYS).plusDays(1).isBefore(ZonedDateTime.now())) {
 
-            long newRep = rep.getOrDefault(receiverId, 0L);
-            newRep++;
-            rep.put(receiverId, newRep);
+                long newRep = rep.merge(receiverId, 1L, Long::sum);
 
-            lastRepAt.put(authorId, ZonedDateTime.now());
-            save();
+                lastRepAt.put(authorId, ZonedDateTime.now());
+                save();
 
-            channel.sendMessage("**" + author.getName() + "**, tu as donné un point de réputation à <@" + receiverId + "> !\nIl/elle a maintenant **"
-                    + separated.format(newRep) + "** " + (newRep == 1 ? "point" : "points") + " de réputation.").queue();
-        } else {
-            ZonedDateTime timeRepAvailable = lastRepAt.get(authorId).truncatedTo(DAYS).plusDays(1);
+                channel.sendMessage("**" + author.getName() + "**, tu as donné un point de réputation à <@" + receiverId + "> !\nIl/elle a maintenant **"
+                        + separated.format(newRep) + "** " + (newRep == 1 ? "point" : "points") + " de réputation.").queue();
+            } else {
+                ZonedDateTime timeRepAvailable = lastRepAt.get(authorId).truncatedTo(DAYS).plusDays(1);
 
-            long minutes = Instant.now().until(timeRepAvailable.toInstant(), ChronoUnit.MINUTES);
+                long minutes = Instant.now().until(timeRepAvailable.toInstant(), ChronoUnit.MINUTES);
 
-            long remainingMinutes = minutes % 60;
-            long hours = minutes / 60;
+                long remainingMinutes = minutes % 60;
+                long hours = minutes / 60;
 
-            String s = "";
-            if (hours != 0) {
-                s += (hours == 1 ? "1 heure et " : hours + " heures et ");
-            }
-            s += (remainingMinutes == 1 ? "1 minute" : remainingMinutes + " minutes");
+                String s = "";
+                if (hours != 0) {
+                    s += (hours == 1 ? "1 heure et " : hours + " heures et ");
+                }
+                s += (remainingMinutes == 1 ? "1 minute" : remainingMinutes + " minutes");
 
-            channel.sendMessage("**" + author.getName() + "**, tu dois encore attendre **" + s + "** avant de pouvoir redonner de la réputation.").queue();
+                channel.sendMessage("**" + author.getName() + "**, tu dois encore attendre **" + s + "** avant de pouvoir redonner de la réputation.").queue();
+            }
         }
     }
 
@@ -451,20 +455,14 @@ public class PlagiatTatsumaki {
             PendingTransaction transaction = transactions.remove(messageId);
             logger.debug("Cleared transaction confirmation, new map = {}", transactions);
 
-            long authorCash = cash.getOrDefault(transaction.from, 0L);
-            if (authorCash < transaction.amount) {
+            if (!ledger.transfer(transaction.from, transaction.to, transaction.amount)) {
+                long authorCash = ledger.getCash(transaction.from);
                 channel.sendMessage("Désolé " + author.getName() + ", tu n'as pas assez d'argent ! Tu as " +
                         separated.format(authorCash) + (authorCash == 1 ? " pièce" : " pièces") + ".").queue();
                 return true;
             }
 
-            authorCash -= transaction.amount;
-            cash.put(transaction.from, authorCash);
-
-            long receiverCash = cash.getOrDefault(transaction.to, 0L);
-            receiverCash += transaction.amount;
-            cash.put(transaction.to, receiverCash);
-
+            long receiverCash = ledger.getCash(transaction.to);
             save();
 
             channel.sendMessage("<@" + transaction.to + ">, **" + author.getName() + "** vient de te donner " +
@@ -483,18 +481,22 @@ public class PlagiatTatsumaki {
             PendingTransaction transaction = buyBackgroundTransactions.remove(messageId);
             logger.debug("Cleared transaction confirmation, new map = {}", buyBackgroundTransactions);
 
-            long authorCash = cash.getOrDefault(transaction.from, 0L);
-            if (authorCash < transaction.amount) {
-                channel.sendMessage("Désolé " + author.getName() + ", tu n'as pas assez d'argent ! Tu as " +
-                        separated.format(authorCash) + (authorCash == 1 ? " pièce" : " pièces") + ".").queue();
-                return true;
-            }
+            boolean paid = false;
             try {
                 Background matchingBackground = findBackground(transaction.backgroundNameUrlEncoded);
 
                 if (transaction.backgroundUrl == null && matchingBackground == null) {
                     channel.sendMessage("Il faut croire que l'arrière-plan a été supprimé. C'est embarrassant.").queue();
                 } else {
+                    // on paie avant de recevoir l'arrière-plan, pour que deux achats en même temps ne puissent pas dépasser le crédit
+                    if (!ledger.spend(transaction.from, transaction.amount)) {
+                        long authorCash = ledger.getCash(transaction.from);
+                        channel.sendMessage("Désolé " + author.getName() + ", tu n'as pas assez d'argent ! Tu as " +
+                                separated.format(authorCash) + (authorCash == 1 ? " pièce" : " pièces") + ".").queue();
+                        return true;
+                    }
+                    paid = true;
+
                     if (transaction.backgroundUrl != null) {
                         channel.sendTyping().queue();
 
@@ -507,9 +509,11 @@ public class PlagiatTatsumaki {
                                     new FileOutputStream("backgrounds_user" + File.separator + author.getIdLong() + ".png"));
                         }
 
-                        ArrayList<String> boughtBackgroundsForUser = boughtGameBackgrounds.getOrDefault(author.getIdLong(), new ArrayList<>());
-                        boughtBackgroundsForUser.add(transaction.backgroundNameUrlEncoded);
-                        boughtGameBackgrounds.put(author.getIdLong(), boughtBackgroundsForUser);
+                        synchronized (ledger) {
+                            ArrayList<String> boughtBackgroundsForUser = boughtGameBackgrounds.getOrDefault(author.getIdLong(), new ArrayList<>());
+                            boughtBackgroundsForUser.add(transaction.backgroundNameUrlEncoded);
+                            boughtGameBackgrounds.put(author.getIdLong(), boughtBackgroundsForUser);
+                        }
 
                         purgeBackgrounds();
                         save();
@@ -528,9 +532,11 @@ public class PlagiatTatsumaki {
                                 Paths.get("backgrounds_user", author.getIdLong() + ".png"),
                                 StandardCopyOption.REPLACE_EXISTING);
 
-                        ArrayList<String> boughtBackgroundsForUser = boughtBackgrounds.getOrDefault(author.getIdLong(), new ArrayList<>());
-                        boughtBackgroundsForUser.add(matchingBackground.nameUrlEncoded);
-                        boughtBackgrounds.put(author.getIdLong(), boughtBackgroundsForUser);
+                        synchronized (ledger) {
+                            ArrayList<String> boughtBackgroundsForUser = boughtBackgrounds.getOrDefault(author.getIdLong(), new ArrayList<>());
+                            boughtBackgroundsForUser.add(matchingBackground.nameUrlEncoded);
+                            boughtBackgrounds.put(author.getIdLong(), boughtBackgroundsForUser);
+                        }
 
                         purgeBackgrounds();
                         save();
@@ -538,14 +544,9 @@ public class PlagiatTatsumaki {
                         channel.sendMessage(":white_check_mark: Ton arrière-plan est maintenant **" + matchingBackground.name + "** !").queue();
                     }
 
-                    authorCash -= transaction.amount;
-                    cash.put(transaction.from, authorCash);
-
                     if (transaction.to != -1 && matchingBackground != null) {
                         int wonAmount = (int) (transaction.amount * 0.8);
-                        long receiverCash = cash.getOrDefault(transaction.to, 0L);
-                        receiverCash += wonAmount;
-                        cash.put(transaction.to, receiverCash);
+                        ledger.addCash(transaction.to, wonAmount);
 
                         User backgroundAuthor = channel.getJDA().getUserById(transaction.to);
                         if (backgroundAuthor != null) {
@@ -560,6 +561,11 @@ public class PlagiatTatsumaki {
                 }
             } catch (IOException e) {
                 logger.error("Une erreur est survenue lors de l'achat de l'AP", e);
+                if (paid) {
+                    // l'arrière-plan n'a pas été donné, on rembourse
+                    ledger.addCash(transaction.from, transaction.amount);
+                    save();
+                }
                 channel.sendMessage("Une erreur est survenue. Désolé. :shrug:").queue();
             }
 
@@ -575,16 +581,13 @@ public class PlagiatTatsumaki {
             PendingTransaction transaction = buyRoleTransactions.remove(messageId);
             logger.debug("Cleared transaction confirmation, new map = {}", buyRoleTransactions);
 
-            long authorCash = cash.getOrDefault(transaction.from, 0L);
-            if (authorCash < transaction.amount) {
+            if (!ledger.spend(transaction.from, transaction.amount)) {
+                long authorCash = ledger.getCash(transaction.from);
                 channel.sendMessage("Désolé " + author.getName() + ", tu n'as pas assez d'argent ! Tu as " +
                         separated.format(authorCash) + (authorCash == 1 ? " pièce" : " pièces") + ".").queue();
                 return true;
             }
 
-            authorCash -= transaction.amount;
-            cash.put(transaction.from, authorCash);
-
             Role role = channel.getJDA().getRoleById(transaction.to);
 
             Guild guild = Utils.getQuestGuild(channel.getJDA());
@@ -595,9 +598,11 @@ public class PlagiatTatsumaki {
 
             channel.sendMessage(":white_check_mark: Tu as maintenant le rôle **" + role.getName() + "** !").queue();
 
-            ArrayList<Long> ownedPaidRolesForUser = ownedPaidRoles.getOrDefault(author.getIdLong(), new ArrayList<>());
-            ownedPaidRolesForUser.add(transaction.to);
-            ownedPaidRoles.put(author.getIdLong(), ownedPaidRolesForUser);
+            synchronized (ledger) {
+                ArrayList<Long> ownedPaidRolesForUser = ownedPaidRoles.getOrDefault(author.getIdLong(), new ArrayList<>());
+                ownedPaidRolesForUser.add(transaction.to);
+                ownedPaidRoles.put(author.getIdLong(), ownedPaidRolesForUser);
+            }
             save();
 
             return true;
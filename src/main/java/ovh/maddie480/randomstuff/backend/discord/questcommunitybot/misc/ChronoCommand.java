@@ -10,18 +10,19 @@ import ovh.maddie480.randomstuff.backend.discord.questcommunitybot.BotCommand;
 import ovh.maddie480.randomstuff.backend.discord.questcommunitybot.Utils;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ChronoCommand implements BotCommand {
     private static final Logger logger = LoggerFactory.getLogger(ChronoCommand.class);
 
     private int stopwatchId = 0;
-    private final Map<Integer, Boolean> runningStates = new HashMap<>();
-    private final Map<Integer, Long> owners = new HashMap<>();
-    private final Map<Long, Integer> messageIDsToStopwatchIDs = new HashMap<>();
+    private final Map<Integer, Boolean> runningStates = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> owners = new ConcurrentHashMap<>();
+    private final Map<Long, Integer> messageIDsToStopwatchIDs = new ConcurrentHashMap<>();
 
     @Override
     public String getCommandName() {
@@ -60,6 +61,16 @@ public class ChronoCommand implements BotCommand {
         startStopwatch(event.getAuthor().getIdLong(), event.getChannel());
     }
 
+    @Override
+    public Set<String> getHandledReactions() {
+        return Set.of("e29d8c", "f09f9481");
+    }
+
+    @Override
+    public boolean isWatchingMessage(long messageId) {
+        return messageIDsToStopwatchIDs.containsKey(messageId);
+    }
+
     @Override
     public boolean processReaction(MessageReactionAddEvent event, String reaction) throws IOException {
         if (!messageIDsToStopwatchIDs.containsKey(event.getMessageIdLong())) {
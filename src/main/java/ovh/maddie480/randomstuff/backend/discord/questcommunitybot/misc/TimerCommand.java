@@ -10,17 +10,18 @@ import ovh.maddie480.randomstuff.backend.discord.questcommunitybot.BotCommand;
 import ovh.maddie480.randomstuff.backend.discord.questcommunitybot.Utils;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 public class TimerCommand implements BotCommand {
 
     private static final Logger logger = LoggerFactory.getLogger(TimerCommand.class);
 
-    private final Map<Long, Function<Long, Boolean>> messageIDsToTimerStopHooks = new HashMap<>();
+    private final Map<Long, Function<Long, Boolean>> messageIDsToTimerStopHooks = new ConcurrentHashMap<>();
 
     @Override
     public String getCommandName() {
@@ -165,6 +166,16 @@ public class TimerCommand implements BotCommand {
         }.start();
     }
 
+    @Override
+    public Set<String> getHandledReactions() {
+        return Set.of("e29d8c");
+    }
+
+    @Override
+    public boolean isWatchingMessage(long messageId) {
+        return messageIDsToTimerStopHooks.containsKey(messageId);
+    }
+
     @Override
     public boolean processReaction(MessageReactionAddEvent event, String reaction) throws IOException {
         long messageId = event.getMessageIdLong();
@@ -16,6 +16,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -24,7 +25,7 @@ import static com.max480.quest.modmanagerbot.QuestToolManager.Tool;
 public class ListToolsCommand implements BotCommand {
     private static final Logger log = LoggerFactory.getLogger(ListToolsCommand.class);
 
-    private final Map<Long, Map<String, String>> reactionMap = new HashMap<>();
+    private final Map<Long, Map<String, String>> reactionMap = new ConcurrentHashMap<>();
 
     @Override
     public String getCommandName() {
@@ -113,6 +114,16 @@ public class ListToolsCommand implements BotCommand {
         }
     }
 
+    @Override
+    public Set<String> getHandledReactions() {
+        return Set.of(getAllPossibleReactions());
+    }
+
+    @Override
+    public boolean isWatchingMessage(long messageId) {
+        return reactionMap.containsKey(messageId);
+    }
+
     @Override
     public boolean processReaction(MessageReactionAddEvent event, String reaction) throws IOException {
         long messageId = event.getMessageIdLong();
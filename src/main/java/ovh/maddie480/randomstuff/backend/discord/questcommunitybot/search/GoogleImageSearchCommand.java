@@ -19,16 +19,17 @@ import java.io.InputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 public class GoogleImageSearchCommand implements BotCommand {
     private static final Logger log = LoggerFactory.getLogger(GoogleImageSearchCommand.class);
 
-    private final Map<Long, List<String>> nextSearchLinks = new HashMap<>();
-    private final Map<Long, List<String>> nextSearchNames = new HashMap<>();
+    private final Map<Long, List<String>> nextSearchLinks = new ConcurrentHashMap<>();
+    private final Map<Long, List<String>> nextSearchNames = new ConcurrentHashMap<>();
 
 
     @Override
@@ -90,6 +91,16 @@ public class GoogleImageSearchCommand implements BotCommand {
         }
     }
 
+    @Override
+    public Set<String> getHandledReactions() {
+        return Set.of("e28fad");
+    }
+
+    @Override
+    public boolean isWatchingMessage(long messageId) {
+        return nextSearchLinks.containsKey(messageId);
+    }
+
     @Override
     public boolean processReaction(MessageReactionAddEvent event, String reaction) {
         long messageId = event.getMessageIdLong();
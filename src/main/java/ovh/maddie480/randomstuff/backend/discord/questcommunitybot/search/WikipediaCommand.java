@@ -18,16 +18,17 @@ import java.net.HttpURLConnection;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 public class WikipediaCommand implements BotCommand {
     private static final Logger log = LoggerFactory.getLogger(WikipediaCommand.class);
 
-    private final Map<Long, List<String>> nextSearchLinks = new HashMap<>();
-    private final Map<Long, List<String>> nextSearchNames = new HashMap<>();
+    private final Map<Long, List<String>> nextSearchLinks = new ConcurrentHashMap<>();
+    private final Map<Long, List<String>> nextSearchNames = new ConcurrentHashMap<>();
 
     @Override
     public String getCommandName() {
@@ -118,6 +119,16 @@ public class WikipediaCommand implements BotCommand {
         }
     }
 
+    @Override
+    public Set<String> getHandledReactions() {
+        return Set.of("e28fad");
+    }
+
+    @Override
+    public boolean isWatchingMessage(long messageId) {
+        return nextSearchLinks.containsKey(messageId);
+    }
+
     @Override
     public boolean processReaction(MessageReactionAddEvent event, String reaction) {
         long messageId = event.getMessageIdLong();
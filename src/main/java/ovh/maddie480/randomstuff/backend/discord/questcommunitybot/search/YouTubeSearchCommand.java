@@ -19,16 +19,17 @@ import java.io.InputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 public class YouTubeSearchCommand implements BotCommand {
     private static final Logger log = LoggerFactory.getLogger(YouTubeSearchCommand.class);
 
-    private final Map<Long, List<String>> nextVideoIds = new HashMap<>();
-    private final Map<Long, List<String>> nextVideoNames = new HashMap<>();
+    private final Map<Long, List<String>> nextVideoIds = new ConcurrentHashMap<>();
+    private final Map<Long, List<String>> nextVideoNames = new ConcurrentHashMap<>();
 
 
     @Override
@@ -93,6 +94,16 @@ public class YouTubeSearchCommand implements BotCommand {
         }
     }
 
+    @Override
+    public Set<String> getHandledReactions() {
+        return Set.of("e28fad");
+    }
+
+    @Override
+    public boolean isWatchingMessage(long messageId) {
+        return nextVideoIds.containsKey(messageId);
+    }
+
     @Override
     public boolean processReaction(MessageReactionAddEvent event, String reaction) {
         long messageId = event.getMessageIdLong();
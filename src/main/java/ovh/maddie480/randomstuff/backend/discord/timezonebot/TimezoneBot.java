@@ -17,6 +17,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ovh.maddie480.randomstuff.backend.SecretConstants;
 import ovh.maddie480.randomstuff.backend.utils.DiscardableJDA;
+import ovh.maddie480.randomstuff.backend.utils.DiscordBotRestClient;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -165,9 +166,7 @@ public class TimezoneBot {
     }
 
     public static int getServerCount() throws IOException {
-        try (DiscardableJDA jda = new DiscardableJDA(SecretConstants.TIMEZONE_BOT_TOKEN)) {
-            return jda.getGuilds().size();
-        }
+        return new DiscordBotRestClient(SecretConstants.TIMEZONE_BOT_TOKEN).getGuilds().size();
     }
 
     /**
@@ -20,10 +20,15 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -37,11 +42,22 @@ public class LNJBot {
     private static final Logger logger = LoggerFactory.getLogger(LNJBot.class);
     private static final Path lnjPollPath = Paths.get("/shared/lnj-poll.json");
 
+    private static final Pattern CLIP_COMMAND = Pattern.compile("^! *clip$");
+    private static final Pattern TOLERANT_COMMAND = Pattern.compile("^! *([a-z0-9_é]+)$");
+
     private final WebsocketLiveChat websocketLiveChat;
     private final SHSChatControl shsChatControl;
     private final ClippyTheClipper clipper;
     private final CustomEmotes customEmotes;
 
+    private final ExecutorService websocketExecutor = singleThreadExecutor("LNJ Bot Websocket Stage");
+    private final ExecutorService pollExecutor = singleThreadExecutor("LNJ Bot Poll Stage");
+    private final ExecutorService shsCommandExecutor = singleThreadExecutor("LNJ Bot SHS Command Stage");
+
+    // the poll is only written to by the poll stage, and saved to disk by the poll saver
+    private volatile LNJPoll currentPoll;
+    private final AtomicBoolean pollChanged = new AtomicBoolean(false);
+
     public static void main(String[] args) throws IOException {
         new LNJBot();
         logger.debug("Startup finished!");
@@ -58,8 +74,12 @@ public class LNJBot {
     private LNJBot() throws IOException {
         customEmotes = new CustomEmotes();
 
+        currentPoll = loadPoll();
+        Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "LNJ Poll Saver"))
+                .scheduleWithFixedDelay(logExceptions("poll saver", this::savePollIfChanged), 1, 1, TimeUnit.SECONDS);
+
         new WebsocketHttpServer().start();
-        websocketLiveChat = new WebsocketLiveChat();
+        websocketLiveChat = new WebsocketLiveChat(100); // messages are sent in batches every 100ms
         websocketLiveChat.start();
 
         TwitchChatProvider twitchChatProvider = new TwitchChatProvider();
@@ -78,27 +98,26 @@ public class LNJBot {
         clipper = new ClippyTheClipper(twitchChatProvider);
     }
 
-    private synchronized <T> void handleChatMessage(ChatMessage<T> message) {
+    private <T> void handleChatMessage(ChatMessage<T> message) {
         logger.debug("New message from {}: {}", message.messageSenderName(), message.messageContents());
-        message = customEmotes.fillWithCustomEmotes(message);
-        websocketLiveChat.onMessageReceived(message);
+        ChatMessage<T> messageWithEmotes = customEmotes.fillWithCustomEmotes(message);
 
-        LNJPoll poll;
-        try (BufferedReader br = Files.newBufferedReader(lnjPollPath)) {
-            poll = new LNJPoll(new JSONObject(new JSONTokener(br)));
-        } catch (IOException e) {
-            logger.error("Could not load LNJ Poll", e);
-            return;
-        }
+        // the chat provider's thread only dispatches the message: each stage processes messages in order on its own thread,
+        // so that a slow websocket client or a poll save does not delay the other stages or the reading of the chat.
+        websocketExecutor.execute(logExceptions("websocket stage", () -> websocketLiveChat.onMessageReceived(messageWithEmotes)));
+        pollExecutor.execute(logExceptions("poll stage", () -> handlePollAndClip(messageWithEmotes)));
+        shsCommandExecutor.execute(logExceptions("SHS command stage", () -> handleSHSCommand(messageWithEmotes)));
+    }
+
+    private void handlePollAndClip(ChatMessage<?> message) {
+        String messageContents = message.messageContents().trim();
 
-        if (message.messageContents().trim().toLowerCase(Locale.ROOT).matches("^! *clip$")) {
+        if (CLIP_COMMAND.matcher(messageContents.toLowerCase(Locale.ROOT)).matches()) {
             logger.debug("Received a !clip command from " + message.messageSenderName());
             clipper.makeClip(message);
 
-        } else if (message.isAdmin()
-                && (message.messageContents().trim().startsWith("!poll ") || message.messageContents().trim().equals("!poll"))) {
-
-            List<String> command = new CommandParser(message.messageContents().trim()).parse();
+        } else if (message.isAdmin() && (messageContents.startsWith("!poll ") || messageContents.equals("!poll"))) {
+            List<String> command = new CommandParser(messageContents).parse();
 
             if (command.size() < 3) {
                 // we need at least a question and an answer!
@@ -107,29 +126,22 @@ public class LNJBot {
                 String title = command.get(1);
                 Set<String> choices = command.stream().skip(2).collect(Collectors.toSet());
 
-                try (OutputStream os = Files.newOutputStream(lnjPollPath)) {
-                    IOUtils.write(new LNJPoll(title, choices).toJson().toString(), os, StandardCharsets.UTF_8);
-                } catch (IOException e) {
-                    logger.error("Could not save new LNJ Poll", e);
-                    return;
-                }
+                currentPoll = new LNJPoll(title, choices);
+                pollChanged.set(true);
 
                 logger.debug("New poll created: \"{}\", with choices {}", title, choices);
                 message.respond("Sondage créé !");
             }
-        } else if (poll.voteFor(message.messageSenderId(), message.messageContents())) {
+        } else if (currentPoll != null && currentPoll.voteFor(message.messageSenderId(), message.messageContents())) {
             logger.debug("New vote received on poll: {} (ID {}) voted {}", message.messageSenderName(),
                     message.messageSenderId(), message.messageContents());
 
-            try (OutputStream os = Files.newOutputStream(lnjPollPath)) {
-                IOUtils.write(poll.toJson().toString(), os, StandardCharsets.UTF_8);
-            } catch (IOException e) {
-                logger.error("Could not save LNJ Poll vote", e);
-            }
+            pollChanged.set(true);
         }
+    }
 
-        Matcher tolerantCommandMatcher = Pattern.compile("^! *([a-z0-9_é]+)$")
-                .matcher(message.messageContents().trim().toLowerCase(Locale.ROOT));
+    private void handleSHSCommand(ChatMessage<?> message) {
+        Matcher tolerantCommandMatcher = TOLERANT_COMMAND.matcher(message.messageContents().trim().toLowerCase(Locale.ROOT));
 
         if (tolerantCommandMatcher.matches()) {
             shsChatControl.handleCommand("!" + tolerantCommandMatcher.group(1));
@@ -140,6 +152,57 @@ public class LNJBot {
         }
     }
 
+    private static LNJPoll loadPoll() {
+        try (BufferedReader br = Files.newBufferedReader(lnjPollPath)) {
+            return new LNJPoll(new JSONObject(new JSONTokener(br)));
+        } catch (IOException e) {
+            logger.error("Could not load LNJ Poll", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the poll to disk if it changed since the last save. Votes are only counted in memory,
+     * so this is what makes them visible to the website.
+     */
+    private void savePollIfChanged() {
+        if (!pollChanged.getAndSet(false)) return;
+
+        Path tempPath = lnjPollPath.resolveSibling(lnjPollPath.getFileName() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tempPath)) {
+            IOUtils.write(currentPoll.toJson().toString(), os, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.error("Could not save LNJ Poll", e);
+            pollChanged.set(true);
+            return;
+        }
+
+        try {
+            Files.move(tempPath, lnjPollPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Could not move LNJ Poll to its final location", e);
+            pollChanged.set(true);
+        }
+    }
+
+    /**
+     * Nobody waits for the stages or the poll saver to finish, so what they throw has to be logged here,
+     * or it would be lost. This also keeps the poll saver scheduled after an error.
+     */
+    private static Runnable logExceptions(String taskName, Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.error("Error in LNJ Bot {}", taskName, e);
+            }
+        };
+    }
+
+    private static ExecutorService singleThreadExecutor(String name) {
+        return Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, name));
+    }
+
     public static void healthCheck() throws IOException {
         String title;
         try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/twitch-poll.json")) {
@@ -5,9 +5,11 @@ import org.json.JSONObject;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents the ongoing poll on the stream, and handles people responding to it.
+ * Votes can be cast while the poll is being serialized, hence the concurrent map.
  */
 class LNJPoll {
     private final long id;
@@ -22,14 +24,14 @@ class LNJPoll {
         for (String answer : answers) {
             this.answersWithCase.put(answer.toLowerCase(), answer);
         }
-        this.answersByUser = new HashMap<>();
+        this.answersByUser = new ConcurrentHashMap<>();
     }
 
     public LNJPoll(JSONObject json) {
         id = json.getLong("id");
         name = json.getString("name");
         answersWithCase = toMap(json.getJSONObject("answersWithCase"));
-        answersByUser = toMap(json.getJSONObject("answersByUser"));
+        answersByUser = new ConcurrentHashMap<>(toMap(json.getJSONObject("answersByUser")));
     }
 
     private static Map<String, String> toMap(JSONObject json) {
@@ -0,0 +1,104 @@
+package ovh.maddie480.randomstuff.backend.streams.features;
+
+/**
+ * Finds where to cut an MP3 file in order to start playing it at a given time, by walking through its frame headers.
+ * Cutting on a frame boundary is all ffmpeg -c copy does, so this spares us from spawning it.
+ */
+final class MP3Seeker {
+    private static final int[][] BITRATES_MPEG1 = {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448}, // layer I
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384}, // layer II
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320} // layer III
+    };
+    private static final int[][] BITRATES_MPEG2 = {
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256}, // layer I
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}, // layer II
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160} // layer III
+    };
+    private static final int[] SAMPLE_RATES_MPEG1 = {44100, 48000, 32000};
+
+    private MP3Seeker() {
+        // this class only has static methods
+    }
+
+    /**
+     * Finds the offset of the first frame that starts at or after the given time.
+     *
+     * @param mp3          The MP3 file
+     * @param seekToMillis The time to seek to, in milliseconds
+     * @return The offset of the frame, or the length of the file if it is shorter than that
+     */
+    public static int findFrameAt(byte[] mp3, int seekToMillis) {
+        int position = skipID3v2Tag(mp3);
+        double elapsedMillis = 0;
+
+        while (position + 4 <= mp3.length) {
+            int frameLength = getFrameLength(mp3, position);
+            if (frameLength <= 0) {
+                // not a frame header: resync on the next byte
+                position++;
+                continue;
+            }
+
+            if (elapsedMillis >= seekToMillis) return position;
+
+            elapsedMillis += getFrameDurationMillis(mp3, position);
+            position += frameLength;
+        }
+
+        return mp3.length;
+    }
+
+    private static int skipID3v2Tag(byte[] mp3) {
+        if (mp3.length < 10 || mp3[0] != 'I' || mp3[1] != 'D' || mp3[2] != '3') return 0;
+
+        // the size is a "syncsafe" integer: 4 bytes of 7 bits each
+        int size = ((mp3[6] & 0x7F) << 21) | ((mp3[7] & 0x7F) << 14) | ((mp3[8] & 0x7F) << 7) | (mp3[9] & 0x7F);
+        boolean hasFooter = (mp3[5] & 0x10) != 0;
+        return Math.min(mp3.length, 10 + size + (hasFooter ? 10 : 0));
+    }
+
+    /**
+     * @return The length of the frame starting at the given position, or -1 if this is not a valid frame header
+     */
+    private static int getFrameLength(byte[] mp3, int position) {
+        int b1 = mp3[position + 1] & 0xFF;
+        int b2 = mp3[position + 2] & 0xFF;
+        if ((mp3[position] & 0xFF) != 0xFF || (b1 & 0xE0) != 0xE0) return -1;
+
+        int version = (b1 >> 3) & 0x3; // 0 = MPEG 2.5, 1 = reserved, 2 = MPEG 2, 3 = MPEG 1
+        int layer = 4 - ((b1 >> 1) & 0x3); // 4 = reserved
+        int bitrateIndex = (b2 >> 4) & 0xF;
+        int sampleRateIndex = (b2 >> 2) & 0x3;
+        int padding = (b2 >> 1) & 0x1;
+        if (version == 1 || layer == 4 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) return -1;
+
+        int bitrate = (version == 3 ? BITRATES_MPEG1 : BITRATES_MPEG2)[layer - 1][bitrateIndex] * 1000;
+        int sampleRate = getSampleRate(version, sampleRateIndex);
+
+        if (layer == 1) return (12 * bitrate / sampleRate + padding) * 4;
+        return getSamplesPerFrame(version, layer) / 8 * bitrate / sampleRate + padding;
+    }
+
+    private static double getFrameDurationMillis(byte[] mp3, int position) {
+        int b1 = mp3[position + 1] & 0xFF;
+        int b2 = mp3[position + 2] & 0xFF;
+        int version = (b1 >> 3) & 0x3;
+        int layer = 4 - ((b1 >> 1) & 0x3);
+        return getSamplesPerFrame(version, layer) * 1000.0 / getSampleRate(version, (b2 >> 2) & 0x3);
+    }
+
+    private static int getSampleRate(int version, int sampleRateIndex) {
+        return switch (version) {
+            case 3 -> SAMPLE_RATES_MPEG1[sampleRateIndex];
+            case 2 -> SAMPLE_RATES_MPEG1[sampleRateIndex] / 2;
+            default -> SAMPLE_RATES_MPEG1[sampleRateIndex] / 4;
+        };
+    }
+
+    private static int getSamplesPerFrame(int version, int layer) {
+        if (layer == 1) return 384;
+        if (layer == 3 && version != 3) return 576;
+        return 1152;
+    }
+}
@@ -1,13 +1,12 @@
 package ovh.maddie480.randomstuff.backend.streams.features;
 
-import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ovh.maddie480.randomstuff.backend.streams.apis.IChatProvider;
 import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
-import ovh.maddie480.randomstuff.backend.utils.OutputStreamLogger;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -15,9 +14,7 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -40,6 +37,7 @@ public class SHSChatControl implements Runnable {
     );
 
     private final List<IChatProvider<?>> chatProviders;
+    private final SHSRadioCache radioCache = new SHSRadioCache();
 
     private int sessionId = 0;
 
@@ -84,11 +82,19 @@ public class SHSChatControl implements Runnable {
             public void run() {
                 try (ServerSocket serverSocket = new ServerSocket(11585)) {
                     while (true) {
-                        try (Socket socket = serverSocket.accept()) {
-                            sendRadio(socket);
-                        } catch (IOException | InterruptedException e) {
-                            logger.error("Error while sending radio to client!", e);
-                        }
+                        Socket socket = serverSocket.accept();
+
+                        // each client gets its own thread, so that a client waiting for the next song doesn't hold the others
+                        new Thread("SHS Radio Client") {
+                            @Override
+                            public void run() {
+                                try (socket) {
+                                    sendRadio(socket);
+                                } catch (IOException | InterruptedException e) {
+                                    logger.error("Error while sending radio to client!", e);
+                                }
+                            }
+                        }.start();
                     }
                 } catch (IOException e) {
                     logger.error("Error while starting radio socket!", e);
@@ -177,11 +183,20 @@ public class SHSChatControl implements Runnable {
             while (true) {
                 try (InputStream ris = ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/radio-lnj/playlist.json")) {
                     JSONObject response = new JSONObject(new JSONTokener(ris));
-                    songPath = "https://maddie480.ovh" + response.getJSONArray("playlist").getJSONObject(0).getString("path");
+                    JSONArray playlist = response.getJSONArray("playlist");
+                    songPath = "https://maddie480.ovh" + playlist.getJSONObject(0).getString("path");
                     seek = response.getInt("seek");
-                    duration = response.getJSONArray("playlist").getJSONObject(0).getInt("duration");
+                    duration = playlist.getJSONObject(0).getInt("duration");
                     seekTimeMillis = System.currentTimeMillis();
 
+                    // only keep the current and next song in cache, and start getting the next one right away
+                    List<String> upcomingSongs = new ArrayList<>();
+                    for (int i = 0; i < Math.min(2, playlist.length()); i++) {
+                        upcomingSongs.add("https://maddie480.ovh" + playlist.getJSONObject(i).getString("path"));
+                    }
+                    radioCache.retainOnly(upcomingSongs);
+                    if (upcomingSongs.size() > 1) radioCache.prefetch(upcomingSongs.get(1));
+
                     if (duration - seek < 15000) {
                         logger.info("Time left is {}, not enough to be worth it! Waiting for the next song.", duration - seek);
                         Thread.sleep(duration - seek + 1500);
@@ -191,67 +206,22 @@ public class SHSChatControl implements Runnable {
                 }
             }
 
-            // download the song, cut it if necessary
-            Path radioToSend;
-            {
-                Path radioTemp = Paths.get("/tmp/radio.mp3");
-                Path radioTempCut = Paths.get("/tmp/radio_cut.mp3");
-                radioToSend = radioTemp;
-
-                if (Files.exists(radioTempCut)) Files.delete(radioTempCut);
-
-                logger.debug("Next song is {} (duration {}) with seek {}, downloading...", songPath, duration, seek);
-
-                try (InputStream ris = ConnectionUtils.openStreamWithTimeout(songPath);
-                     OutputStream ros = Files.newOutputStream(radioTemp)) {
+            // get the song from the cache, and skip what was already played
+            logger.debug("Next song is {} (duration {}) with seek {}, getting it...", songPath, duration, seek);
+            byte[] song = radioCache.getSong(songPath);
 
-                    IOUtils.copy(ris, ros);
-                }
-
-                seek += (int) (System.currentTimeMillis() - seekTimeMillis);
-                seekTimeMillis = System.currentTimeMillis();
-                logger.debug("Download complete, seek adjusted to {}", seek);
-
-                if (seek > 10000) {
-                    List<String> command = Arrays.asList("ffmpeg",
-                            "-ss", Float.toString(seek / 1000f),
-                            "-i", radioTemp.toAbsolutePath().toString(),
-                            "-to", Float.toString(duration / 1000f),
-                            "-c", "copy",
-                            radioTempCut.toAbsolutePath().toString()
-                    );
-                    logger.debug("Cutting file... Command line: {}", command);
-
-                    Process ffmpeg = new ProcessBuilder(command).start();
-
-                    OutputStreamLogger.redirectAllOutput(logger, ffmpeg);
-                    ffmpeg.waitFor();
-                    if (ffmpeg.exitValue() != 0) {
-                        throw new IOException("Could not convert file: return code " + ffmpeg.exitValue());
-                    }
-
-                    Files.delete(radioTemp);
-                    radioToSend = radioTempCut;
-
-                    seek += (int) (System.currentTimeMillis() - seekTimeMillis);
-                    logger.debug("Cut complete, seek adjusted to {}", seek);
-                }
+            seek += (int) (System.currentTimeMillis() - seekTimeMillis);
+            int startOffset = 0;
+            if (seek > 10000) {
+                startOffset = MP3Seeker.findFrameAt(song, seek);
             }
 
-            int fileSize = (int) Files.size(radioToSend);
-            logger.debug("Transferring file {} @ {} ({} bytes) and remaining duration {} to client", songPath, radioToSend.toAbsolutePath().toString(), fileSize, duration - seek);
+            int fileSize = song.length - startOffset;
+            logger.debug("Transferring file {} from offset {} ({} bytes) and remaining duration {} to client", songPath, startOffset, fileSize, duration - seek);
 
             // transfer the size, the file, then the time left
             os.writeInt(fileSize);
-            byte[] buf = new byte[4096];
-            try (InputStream ris = Files.newInputStream(radioToSend)) {
-                while (true) {
-                    int read = ris.read(buf);
-                    if (read == -1) break;
-                    os.write(buf, 0, read);
-                }
-            }
-            Files.delete(radioToSend);
+            os.write(song, startOffset, fileSize);
             os.writeInt(duration - seek + 1000);
 
             // send a random number, the client should reply with that number to acknowledge they received everything
@@ -0,0 +1,73 @@
+package ovh.maddie480.randomstuff.backend.streams.features;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the songs of the LNJ radio in memory, so that clients connecting to the SHS radio socket
+ * do not need to download the song again. Songs are downloaded once even if several clients ask for them at the same time,
+ * and only the songs that are still in the playlist are kept.
+ */
+class SHSRadioCache {
+    private static final Logger logger = LoggerFactory.getLogger(SHSRadioCache.class);
+
+    private final Map<String, CompletableFuture<byte[]>> songs = new ConcurrentHashMap<>();
+    private final ExecutorService downloader = Executors.newCachedThreadPool(runnable -> new Thread(runnable, "SHS Radio Downloader"));
+
+    /**
+     * Gets the contents of a song, downloading it if it isn't in cache yet.
+     *
+     * @param url The URL of the song
+     * @return The MP3 file
+     * @throws IOException If the song could not be downloaded
+     */
+    public byte[] getSong(String url) throws IOException, InterruptedException {
+        CompletableFuture<byte[]> song = songs.computeIfAbsent(url, this::download);
+
+        try {
+            return song.get();
+        } catch (ExecutionException e) {
+            // forget about that failed download so that the next client tries again
+            songs.remove(url, song);
+            throw new IOException("Could not download song " + url, e.getCause());
+        }
+    }
+
+    /**
+     * Starts downloading a song in the background if it isn't in cache yet, typically the next song in the playlist.
+     */
+    public void prefetch(String url) {
+        songs.computeIfAbsent(url, this::download);
+    }
+
+    /**
+     * Drops all songs that are not in the given list from the cache.
+     */
+    public void retainOnly(Collection<String> urls) {
+        songs.keySet().retainAll(urls);
+    }
+
+    private CompletableFuture<byte[]> download(String url) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                logger.debug("Downloading song {}...", url);
+                byte[] song = ConnectionUtils.toByteArrayWithTimeout(url);
+                logger.debug("Downloaded song {} ({} bytes)", url, song.length);
+                return song;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, downloader);
+    }
+}
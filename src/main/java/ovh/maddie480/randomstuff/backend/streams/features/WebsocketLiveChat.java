@@ -3,6 +3,8 @@ package ovh.maddie480.randomstuff.backend.streams.features;
 import com.google.common.collect.ImmutableMap;
 import org.apache.commons.lang.RandomStringUtils;
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 import org.json.JSONObject;
@@ -12,33 +14,43 @@ import ovh.maddie480.randomstuff.backend.streams.apis.ChatMessage;
 import ovh.maddie480.randomstuff.backend.streams.apis.TwitchChatProvider;
 
 import java.net.InetSocketAddress;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Transmits the live chat to the LNJ stream through the magic of websockets.
+ * Messages are serialized once, queued up, and broadcast to all clients in batches every few milliseconds,
+ * so that a slow overlay client cannot slow down the reading of the chat.
  */
 public class WebsocketLiveChat extends WebSocketServer {
     private static final Logger logger = LoggerFactory.getLogger(WebsocketLiveChat.class);
 
-    private final Set<WebSocket> webSockets = new HashSet<>();
+    // if a client has more frames than that waiting to be sent, it is too slow to keep up, so we kick it out
+    private static final int MAX_PENDING_FRAMES_PER_CLIENT = 500;
 
-    public WebsocketLiveChat() {
+    private final Queue<String> pendingMessages = new ConcurrentLinkedQueue<>();
+    private final long batchIntervalMillis;
+
+    public WebsocketLiveChat(long batchIntervalMillis) {
         super(new InetSocketAddress(11586));
+        this.batchIntervalMillis = batchIntervalMillis;
     }
 
     @Override
     public void onStart() {
         logger.info("Server started!");
+
+        Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "Websocket Live Chat Broadcaster"))
+                .scheduleWithFixedDelay(this::broadcastPendingMessages, batchIntervalMillis, batchIntervalMillis, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void onOpen(WebSocket webSocket, ClientHandshake clientHandshake) {
         logger.info("Client connected!");
-
-        synchronized (webSockets) {
-            webSockets.add(webSocket);
-        }
     }
 
     @Override
@@ -49,19 +61,11 @@ public class WebsocketLiveChat extends WebSocketServer {
     @Override
     public void onClose(WebSocket webSocket, int i, String s, boolean b) {
         logger.warn("Client disconnected!");
-
-        synchronized (webSockets) {
-            webSockets.remove(webSocket);
-        }
     }
 
     @Override
     public void onError(WebSocket webSocket, Exception e) {
         logger.warn("Client disconnected!", e);
-
-        synchronized (webSockets) {
-            webSockets.remove(webSocket);
-        }
     }
 
     public void onMessageReceived(ChatMessage<?> message) {
@@ -79,10 +83,37 @@ public class WebsocketLiveChat extends WebSocketServer {
                 .toList());
         messageSerialized.put("ack", RandomStringUtils.randomAlphanumeric(20));
 
-        logger.debug("Sending message: {}", messageSerialized.toString(2));
+        String serialized = messageSerialized.toString();
+        logger.debug("Queueing message: {}", serialized);
+        pendingMessages.add(serialized);
+    }
 
-        synchronized (webSockets) {
-            webSockets.forEach(webSocket -> webSocket.send(messageSerialized.toString()));
+    private void broadcastPendingMessages() {
+        try {
+            if (pendingMessages.isEmpty()) return;
+
+            // kick out clients that cannot keep up, and send to everyone else
+            List<WebSocket> recipients = new ArrayList<>();
+            for (WebSocket webSocket : getConnections()) {
+                if (webSocket instanceof WebSocketImpl impl && impl.outQueue.size() > MAX_PENDING_FRAMES_PER_CLIENT) {
+                    logger.warn("Client {} has {} frames waiting to be sent, disconnecting it!", webSocket.getRemoteSocketAddress(), impl.outQueue.size());
+                    webSocket.close(CloseFrame.TRY_AGAIN_LATER, "Too slow to keep up with the chat");
+                } else {
+                    recipients.add(webSocket);
+                }
+            }
+
+            // broadcast() turns each message into frames once, and shares them between all clients
+            String message;
+            int count = 0;
+            while ((message = pendingMessages.poll()) != null) {
+                if (!recipients.isEmpty()) broadcast(message, recipients);
+                count++;
+            }
+
+            logger.debug("Sent {} message(s) to {} client(s)", count, recipients.size());
+        } catch (Exception e) {
+            logger.error("Error while broadcasting messages", e);
         }
     }
 }
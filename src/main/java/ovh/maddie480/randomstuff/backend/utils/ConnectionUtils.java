@@ -7,18 +7,34 @@ import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Flow;
 import java.util.zip.GZIPInputStream;
 
 public final class ConnectionUtils {
     private static final Logger logger = LoggerFactory.getLogger(ConnectionUtils.class);
 
+    private static final String USER_AGENT = "Maddie-Random-Stuff-Backend/1.0.0 (+https://github.com/maddie480/RandomBackendStuff)";
+
+    private static final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
     /**
      * Creates an HttpURLConnection to the specified URL, getting sure timeouts are set
      * (connect timeout = 10 seconds, read timeout = 30 seconds).
@@ -36,7 +52,7 @@ public final class ConnectionUtils {
             throw new IOException(e);
         }
 
-        con.setRequestProperty("User-Agent", "Maddie-Random-Stuff-Backend/1.0.0 (+https://github.com/maddie480/RandomBackendStuff)");
+        con.setRequestProperty("User-Agent", USER_AGENT);
         con.setRequestProperty("Accept-Encoding", "gzip");
 
         con.setConnectTimeout(10000);
@@ -63,13 +79,89 @@ public final class ConnectionUtils {
     /**
      * Creates a stream to the specified URL, getting sure timeouts are set
      * (connect timeout = 10 seconds, read timeout = 30 seconds).
+     * This goes through a shared HTTP client that reuses connections (and uses HTTP/2 if the server supports it).
      *
      * @param url The URL to connect to
      * @return A stream to this URL
      * @throws IOException If an exception occured while trying to connect
      */
     public static InputStream openStreamWithTimeout(String url) throws IOException {
-        return connectionToInputStream(openConnectionWithTimeout(url));
+        return openStream(url, false);
+    }
+
+    /**
+     * Same as {@link #openStreamWithTimeout(String)}, except that responses with an ETag or Last-Modified header
+     * are cached on disk, and revalidated with a conditional request the next time.
+     * Only use this for public files: URLs that look like they carry credentials are never cached.
+     *
+     * @param url The URL to connect to
+     * @return A stream to this URL
+     * @throws IOException If an exception occured while trying to connect
+     */
+    public static InputStream openStreamWithCache(String url) throws IOException {
+        return openStream(url, HttpCache.isCacheable(url));
+    }
+
+    private static InputStream openStream(String url, boolean useCache) throws IOException {
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .header("User-Agent", USER_AGENT)
+                .header("Accept-Encoding", "gzip")
+                .timeout(Duration.ofSeconds(30))
+                .GET();
+
+        HttpCache.Entry cached = useCache ? HttpCache.get(url) : null;
+        if (cached != null) {
+            if (cached.etag() != null) request.header("If-None-Match", cached.etag());
+            if (cached.lastModified() != null) request.header("If-Modified-Since", cached.lastModified());
+        }
+
+        HttpResponse<Flow.Publisher<List<ByteBuffer>>> response;
+        try {
+            response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofPublisher());
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+
+        // the request timeout only covers the headers, so the body gets its own read timeout
+        InputStream body = ReadTimeoutInputStream.of(response.body(), 30000);
+
+        if (response.statusCode() == 304 && cached != null) {
+            body.close();
+            logger.debug("{} was not modified, reading it from cache", url);
+            return cached.open();
+        }
+
+        if (response.statusCode() >= 400) {
+            body.close();
+            if (response.statusCode() == 404 || response.statusCode() == 410) {
+                throw new FileNotFoundException(url);
+            }
+            throw new IOException("Server returned HTTP response code: " + response.statusCode() + " for URL: " + url);
+        }
+
+        boolean gzipped = response.headers().firstValue("Content-Encoding").map("gzip"::equals).orElse(false);
+        if (gzipped) {
+            body = new GZIPInputStream(body);
+        }
+
+        if (useCache && HttpCache.isStorable(response.headers())) {
+            // Content-Length is the size of the gzipped body if there is one, so it only tells the decoded size if there is none
+            long decodedLength = gzipped ? -1 : response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            if (decodedLength <= HttpCache.MAX_CACHED_RESPONSE_SIZE) {
+                body = HttpCache.cacheWhileReading(url, body, decodedLength,
+                        response.headers().firstValue("ETag").orElse(null),
+                        response.headers().firstValue("Last-Modified").orElse(null));
+            }
+        }
+
+        return body;
     }
 
 
@@ -82,7 +174,9 @@ public final class ConnectionUtils {
      * @throws IOException If an exception occurred while reading the contents
      */
     public static String toStringWithTimeout(String url, Charset charset) throws IOException {
-        return IOUtils.toString(openStreamWithTimeout(url), charset);
+        try (InputStream is = openStreamWithTimeout(url)) {
+            return IOUtils.toString(is, charset);
+        }
     }
 
     /**
@@ -93,7 +187,9 @@ public final class ConnectionUtils {
      * @throws IOException If an exception occurred while reading the contents
      */
     public static byte[] toByteArrayWithTimeout(String url) throws IOException {
-        return IOUtils.toByteArray(openStreamWithTimeout(url));
+        try (InputStream is = openStreamWithTimeout(url)) {
+            return IOUtils.toByteArray(is);
+        }
     }
 
     /**
@@ -134,7 +230,7 @@ public final class ConnectionUtils {
      */
     public static Document jsoupGetWithRetry(String url) throws IOException {
         return runWithRetry(() -> Jsoup.connect(url)
-                .userAgent("Maddie-Random-Stuff-Backend/1.0.0 (+https://github.com/maddie480/RandomBackendStuff)")
+                .userAgent(USER_AGENT)
                 .get());
     }
 }
\ No newline at end of file
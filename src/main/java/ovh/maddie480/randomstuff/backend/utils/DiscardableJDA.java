@@ -35,48 +35,194 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
-import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * A handle on a Discord bot session, meant to be used in a try-with-resources block by tasks that need to do a few things
+ * with a bot that is not otherwise running in this process.
+ * Sessions are shared: the first handle for a given token logs in, and the following ones reuse the same client
+ * as long as it was started with the gateway intents they need. Closing a handle does not log out, the session
+ * is shut down once it has been unused for a while, or when {@link #shutdownAll()} is called.
+ */
 public class DiscardableJDA implements JDA, Closeable {
     private static final Logger log = LoggerFactory.getLogger(DiscardableJDA.class);
 
-    public DiscardableJDA(String token, GatewayIntent intent, GatewayIntent... intents) {
-        try {
-            log.info("Starting discardable JDA with intents {}...", EnumSet.of(intent, intents));
-            backingJDA = JDABuilder.createLight(token, intent, intents).build().awaitReady();
-            log.info("Discardable JDA started!");
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+    // sessions nobody is using get shut down after this delay, so that they don't prevent the process from exiting
+    private static final long IDLE_TIMEOUT_MINUTES = 15;
+
+    // how long we are ready to wait for already queued requests to be sent when shutting down a session
+    private static final long DRAIN_TIMEOUT_MINUTES = 5;
+
+    private static class Session {
+        private final String token;
+        private final JDA jda;
+        private final Set<GatewayIntent> intents;
+        private int users = 0;
+        private boolean retired = false;
+        private ScheduledFuture<?> idleShutdown;
+
+        private Session(String token, JDA jda, Set<GatewayIntent> intents) {
+            this.token = token;
+            this.jda = jda;
+            this.intents = intents;
         }
     }
 
+    // bot token => current session for this token
+    private static final Map<String, Session> sessions = new HashMap<>();
+
+    private static final ScheduledExecutorService idleShutdownScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Discardable JDA Idle Shutdown");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Session session;
+    private boolean closed = false;
+
+    /**
+     * Gets a session that receives gateway events for the given intents.
+     */
+    public DiscardableJDA(String token, GatewayIntent intent, GatewayIntent... intents) {
+        session = acquire(token, EnumSet.of(intent, intents));
+        backingJDA = session.jda;
+    }
+
+    /**
+     * Gets a session without any gateway intent, for tasks that need to read the guild / channel cache.
+     * This still logs in to the gateway, since JDA cannot work without it: tasks that only need to list or leave servers
+     * should use {@link DiscordBotRestClient} instead.
+     * Any session that is already running for this token will do, whatever its intents are.
+     */
     public DiscardableJDA(String token) {
-        try {
-            log.info("Starting discardable JDA with no intents...");
-            backingJDA = JDABuilder.createLight(token, Collections.emptySet()).build().awaitReady();
-            log.info("Discardable JDA started!");
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+        session = acquire(token, EnumSet.noneOf(GatewayIntent.class));
+        backingJDA = session.jda;
+    }
+
+    private static Session acquire(String token, Set<GatewayIntent> intents) {
+        synchronized (sessions) {
+            Session session = sessions.get(token);
+
+            if (session != null && !session.intents.containsAll(intents)) {
+                // we need more intents than the current session has, so we need to log in again with all of them
+                log.info("Current session has intents {}, but intents {} are needed", session.intents, intents);
+                EnumSet<GatewayIntent> allIntents = EnumSet.noneOf(GatewayIntent.class);
+                allIntents.addAll(session.intents);
+                allIntents.addAll(intents);
+                intents = allIntents;
+
+                session.retired = true;
+                sessions.remove(token);
+                cancelIdleShutdown(session);
+                if (session.users == 0) stopIdleSession(session);
+                session = null;
+            }
+
+            if (session == null) {
+                try {
+                    log.info("Starting discardable JDA with intents {}...", intents);
+                    JDA jda = JDABuilder.createLight(token, intents).build().awaitReady();
+                    session = new Session(token, jda, intents);
+                    sessions.put(token, session);
+                    log.info("Discardable JDA started!");
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                log.debug("Reusing discardable JDA session of {} with intents {}", session.jda.getSelfUser(), session.intents);
+            }
+
+            cancelIdleShutdown(session);
+            session.users++;
+            return session;
         }
     }
 
-    @Override
-    public void close() throws IOException {
+    private static void release(Session session) {
+        synchronized (sessions) {
+            session.users--;
+            if (session.users > 0) return;
+
+            if (session.retired) {
+                stopIdleSession(session);
+            } else {
+                session.idleShutdown = idleShutdownScheduler.schedule(() -> {
+                    synchronized (sessions) {
+                        // the session might have been picked up again, or replaced by one with more intents in the meantime
+                        if (session.users > 0 || session.retired || sessions.get(session.token) != session) return;
+                        session.idleShutdown = null;
+                        sessions.remove(session.token);
+                    }
+                    stop(session);
+                }, IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            }
+        }
+    }
+
+    private static void cancelIdleShutdown(Session session) {
+        if (session.idleShutdown != null) {
+            session.idleShutdown.cancel(false);
+            session.idleShutdown = null;
+        }
+    }
+
+    private static void stopIdleSession(Session session) {
+        idleShutdownScheduler.execute(() -> stop(session));
+    }
+
+    /**
+     * Shuts down a session, after waiting for all the requests that were already queued to be sent.
+     */
+    private static void stop(Session session) {
         try {
-            log.info("Stopping discardable JDA...");
-            Thread.sleep(10000); // make extra sure no task is dropped
-            shutdown();
-            awaitShutdown();
+            log.info("Stopping discardable JDA of {}...", session.jda.getSelfUser());
+            session.jda.shutdown();
+            if (!session.jda.awaitShutdown(DRAIN_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                log.warn("Discardable JDA of {} did not finish sending queued requests in time, forcing shutdown!", session.jda.getSelfUser());
+                session.jda.shutdownNow();
+                session.jda.awaitShutdown();
+            }
             log.info("Discardable JDA stopped!");
         } catch (InterruptedException e) {
-            throw new IOException(e);
+            log.warn("Interrupted while stopping discardable JDA", e);
+            Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Shuts down all sessions, waiting for the requests they already queued to be sent.
+     * This should be called before exiting the process.
+     */
+    public static void shutdownAll() {
+        List<Session> sessionsToStop;
+        synchronized (sessions) {
+            sessionsToStop = new ArrayList<>(sessions.values());
+            sessions.clear();
+            for (Session session : sessionsToStop) {
+                cancelIdleShutdown(session);
+            }
+        }
+
+        for (Session session : sessionsToStop) {
+            stop(session);
+        }
+    }
+
+    /**
+     * Gives the session back. It will keep running for a while in case another task needs it.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        release(session);
+    }
+
     // <editor-fold desc="Methods Redirected to backingJDA">
     private final JDA backingJDA;
 
@@ -413,12 +559,13 @@ public class DiscardableJDA implements JDA, Closeable {
 
     @Override
     public void shutdown() {
-        backingJDA.shutdown();
+        // the session is shared, so we only give it back
+        close();
     }
 
     @Override
     public void shutdownNow() {
-        backingJDA.shutdownNow();
+        close();
     }
 
     @NotNull
@@ -0,0 +1,161 @@
+package ovh.maddie480.randomstuff.backend.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Calls the Discord REST API directly with a bot token, without logging in to the gateway.
+ * This is enough for tasks that only need to list or leave the servers a bot is in, and way lighter than
+ * starting a {@link DiscardableJDA} that would connect to the gateway and wait for all servers to load.
+ */
+public class DiscordBotRestClient {
+    private static final Logger log = LoggerFactory.getLogger(DiscordBotRestClient.class);
+
+    private static final String API_ROOT = "https://discord.com/api/v10";
+    private static final String USER_AGENT = "DiscordBot (https://maddie480.ovh, 1.0)";
+
+    // the maximum number of servers Discord sends in a single page
+    private static final int GUILD_PAGE_SIZE = 200;
+
+    // how many times we try a request that keeps getting rate limited before giving up
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final String token;
+    private JSONObject selfUser;
+
+    public DiscordBotRestClient(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Gets the user of the bot, as sent by Discord.
+     */
+    public JSONObject getSelfUser() throws IOException {
+        if (selfUser == null) {
+            selfUser = (JSONObject) request("GET", "/users/@me");
+        }
+        return selfUser;
+    }
+
+    /**
+     * Lists all the servers the bot is in, going through all pages.
+     */
+    public List<JSONObject> getGuilds() throws IOException {
+        List<JSONObject> guilds = new ArrayList<>();
+        String after = "0";
+
+        while (true) {
+            JSONArray page = (JSONArray) request("GET", "/users/@me/guilds?limit=" + GUILD_PAGE_SIZE + "&after=" + after);
+            for (int i = 0; i < page.length(); i++) {
+                guilds.add(page.getJSONObject(i));
+            }
+
+            if (page.length() < GUILD_PAGE_SIZE) return guilds;
+            after = page.getJSONObject(page.length() - 1).getString("id");
+        }
+    }
+
+    /**
+     * Gets the member of the bot in the given server, to know its nickname there.
+     */
+    public JSONObject getSelfMember(String guildId) throws IOException {
+        return (JSONObject) request("GET", "/guilds/" + guildId + "/members/" + getSelfUser().getString("id"));
+    }
+
+    /**
+     * Makes the bot leave the given server.
+     */
+    public void leaveGuild(String guildId) throws IOException {
+        request("DELETE", "/users/@me/guilds/" + guildId);
+    }
+
+    /**
+     * Gets the name of a user as displayed in Discord: its global name if it has one, its username otherwise.
+     */
+    public static String getEffectiveName(JSONObject user) {
+        return user.isNull("global_name") ? user.getString("username") : user.getString("global_name");
+    }
+
+    /**
+     * Gets the name of a member as displayed in its server: its nickname if it has one, its user's name otherwise.
+     */
+    public static String getEffectiveName(JSONObject member, JSONObject user) {
+        return member.isNull("nick") ? getEffectiveName(user) : member.getString("nick");
+    }
+
+    /**
+     * Sends a request to Discord, waiting and retrying if we hit a rate limit.
+     *
+     * @return The parsed response (JSONObject or JSONArray), or null if Discord sent no content
+     */
+    private Object request(String method, String path) throws IOException {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            HttpURLConnection connection = ConnectionUtils.openConnectionWithTimeout(API_ROOT + path);
+
+            connection.setRequestMethod(method);
+            connection.setRequestProperty("Authorization", "Bot " + token);
+            connection.setRequestProperty("User-Agent", USER_AGENT);
+
+            if (connection.getResponseCode() == 204) {
+                return null;
+            } else if (connection.getResponseCode() == 200) {
+                try (InputStream is = ConnectionUtils.connectionToInputStream(connection)) {
+                    return new JSONTokener(is).nextValue();
+                } catch (JSONException e) {
+                    throw new IOException("Could not parse response to " + method + " " + path, e);
+                }
+            }
+
+            String body = readErrorBody(connection);
+
+            float retryAfter = -1;
+            try {
+                JSONObject error = new JSONObject(body);
+                if (error.has("retry_after")) retryAfter = error.getFloat("retry_after");
+            } catch (JSONException e) {
+                // not JSON (for instance an error page from a proxy), so there is no rate limit to wait for
+            }
+
+            if (retryAfter < 0) {
+                throw new IOException("Server responded with HTTP code " + connection.getResponseCode() + " to " + method + " " + path + " with body: " + body);
+            }
+
+            try {
+                log.warn("Waiting for {}s because of rate limit!", retryAfter);
+                Thread.sleep((int) (retryAfter * 1000));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        throw new IOException("Still rate limited after " + MAX_ATTEMPTS + " attempts to " + method + " " + path);
+    }
+
+    /**
+     * Reads the body of an error response as text, which might be empty if the server did not send any.
+     */
+    private static String readErrorBody(HttpURLConnection con) throws IOException {
+        InputStream is = con.getErrorStream();
+        if (is == null) return "";
+
+        if ("gzip".equals(con.getContentEncoding())) {
+            is = new GZIPInputStream(is);
+        }
+        try (InputStream errorStream = is) {
+            return IOUtils.toString(errorStream, StandardCharsets.UTF_8);
+        }
+    }
+}
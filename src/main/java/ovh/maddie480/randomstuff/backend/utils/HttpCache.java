@@ -0,0 +1,296 @@
+package ovh.maddie480.randomstuff.backend.utils;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * An on-disk cache of HTTP responses that have an ETag or a Last-Modified header, so that they can be requested again
+ * with If-None-Match / If-Modified-Since, and read from disk if the server answers with 304 Not Modified.
+ * Only used by {@link ConnectionUtils#openStreamWithCache(String)}, for public files.
+ * Each entry is a single file: a line of JSON with the URL and validators, followed by the body. That way, the validators
+ * and the body are always replaced together.
+ * The cache lives in /shared/temp, so entries that were not used for a day get cleaned up by {@link ovh.maddie480.randomstuff.backend.TempFolderCleanup}.
+ */
+final class HttpCache {
+    private static final Logger logger = LoggerFactory.getLogger(HttpCache.class);
+
+    private static final Path cacheFolder = Paths.get("/shared/temp/http-cache");
+
+    // responses bigger than this are not worth keeping on disk
+    static final long MAX_CACHED_RESPONSE_SIZE = 32 * 1024 * 1024;
+
+    // query parameters that usually carry a secret, that should never end up on disk
+    // (on top of anything ending with "key", "token" or "secret")
+    private static final Set<String> CREDENTIAL_PARAMETERS = Set.of("password", "signature", "sig", "auth", "code");
+
+    // the request headers that ConnectionUtils always sends with the same values, so a response varying on them is fine
+    private static final Set<String> FIXED_REQUEST_HEADERS = Set.of("accept-encoding", "user-agent");
+
+    record Entry(Path file, String etag, String lastModified) {
+        /**
+         * Opens the cached response, and marks it as recently used so that it doesn't get cleaned up.
+         */
+        InputStream open() throws IOException {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+
+            InputStream is = new BufferedInputStream(Files.newInputStream(file));
+            try {
+                readHeader(is);
+                return is;
+            } catch (IOException e) {
+                is.close();
+                throw e;
+            }
+        }
+    }
+
+    private HttpCache() {
+        // this class only has static methods
+    }
+
+    /**
+     * Checks that the URL is fine to store on disk, that is, that it has no user info and no query parameter
+     * that looks like a credential.
+     */
+    static boolean isCacheable(String url) {
+        try {
+            URI uri = new URI(url);
+            if (uri.getRawUserInfo() != null) return false;
+            if (uri.getRawQuery() == null) return true;
+
+            for (String parameter : uri.getRawQuery().split("&")) {
+                String name = parameter.contains("=") ? parameter.substring(0, parameter.indexOf('=')) : parameter;
+                name = name.toLowerCase(Locale.ROOT);
+                if (CREDENTIAL_PARAMETERS.contains(name) || name.endsWith("key") || name.endsWith("token") || name.endsWith("secret")) {
+                    logger.debug("Not caching {} since it looks like it has credentials", uri.getHost());
+                    return false;
+                }
+            }
+            return true;
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks that the response can be revalidated, and that the server allows storing it:
+     * it should not be marked "no-store", and it should not vary on request headers that we do not control.
+     */
+    static boolean isStorable(HttpHeaders headers) {
+        if (headers.firstValue("ETag").isEmpty() && headers.firstValue("Last-Modified").isEmpty()) return false;
+
+        for (String cacheControl : headers.allValues("Cache-Control")) {
+            for (String directive : cacheControl.split(",")) {
+                if (directive.trim().toLowerCase(Locale.ROOT).startsWith("no-store")) return false;
+            }
+        }
+
+        for (String vary : headers.allValues("Vary")) {
+            for (String header : vary.split(",")) {
+                if (!FIXED_REQUEST_HEADERS.contains(header.trim().toLowerCase(Locale.ROOT))) return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the cached response for the given URL.
+     *
+     * @return The cache entry, or null if there is none (or if it could not be read)
+     */
+    static Entry get(String url) {
+        Path file = getPath(url);
+        if (!Files.exists(file)) return null;
+
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(file))) {
+            JSONObject o = readHeader(is);
+            if (!url.equals(o.getString("url"))) return null;
+            return new Entry(file, o.optString("etag", null), o.optString("lastModified", null));
+        } catch (Exception e) {
+            logger.warn("Could not read HTTP cache entry for {}", url, e);
+            return null;
+        }
+    }
+
+    /**
+     * Wraps the body of a response, so that it is written to the cache as it is read.
+     * The entry is only saved if the body is read until the end, and if it has the expected size.
+     *
+     * @param expectedSize The size of the decoded body, or -1 if it is unknown
+     */
+    static InputStream cacheWhileReading(String url, InputStream body, long expectedSize, String etag, String lastModified) {
+        Path tempFile = null;
+        try {
+            Files.createDirectories(cacheFolder);
+            tempFile = Files.createTempFile(cacheFolder, "download-", ".tmp");
+            return new CachingInputStream(url, body, tempFile, expectedSize, etag, lastModified);
+        } catch (IOException e) {
+            logger.warn("Could not create HTTP cache file for {}", url, e);
+            try {
+                if (tempFile != null) Files.deleteIfExists(tempFile);
+            } catch (IOException e2) {
+                logger.warn("Could not delete temporary HTTP cache file {}", tempFile, e2);
+            }
+            return body;
+        }
+    }
+
+    private static Path getPath(String url) {
+        return cacheFolder.resolve(DigestUtils.sha256Hex(url) + ".cache");
+    }
+
+    /**
+     * Reads the JSON line at the start of a cache entry, leaving the stream at the start of the body.
+     */
+    private static JSONObject readHeader(InputStream is) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        int b;
+        while ((b = is.read()) != '\n') {
+            if (b == -1) throw new IOException("Truncated HTTP cache entry");
+            header.write(b);
+        }
+        return new JSONObject(header.toString(StandardCharsets.UTF_8));
+    }
+
+    private static class CachingInputStream extends FilterInputStream {
+        private final String url;
+        private final Path tempFile;
+        private final long expectedSize;
+
+        private OutputStream copy;
+        private long size = 0;
+
+        private CachingInputStream(String url, InputStream body, Path tempFile, long expectedSize, String etag, String lastModified) throws IOException {
+            super(body);
+            this.url = url;
+            this.tempFile = tempFile;
+            this.expectedSize = expectedSize;
+            this.copy = Files.newOutputStream(tempFile);
+
+            JSONObject header = new JSONObject();
+            header.put("url", url);
+            header.put("etag", etag);
+            header.put("lastModified", lastModified);
+
+            // JSONObject.toString() escapes line breaks, so the header stays on a single line
+            try {
+                copy.write(header.toString().getBytes(StandardCharsets.UTF_8));
+                copy.write('\n');
+            } catch (IOException e) {
+                copy.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                commit();
+            } else {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read == -1) {
+                commit();
+            } else {
+                write(b, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes would be missing from the cached copy
+            abandon();
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            abandon();
+            super.close();
+        }
+
+        private void write(byte[] b, int off, int len) {
+            if (copy == null) return;
+
+            size += len;
+            if (size > MAX_CACHED_RESPONSE_SIZE) {
+                abandon();
+                return;
+            }
+
+            try {
+                copy.write(b, off, len);
+            } catch (IOException e) {
+                logger.warn("Could not write to HTTP cache for {}", url, e);
+                abandon();
+            }
+        }
+
+        private void commit() {
+            if (copy == null) return;
+
+            if (expectedSize != -1 && size != expectedSize) {
+                logger.warn("Got {} bytes from {} instead of {}, not caching it", size, url, expectedSize);
+                abandon();
+                return;
+            }
+
+            try {
+                copy.close();
+                copy = null;
+
+                Files.move(tempFile, getPath(url), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                logger.debug("Saved {} bytes to HTTP cache for {}", size, url);
+            } catch (IOException e) {
+                logger.warn("Could not save HTTP cache entry for {}", url, e);
+                abandon();
+            }
+        }
+
+        private void abandon() {
+            try {
+                if (copy != null) {
+                    copy.close();
+                    copy = null;
+                }
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                logger.warn("Could not delete temporary HTTP cache file {}", tempFile, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package ovh.maddie480.randomstuff.backend.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the body of an HttpClient response, failing with a {@link SocketTimeoutException} if no data comes in
+ * for too long, like HttpURLConnection does with its read timeout.
+ * The timeout of HttpRequest only covers the wait for the response headers, so a server that stops sending
+ * in the middle of the body would otherwise block the reader forever.
+ */
+final class ReadTimeoutInputStream extends InputStream implements Flow.Subscriber<List<ByteBuffer>> {
+    private static final Object COMPLETE = new Object();
+
+    private final long readTimeoutMillis;
+
+    // what the HTTP client sent us: lists of buffers, COMPLETE, or a Throwable
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+    private final Deque<ByteBuffer> buffers = new ArrayDeque<>();
+
+    private volatile Flow.Subscription subscription;
+    private volatile boolean closed = false;
+    private boolean finished = false;
+
+    private ReadTimeoutInputStream(long readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    static ReadTimeoutInputStream of(Flow.Publisher<List<ByteBuffer>> body, long readTimeoutMillis) {
+        ReadTimeoutInputStream stream = new ReadTimeoutInputStream(readTimeoutMillis);
+        body.subscribe(stream);
+        return stream;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (closed) {
+            subscription.cancel();
+        } else {
+            subscription.request(1);
+        }
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> item) {
+        received.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        received.add(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        received.add(COMPLETE);
+    }
+
+    @Override
+    public int read() throws IOException {
+        ByteBuffer buffer = nextBuffer();
+        return buffer == null ? -1 : buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+
+        ByteBuffer buffer = nextBuffer();
+        if (buffer == null) return -1;
+
+        int read = Math.min(len, buffer.remaining());
+        buffer.get(b, off, read);
+        return read;
+    }
+
+    @Override
+    public int available() {
+        ByteBuffer buffer = buffers.peek();
+        return buffer == null ? 0 : buffer.remaining();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Flow.Subscription s = subscription;
+        if (s != null) s.cancel();
+    }
+
+    /**
+     * Gets the buffer to read from, waiting up to the read timeout for the server to send more data.
+     *
+     * @return A buffer with some bytes remaining, or null if the end of the body was reached
+     */
+    private ByteBuffer nextBuffer() throws IOException {
+        while (true) {
+            if (closed) throw new IOException("Stream closed");
+
+            while (!buffers.isEmpty()) {
+                if (buffers.peek().hasRemaining()) return buffers.peek();
+                buffers.poll();
+            }
+
+            if (finished) return null;
+
+            Object item;
+            try {
+                item = received.poll(readTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the response body");
+            }
+
+            if (item == null) {
+                close();
+                throw new SocketTimeoutException("Read timed out");
+            } else if (item == COMPLETE) {
+                finished = true;
+            } else if (item instanceof Throwable t) {
+                finished = true;
+                throw t instanceof IOException e ? e : new IOException(t);
+            } else {
+                @SuppressWarnings("unchecked")
+                List<ByteBuffer> list = (List<ByteBuffer>) item;
+                buffers.addAll(list);
+                subscription.request(1);
+            }
+        }
+    }
+}
@@ -1,21 +1,37 @@
 package ovh.maddie480.randomstuff.backend.utils;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class WebhookExecutor {
@@ -24,27 +40,35 @@ public class WebhookExecutor {
 
     private static final Logger log = LoggerFactory.getLogger(WebhookExecutor.class);
 
-    private static ZonedDateTime retryAfter = null;
-
     /**
      * Calls a Discord webhook without enabling mentions.
      */
     public static void executeWebhook(String webhookUrl, String avatar, String nickname, String body) throws IOException {
-        executeWebhook(webhookUrl, avatar, nickname, body, Collections.emptyMap(), false, null, Collections.emptyList(), null);
+        executeWebhook(webhookUrl, avatar, nickname, body, Collections.emptyMap(), false, null, Collections.emptyList(), null, false);
     }
 
     /**
      * Calls a Discord webhook without enabling mentions, with embeds.
      */
     public static void executeWebhook(String webhookUrl, String avatar, String nickname, String body, List<Map<String, Object>> embeds) throws IOException {
-        executeWebhook(webhookUrl, avatar, nickname, body, Collections.emptyMap(), false, null, Collections.emptyList(), embeds);
+        executeWebhook(webhookUrl, avatar, nickname, body, Collections.emptyMap(), false, null, Collections.emptyList(), embeds, false);
     }
 
     /**
      * Calls a Discord webhook without enabling mentions, with embeds and attachments.
      */
     public static void executeWebhook(String webhookUrl, String avatar, String nickname, String body, List<File> attachments, List<Map<String, Object>> embeds) throws IOException {
-        executeWebhook(webhookUrl, avatar, nickname, body, Collections.emptyMap(), false, null, attachments, embeds);
+        executeWebhook(webhookUrl, avatar, nickname, body, Collections.emptyMap(), false, null, attachments, embeds, false);
+    }
+
+    /**
+     * Calls a Discord webhook without enabling mentions, with attachments, and gives back the message that was posted.
+     * This allows reusing the URLs Discord gave to the attachments instead of uploading them again.
+     *
+     * @return The message object Discord returned
+     */
+    public static JSONObject executeWebhookAndGetMessage(String webhookUrl, String avatar, String nickname, String body, List<File> attachments) throws IOException {
+        return executeWebhook(webhookUrl, avatar, nickname, body, Collections.emptyMap(), false, null, attachments, null, true);
     }
 
     /**
@@ -52,7 +76,7 @@ public class WebhookExecutor {
      */
     public static void executeWebhook(String webhookUrl, String avatar, String nickname, String body, Map<String, String> httpHeaders)
             throws IOException {
-        executeWebhook(webhookUrl, avatar, nickname, body, httpHeaders, false, null, Collections.emptyList(), null);
+        executeWebhook(webhookUrl, avatar, nickname, body, httpHeaders, false, null, Collections.emptyList(), null, false);
     }
 
     /**
@@ -60,7 +84,7 @@ public class WebhookExecutor {
      */
     public static void executeWebhook(String webhookUrl, String avatar, String nickname, String body, long allowedUserMentionId)
             throws IOException {
-        executeWebhook(webhookUrl, avatar, nickname, body, Collections.emptyMap(), false, allowedUserMentionId, Collections.emptyList(), null);
+        executeWebhook(webhookUrl, avatar, nickname, body, Collections.emptyMap(), false, allowedUserMentionId, Collections.emptyList(), null, false);
     }
 
     /**
@@ -68,69 +92,351 @@ public class WebhookExecutor {
      */
     public static void executeWebhook(String webhookUrl, String avatar, String nickname, String body, boolean allowUserMentions, List<File> attachments)
             throws IOException {
-        executeWebhook(webhookUrl, avatar, nickname, body, Collections.emptyMap(), allowUserMentions, null, attachments, null);
+        executeWebhook(webhookUrl, avatar, nickname, body, Collections.emptyMap(), allowUserMentions, null, attachments, null, false);
+    }
+
+    /**
+     * Queues up a message to a Discord webhook without enabling mentions, without waiting for it to be sent.
+     * Consecutive messages to the same webhook may be merged together.
+     *
+     * @return A future that completes once the message is sent, or completes exceptionally if sending it failed
+     */
+    public static CompletableFuture<Void> executeWebhookAsync(String webhookUrl, String avatar, String nickname, String body) {
+        return enqueue(new PendingMessage(webhookUrl, avatar, nickname, body, Collections.emptyMap(), false, null, Collections.emptyList(), null))
+                .thenAccept(sentMessage -> {});
+    }
+
+    /**
+     * Queues up a message to a Discord webhook without enabling mentions, with specific HTTP headers, without waiting for it to be sent.
+     * Consecutive messages to the same webhook may be merged together.
+     *
+     * @return A future that completes once the message is sent, or completes exceptionally if sending it failed
+     */
+    public static CompletableFuture<Void> executeWebhookAsync(String webhookUrl, String avatar, String nickname, String body, Map<String, String> httpHeaders) {
+        return enqueue(new PendingMessage(webhookUrl, avatar, nickname, body, httpHeaders, false, null, Collections.emptyList(), null))
+                .thenAccept(sentMessage -> {});
+    }
+
+    /**
+     * Queues up a message to a Discord webhook, allowing it to ping someone in particular, without waiting for it to be sent.
+     * Consecutive messages to the same webhook may be merged together.
+     *
+     * @return A future that completes once the message is sent, or completes exceptionally if sending it failed
+     */
+    public static CompletableFuture<Void> executeWebhookAsync(String webhookUrl, String avatar, String nickname, String body, long allowedUserMentionId) {
+        return enqueue(new PendingMessage(webhookUrl, avatar, nickname, body, Collections.emptyMap(), false, allowedUserMentionId, Collections.emptyList(), null))
+                .thenAccept(sentMessage -> {});
+    }
+
+    /**
+     * Waits until all messages that were queued up so far are sent (or failed to send).
+     * This should be called before exiting, to avoid losing messages.
+     */
+    public static void awaitPendingMessages() {
+        List<CompletableFuture<JSONObject>> pending = new ArrayList<>();
+        for (WebhookQueue queue : queues.values()) {
+            synchronized (queue) {
+                queue.messages.forEach(message -> pending.add(message.result()));
+                pending.addAll(queue.inFlight);
+            }
+        }
+
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            log.warn("Some webhook messages could not be sent", e);
+        }
+    }
+
+    private static JSONObject executeWebhook(String webhookUrl, String avatar, String nickname, String body,
+                                             Map<String, String> httpHeaders, boolean allowUserMentions, Long allowedUserMentionId,
+                                             List<File> attachments, List<Map<String, Object>> embeds, boolean needsSentMessage) throws IOException {
+
+        CompletableFuture<JSONObject> result = enqueue(new PendingMessage(webhookUrl, avatar, nickname, body, httpHeaders,
+                allowUserMentions, allowedUserMentionId, attachments, embeds, needsSentMessage));
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnknownWebhookException unknownWebhook) throw unknownWebhook;
+            if (e.getCause() instanceof IOException ioException) throw ioException;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * A message waiting to be sent. Merging messages only happens through {@link #canBeMergedWith(PendingMessage)}
+     * and {@link #mergeWith(PendingMessage)}, all other fields are passed as is to Discord.
+     * The message Discord sends back is only parsed if needsSentMessage is set, otherwise the result is completed with null.
+     */
+    private record PendingMessage(String webhookUrl, String avatar, String nickname, String body,
+                                  Map<String, String> httpHeaders, boolean allowUserMentions, Long allowedUserMentionId,
+                                  List<File> attachments, List<Map<String, Object>> embeds, boolean needsSentMessage,
+                                  CompletableFuture<JSONObject> result, List<CompletableFuture<JSONObject>> mergedResults) {
+
+        PendingMessage(String webhookUrl, String avatar, String nickname, String body,
+                       Map<String, String> httpHeaders, boolean allowUserMentions, Long allowedUserMentionId,
+                       List<File> attachments, List<Map<String, Object>> embeds) {
+
+            this(webhookUrl, avatar, nickname, body, httpHeaders, allowUserMentions, allowedUserMentionId, attachments, embeds, false);
+        }
+
+        PendingMessage(String webhookUrl, String avatar, String nickname, String body,
+                       Map<String, String> httpHeaders, boolean allowUserMentions, Long allowedUserMentionId,
+                       List<File> attachments, List<Map<String, Object>> embeds, boolean needsSentMessage) {
+
+            this(webhookUrl, avatar, nickname, body, httpHeaders, allowUserMentions, allowedUserMentionId, attachments, embeds,
+                    needsSentMessage, new CompletableFuture<>(), Collections.emptyList());
+        }
+
+        private int embedCount() {
+            return embeds == null ? 0 : embeds.size();
+        }
+
+        private boolean canBeMergedWith(PendingMessage other) {
+            return attachments.isEmpty() && other.attachments.isEmpty() && !needsSentMessage && !other.needsSentMessage
+                    && Objects.equals(avatar, other.avatar) && Objects.equals(nickname, other.nickname)
+                    && httpHeaders.equals(other.httpHeaders) && allowUserMentions == other.allowUserMentions
+                    && Objects.equals(allowedUserMentionId, other.allowedUserMentionId)
+                    && (body == null ? 0 : body.length()) + 1 + (other.body == null ? 0 : other.body.length()) <= MAX_MESSAGE_LENGTH
+                    && embedCount() + other.embedCount() <= MAX_EMBEDS_PER_MESSAGE;
+        }
+
+        private PendingMessage mergeWith(PendingMessage other) {
+            String mergedBody = body == null ? other.body : (other.body == null ? body : body + "\n" + other.body);
+
+            List<Map<String, Object>> mergedEmbeds = null;
+            if (embeds != null || other.embeds != null) {
+                mergedEmbeds = new ArrayList<>();
+                if (embeds != null) mergedEmbeds.addAll(embeds);
+                if (other.embeds != null) mergedEmbeds.addAll(other.embeds);
+            }
+
+            List<CompletableFuture<JSONObject>> mergedResults = new ArrayList<>(this.mergedResults);
+            mergedResults.add(other.result);
+            mergedResults.addAll(other.mergedResults);
+
+            return new PendingMessage(webhookUrl, avatar, nickname, mergedBody, httpHeaders, allowUserMentions, allowedUserMentionId,
+                    attachments, mergedEmbeds, false, result, mergedResults);
+        }
+
+        private void complete(Throwable error, JSONObject sentMessage) {
+            List<CompletableFuture<JSONObject>> all = new ArrayList<>(mergedResults);
+            all.add(result);
+
+            for (CompletableFuture<JSONObject> future : all) {
+                if (error == null) {
+                    future.complete(sentMessage);
+                } else {
+                    future.completeExceptionally(error);
+                }
+            }
+        }
+    }
+
+    /**
+     * The messages waiting to be sent to a webhook, and its rate limit.
+     * Each webhook has its own rate limit on Discord's side, so a rate limit on one webhook does not delay the others.
+     */
+    private static class WebhookQueue {
+        private final Deque<PendingMessage> messages = new ArrayDeque<>();
+        private final List<CompletableFuture<JSONObject>> inFlight = new ArrayList<>();
+        private boolean draining = false;
+
+        // only accessed by the thread that is draining the queue
+        private ZonedDateTime retryAfter = null;
     }
 
-    private static void executeWebhook(String webhookUrl, String avatar, String nickname, String body,
-                                       Map<String, String> httpHeaders, boolean allowUserMentions, Long allowedUserMentionId,
-                                       List<File> attachments, List<Map<String, Object>> embeds) throws IOException {
+    private static final int MAX_MESSAGE_LENGTH = 2000;
+    private static final int MAX_EMBEDS_PER_MESSAGE = 10;
+
+    // callers wait for room in the queue if there are more messages than that waiting to be sent
+    private static final Semaphore queueCapacity = new Semaphore(500);
+
+    private static final Map<String, WebhookQueue> queues = new ConcurrentHashMap<>();
+    private static final ExecutorService deliveryThreads = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 5, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), runnable -> new Thread(runnable, "Webhook Delivery"));
+
+    private static CompletableFuture<JSONObject> enqueue(PendingMessage message) {
+        try {
+            queueCapacity.acquire();
+        } catch (InterruptedException e) {
+            return CompletableFuture.failedFuture(new IOException(e));
+        }
+
+        WebhookQueue queue = queues.computeIfAbsent(message.webhookUrl(), url -> new WebhookQueue());
+        synchronized (queue) {
+            queue.messages.add(message);
+
+            if (!queue.draining) {
+                queue.draining = true;
+                deliveryThreads.submit(() -> drain(queue));
+            }
+        }
+
+        return message.result();
+    }
 
-        ConnectionUtils.runWithRetry(() -> {
+    /**
+     * Sends all messages in the queue of a webhook, merging consecutive messages whenever possible.
+     */
+    private static void drain(WebhookQueue queue) {
+        while (true) {
+            PendingMessage message;
+            int mergedCount = 1;
+
+            synchronized (queue) {
+                message = queue.messages.poll();
+                if (message == null) {
+                    queue.draining = false;
+                    return;
+                }
+
+                while (!queue.messages.isEmpty() && message.canBeMergedWith(queue.messages.peek())) {
+                    message = message.mergeWith(queue.messages.poll());
+                    mergedCount++;
+                }
+
+                queue.inFlight.add(message.result());
+                queue.inFlight.addAll(message.mergedResults());
+            }
+
+            if (mergedCount > 1) {
+                log.debug("Merged {} messages to webhook together", mergedCount);
+            }
+
+            Throwable error = null;
+            JSONObject sentMessage = null;
             try {
-                executeWebhookInternal(webhookUrl, avatar, nickname, body, httpHeaders, allowUserMentions, allowedUserMentionId, attachments, embeds);
-            } catch (InterruptedException e) {
-                // this should never happen, so whatever. :p
-                throw new IOException(e);
+                PendingMessage toSend = message;
+                HttpURLConnection connection = ConnectionUtils.runWithRetry(() -> executeWebhookInternal(queue, toSend));
+
+                // this is done once the message is sent for good, so that failing to read the response doesn't send the message again
+                if (message.needsSentMessage()) {
+                    sentMessage = readSentMessage(connection);
+                }
+            } catch (Exception e) {
+                error = e;
             }
 
-            return null; // we have to satisfy the signature
-        });
+            synchronized (queue) {
+                queue.inFlight.clear();
+            }
+            queueCapacity.release(mergedCount);
+            message.complete(error, sentMessage);
+        }
     }
 
-    private static void executeWebhookInternal(String webhookUrl, String avatar, String nickname, String body,
-                                               Map<String, String> httpHeaders, boolean allowUserMentions, Long allowedUserMentionId,
-                                               List<File> attachments, List<Map<String, Object>> embeds) throws IOException, InterruptedException {
+    /**
+     * @return The connection the message was successfully sent with
+     */
+    private static HttpURLConnection executeWebhookInternal(WebhookQueue queue, PendingMessage message) throws IOException {
+        while (true) {
+            // wait if we know the webhook is rate limited
+            if (queue.retryAfter != null) {
+                long waitFor = ZonedDateTime.now().until(queue.retryAfter, ChronoUnit.MILLIS);
+                if (waitFor > 0) {
+                    log.warn("Waiting {} ms before request because of rate limits.", waitFor);
+                    try {
+                        Thread.sleep(waitFor);
+                    } catch (InterruptedException e) {
+                        // this should never happen, so whatever. :p
+                        throw new IOException(e);
+                    }
+                }
+            }
+            queue.retryAfter = null;
 
-        // primitive handling for rate limits.
-        if (retryAfter != null) {
-            long waitFor = ZonedDateTime.now().until(retryAfter, ChronoUnit.MILLIS);
-            if (waitFor > 0) {
-                log.warn("Waiting {} ms before request because of rate limits.", waitFor);
-                Thread.sleep(waitFor);
+            HttpURLConnection connection = sendRequest(message);
+
+            if (connection.getResponseCode() == 429) {
+                // we hit an unexpected rate limit => we should wait for the time indicated in Retry-After, then retry.
+                // (Discord docs claim those are seconds, but those actually seem to be milliseconds. /shrug)
+                queue.retryAfter = ZonedDateTime.now().plus(Integer.parseInt(connection.getHeaderField("Retry-After")), ChronoUnit.MILLIS);
+                log.warn("We hit a rate limit we did not anticipate! We will wait until {} before next request.", queue.retryAfter);
+                continue;
+            }
+
+            if (connection.getResponseCode() == 204 || connection.getResponseCode() == 200) {
+                // the message came through
+                log.debug("Message sent!");
+
+            } else if (connection.getResponseCode() == 404) {
+                // webhook is gone!
+                throw new UnknownWebhookException();
+
+            } else {
+                // we hit some other error => we should crash
+                throw new IOException("Non-200/204 return code: " + connection.getResponseCode());
+            }
+
+            // make sure to remember if we hit rate limit.
+            if ("0".equals(connection.getHeaderField("X-RateLimit-Remaining"))) {
+                try {
+                    long resetAfterMillis = (long) (Double.parseDouble(connection.getHeaderField("X-RateLimit-Reset-After")) * 1000);
+                    queue.retryAfter = ZonedDateTime.now().plus(resetAfterMillis + 1000, ChronoUnit.MILLIS);
+                    log.warn("We are going to hit rate limit! We will wait until {} before next request.", queue.retryAfter);
+                } catch (Exception e) {
+                    queue.retryAfter = ZonedDateTime.now().plusSeconds(15);
+                    log.warn("We are going to hit rate limit! We will wait until {} before next request. (parsing X-RateLimit-Reset-After failed)", queue.retryAfter);
+                }
+            }
+
+            return connection;
+        }
+    }
+
+    /**
+     * Reads the message Discord sent back after posting it.
+     *
+     * @return The message, or null if Discord did not send it back or if it could not be read
+     */
+    private static JSONObject readSentMessage(HttpURLConnection connection) {
+        try {
+            if (connection.getResponseCode() != 200) return null;
+
+            try (InputStream is = ConnectionUtils.connectionToInputStream(connection)) {
+                return new JSONObject(new JSONTokener(is));
             }
+        } catch (IOException | JSONException e) {
+            log.warn("Message was sent, but the response from Discord could not be read", e);
+            return null;
         }
-        retryAfter = null;
+    }
 
+    private static HttpURLConnection sendRequest(PendingMessage message) throws IOException {
         // start by setting avatar, username and content.
         JSONObject request = new JSONObject();
-        request.put("avatar_url", avatar);
-        request.put("username", nickname);
-        request.put("content", body);
+        request.put("avatar_url", message.avatar());
+        request.put("username", message.nickname());
+        request.put("content", message.body());
 
         // allow or block mentions (pinging users, or pinging a user in particular)
         JSONObject allowedMentions = new JSONObject();
         JSONArray allowedMentionsParse = new JSONArray();
-        if (allowUserMentions) {
+        if (message.allowUserMentions()) {
             allowedMentionsParse.put("users");
         }
         allowedMentions.put("parse", allowedMentionsParse);
-        if (allowedUserMentionId != null) {
+        if (message.allowedUserMentionId() != null) {
             JSONArray users = new JSONArray();
-            users.put(allowedUserMentionId.toString());
+            users.put(message.allowedUserMentionId().toString());
             allowedMentions.put("users", users);
         }
         request.put("allowed_mentions", allowedMentions);
 
-        if (embeds != null) {
-            request.put("embeds", embeds);
+        if (message.embeds() != null) {
+            request.put("embeds", message.embeds());
         }
 
         HttpURLConnection connection;
 
         // concatenate the "wait=true" query param
-        webhookUrl += (webhookUrl.contains("?") ? "&" : "?") + "wait=true";
+        String webhookUrl = message.webhookUrl() + (message.webhookUrl().contains("?") ? "&" : "?") + "wait=true";
 
-        if (attachments.isEmpty()) {
+        if (message.attachments().isEmpty()) {
             // webhook with no attachment: pure JSON
             log.debug("Sending request to [{}]: {}", webhookUrl, request);
 
@@ -142,7 +448,7 @@ public class WebhookExecutor {
             connection.setRequestMethod("POST");
             connection.setRequestProperty("Content-Type", "application/json");
 
-            for (Map.Entry<String, String> header : httpHeaders.entrySet()) {
+            for (Map.Entry<String, String> header : message.httpHeaders().entrySet()) {
                 connection.setRequestProperty(header.getKey(), header.getValue());
             }
 
@@ -154,50 +460,20 @@ public class WebhookExecutor {
         } else {
             // multipart request to send the JSON, and attachments
             log.debug("Sending request to [{}]: {} with attachments [\"{}\"]", webhookUrl, request,
-                    attachments.stream().map(File::getAbsolutePath).collect(Collectors.joining("\", \"")));
+                    message.attachments().stream().map(File::getAbsolutePath).collect(Collectors.joining("\", \"")));
 
             HashMap<String, String> headers = new HashMap<>();
-            headers.putAll(httpHeaders);
+            headers.putAll(message.httpHeaders());
             HttpPostMultipart multipart = new HttpPostMultipart(webhookUrl, "UTF-8", headers);
 
             multipart.addFormField("payload_json", request.toString());
             int index = 0;
-            for (File f : attachments) {
+            for (File f : message.attachments()) {
                 multipart.addFilePart("file_" + (index++), f);
             }
             connection = multipart.finish();
         }
 
-        if (connection.getResponseCode() == 204 || connection.getResponseCode() == 200) {
-            // the message came through
-            log.debug("Message sent!");
-
-        } else if (connection.getResponseCode() == 429) {
-            // we hit an unexpected rate limit => we should wait for the time indicated in Retry-After, then retry.
-            // (Discord docs claim those are seconds, but those actually seem to be milliseconds. /shrug)
-            retryAfter = ZonedDateTime.now().plus(Integer.parseInt(connection.getHeaderField("Retry-After")), ChronoUnit.MILLIS);
-            log.warn("We hit a rate limit we did not anticipate! We will wait until {} before next request.", retryAfter);
-            executeWebhookInternal(webhookUrl, avatar, nickname, body, httpHeaders, allowUserMentions, allowedUserMentionId, attachments, embeds);
-            return;
-
-        } else if (connection.getResponseCode() == 404) {
-            // webhook is gone!
-            throw new UnknownWebhookException();
-
-        } else {
-            // we hit some other error => we should crash
-            throw new IOException("Non-200/204 return code: " + connection.getResponseCode());
-        }
-
-        // make sure to remember if we hit rate limit.
-        if ("0".equals(connection.getHeaderField("X-RateLimit-Remaining"))) {
-            try {
-                retryAfter = ZonedDateTime.now().plusSeconds(Integer.parseInt(connection.getHeaderField("X-RateLimit-Reset-After")) + 1);
-                log.warn("We are going to hit rate limit! We will wait until {} before next request.", retryAfter);
-            } catch (Exception e) {
-                retryAfter = ZonedDateTime.now().plusSeconds(15);
-                log.warn("We are going to hit rate limit! We will wait until {} before next request. (parsing X-RateLimit-Reset-After failed)", retryAfter);
-            }
-        }
+        return connection;
     }
 }
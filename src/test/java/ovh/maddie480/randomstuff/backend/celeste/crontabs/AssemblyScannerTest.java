@@ -0,0 +1,118 @@
+package ovh.maddie480.randomstuff.backend.celeste.crontabs;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class AssemblyScannerTest {
+    private static final int SWITCH = 0x45;
+    private static final int NOP = 0x00;
+    private static final int RET = 0x2A;
+
+    // where the only method body of the test assemblies starts
+    private static final int METHOD_BODY = 0x300;
+
+    @Test
+    void scansValidSwitch() throws Exception {
+        // switch with a single target, then ret
+        byte[] dll = assemblyWithTinyMethod(code(SWITCH, 1, 0, 0, 0, 0, 0, 0, 0, RET));
+        assertEquals(new AssemblyScanner.Verdict(false, false), AssemblyScanner.scan(dll));
+    }
+
+    @Test
+    void rejectsSwitchWithNegativeCount() {
+        // a count of -2 would make the scanner jump back to the start of the method body and loop forever
+        byte[] dll = assemblyWithTinyMethod(code(NOP, NOP, NOP, SWITCH, 0xFE, 0xFF, 0xFF, 0xFF));
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () ->
+                assertThrows(AssemblyScanner.InvalidAssemblyException.class, () -> AssemblyScanner.scan(dll)));
+    }
+
+    @Test
+    void rejectsSwitchWithCountPastEndOfBody() {
+        // 0x40000000 targets would overflow the operand size back to 4
+        byte[] dll = assemblyWithTinyMethod(code(SWITCH, 0x00, 0x00, 0x00, 0x40, RET));
+        assertThrows(AssemblyScanner.InvalidAssemblyException.class, () -> AssemblyScanner.scan(dll));
+    }
+
+    @Test
+    void rejectsFatHeaderWithCodeSizePastEndOfFile() {
+        byte[] dll = emptyAssembly();
+        ByteBuffer buffer = ByteBuffer.wrap(dll).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort(METHOD_BODY, (short) 0x3003); // fat header, 3 dwords long
+        buffer.putShort(METHOD_BODY + 2, (short) 8); // max stack
+        buffer.putInt(METHOD_BODY + 4, 0x7FFFFFF0); // code size, which makes the end of the body overflow
+        assertThrows(AssemblyScanner.InvalidAssemblyException.class, () -> AssemblyScanner.scan(dll));
+    }
+
+    private static byte[] code(int... bytes) {
+        byte[] code = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) code[i] = (byte) bytes[i];
+        return code;
+    }
+
+    private static byte[] assemblyWithTinyMethod(byte[] code) {
+        byte[] dll = emptyAssembly();
+        dll[METHOD_BODY] = (byte) (code.length << 2 | 0x02);
+        System.arraycopy(code, 0, dll, METHOD_BODY + 1, code.length);
+        return dll;
+    }
+
+    /**
+     * Builds the smallest assembly the scanner accepts: a single section mapped at RVA 0, with a CLI header,
+     * a metadata root with #~ and #Strings streams, and a MethodDef table with a single method whose body is at {@link #METHOD_BODY}.
+     */
+    private static byte[] emptyAssembly() {
+        ByteBuffer dll = ByteBuffer.allocate(0x400).order(ByteOrder.LITTLE_ENDIAN);
+
+        // DOS header, PE signature and COFF header with a single section and a PE32 optional header
+        dll.putShort(0, (short) 0x5A4D);
+        dll.putInt(0x3C, 0x40);
+        dll.putInt(0x40, 0x00004550);
+        int coffHeader = 0x44;
+        dll.putShort(coffHeader + 2, (short) 1);
+        dll.putShort(coffHeader + 16, (short) 0xE0);
+        int optionalHeader = coffHeader + 20;
+        dll.putShort(optionalHeader, (short) 0x10B);
+        dll.putInt(optionalHeader + 96 + 14 * 8, 0x200); // CLI header
+
+        int section = optionalHeader + 0xE0;
+        dll.putInt(section + 8, 0x400);
+        dll.putInt(section + 12, 0);
+        dll.putInt(section + 16, 0x400);
+        dll.putInt(section + 20, 0);
+
+        // CLI header, pointing to the metadata root
+        dll.putInt(0x200 + 8, 0x240);
+
+        // metadata root, with version "v4" and 2 streams
+        int metadataRoot = 0x240;
+        dll.putInt(metadataRoot, 0x424A5342);
+        dll.putInt(metadataRoot + 12, 4);
+        dll.put(metadataRoot + 16, "v4".getBytes(StandardCharsets.US_ASCII));
+        dll.putShort(metadataRoot + 22, (short) 2);
+
+        dll.putInt(metadataRoot + 24, 0x40); // #~ at 0x280
+        dll.put(metadataRoot + 32, "#~".getBytes(StandardCharsets.US_ASCII));
+        dll.putInt(metadataRoot + 36, 0x38); // #Strings at 0x278, which only has the empty string
+        dll.put(metadataRoot + 44, "#Strings".getBytes(StandardCharsets.US_ASCII));
+
+        // tables stream with a single MethodDef row, whose body is at METHOD_BODY
+        int tablesStream = 0x280;
+        dll.putLong(tablesStream + 8, 1L << 0x06);
+        dll.putInt(tablesStream + 24, 1);
+        dll.putInt(tablesStream + 28, METHOD_BODY);
+
+        // tiny method body with only a ret
+        dll.put(METHOD_BODY, (byte) (1 << 2 | 0x02));
+        dll.put(METHOD_BODY + 1, (byte) RET);
+
+        return dll.array();
+    }
+}
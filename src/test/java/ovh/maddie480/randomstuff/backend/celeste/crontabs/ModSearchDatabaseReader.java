@@ -0,0 +1,176 @@
+package ovh.maddie480.randomstuff.backend.celeste.crontabs;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the mod search database written by {@link ModSearchDatabaseWriter}, following the format described there.
+ * Tokens and categories are looked up by binary search, like the frontend does on the memory-mapped file.
+ */
+final class ModSearchDatabaseReader {
+    record Mod(String type, int id, int likes, int views, int downloads, int categoryId, int subcategoryId,
+               int createdDate, String name, JSONObject fullInfo) {
+    }
+
+    enum SortOrder {LIKES, VIEWS, DOWNLOADS, CREATED_DATE}
+
+    private static final int MOD_SIZE = 10 * 4;
+    private static final int TOKEN_SIZE = 3 * 4;
+    private static final int CATEGORY_SIZE = 4 * 4;
+
+    private final ByteBuffer file;
+
+    private final int modCount;
+    private final int stringCount;
+    private final int tokenCount;
+    private final int categoryCount;
+
+    private final int stringOffset;
+    private final int modOffset;
+    private final int tokenOffset;
+    private final int sortOffset;
+    private final int categoryOffset;
+    private final int postingOffset;
+
+    ModSearchDatabaseReader(Path path) throws IOException {
+        this(ByteBuffer.wrap(Files.readAllBytes(path)));
+    }
+
+    ModSearchDatabaseReader(ByteBuffer file) throws IOException {
+        this.file = file;
+
+        if (file.getInt(0) != ModSearchDatabaseWriter.MAGIC) {
+            throw new IOException("Not a mod search database");
+        }
+        if (file.getInt(4) != ModSearchDatabaseWriter.FORMAT_VERSION) {
+            throw new IOException("Unsupported mod search database version " + file.getInt(4));
+        }
+
+        modCount = file.getInt(8);
+        stringCount = file.getInt(12);
+        tokenCount = file.getInt(16);
+        categoryCount = file.getInt(20);
+
+        stringOffset = file.getInt(24);
+        modOffset = file.getInt(28);
+        tokenOffset = file.getInt(32);
+        sortOffset = file.getInt(36);
+        categoryOffset = file.getInt(40);
+        postingOffset = file.getInt(44);
+    }
+
+    int getModCount() {
+        return modCount;
+    }
+
+    int getTokenCount() {
+        return tokenCount;
+    }
+
+    int getCategoryCount() {
+        return categoryCount;
+    }
+
+    Mod getMod(int ordinal) {
+        int offset = modOffset + ordinal * MOD_SIZE;
+        return new Mod(
+                getString(file.getInt(offset)),
+                file.getInt(offset + 4),
+                file.getInt(offset + 8),
+                file.getInt(offset + 12),
+                file.getInt(offset + 16),
+                file.getInt(offset + 20),
+                file.getInt(offset + 24),
+                file.getInt(offset + 28),
+                getString(file.getInt(offset + 32)),
+                new JSONObject(getString(file.getInt(offset + 36)))
+        );
+    }
+
+    /**
+     * @return The ordinals of the mods having the given token in their names, or an empty array if there are none
+     */
+    int[] getModsWithToken(String token) {
+        int low = 0;
+        int high = tokenCount - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = tokenOffset + middle * TOKEN_SIZE;
+            int comparison = getString(file.getInt(offset)).compareTo(token);
+
+            if (comparison < 0) low = middle + 1;
+            else if (comparison > 0) high = middle - 1;
+            else return getPostings(file.getInt(offset + 4), file.getInt(offset + 8));
+        }
+
+        return new int[0];
+    }
+
+    /**
+     * @return The name of the category or subcategory with the given id, or null if no mod is in it
+     */
+    String getCategoryName(int categoryId) {
+        int offset = findCategory(categoryId);
+        return offset == -1 ? null : getString(file.getInt(offset + 4));
+    }
+
+    /**
+     * @return The ordinals of the mods in the category or subcategory with the given id, or an empty array if there are none
+     */
+    int[] getModsInCategory(int categoryId) {
+        int offset = findCategory(categoryId);
+        return offset == -1 ? new int[0] : getPostings(file.getInt(offset + 8), file.getInt(offset + 12));
+    }
+
+    /**
+     * @return The ordinals of all mods, most first
+     */
+    int[] getSortedMods(SortOrder order) {
+        return readInts(sortOffset + order.ordinal() * modCount * 4, modCount);
+    }
+
+    private int findCategory(int categoryId) {
+        int low = 0;
+        int high = categoryCount - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = categoryOffset + middle * CATEGORY_SIZE;
+            int id = file.getInt(offset);
+
+            if (id < categoryId) low = middle + 1;
+            else if (id > categoryId) high = middle - 1;
+            else return offset;
+        }
+
+        return -1;
+    }
+
+    private String getString(int index) {
+        int dataOffset = stringOffset + (stringCount + 1) * 4;
+        int start = file.getInt(stringOffset + index * 4);
+        int end = file.getInt(stringOffset + (index + 1) * 4);
+
+        byte[] bytes = new byte[end - start];
+        file.get(dataOffset + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int[] getPostings(int first, int count) {
+        return readInts(postingOffset + first * 4, count);
+    }
+
+    private int[] readInts(int offset, int count) {
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = file.getInt(offset + i * 4);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,136 @@
+package ovh.maddie480.randomstuff.backend.celeste.crontabs;
+
+import org.json.JSONArray;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ModSearchDatabaseWriterTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void modsSurviveRoundTrip() throws IOException {
+        List<Map<String, Object>> mods = List.of(
+                mod("Mod", 100, "Strawberry Jam", 50, 1000, 300, 1600000000, 1, "Maps", 10, "Campaigns"),
+                mod("Tool", 200, "Jam Helper", 50, 2000, 100, 1700000000, 2, "Helpers", null, null),
+                mod("Mod", 300, "Café Skin", 5, 10, 900, 1500000000, 1, "Maps", 11, "Skins")
+        );
+
+        ModSearchDatabaseReader reader = writeAndRead(mods);
+        assertEquals(3, reader.getModCount());
+
+        ModSearchDatabaseReader.Mod strawberryJam = reader.getMod(0);
+        assertEquals("Mod", strawberryJam.type());
+        assertEquals(100, strawberryJam.id());
+        assertEquals(50, strawberryJam.likes());
+        assertEquals(1000, strawberryJam.views());
+        assertEquals(300, strawberryJam.downloads());
+        assertEquals(1, strawberryJam.categoryId());
+        assertEquals(10, strawberryJam.subcategoryId());
+        assertEquals(1600000000, strawberryJam.createdDate());
+        assertEquals("Strawberry Jam", strawberryJam.name());
+
+        ModSearchDatabaseReader.Mod jamHelper = reader.getMod(1);
+        assertEquals("Tool", jamHelper.type());
+        assertEquals(200, jamHelper.id());
+        assertEquals(2, jamHelper.categoryId());
+        assertEquals(-1, jamHelper.subcategoryId());
+        assertEquals("Jam Helper", jamHelper.name());
+
+        // non-ASCII names go through the string table as UTF-8
+        ModSearchDatabaseReader.Mod cafeSkin = reader.getMod(2);
+        assertEquals("Café Skin", cafeSkin.name());
+        assertEquals("Café Skin", cafeSkin.fullInfo().getString("Name"));
+        assertEquals(300, cafeSkin.fullInfo().getInt("GameBananaId"));
+        assertEquals("Skins", cafeSkin.fullInfo().getString("SubcategoryName"));
+
+        JSONArray tokenizedName = strawberryJam.fullInfo().getJSONArray("TokenizedName");
+        assertEquals(2, tokenizedName.length());
+        assertEquals("strawberry", tokenizedName.getString(0));
+        assertEquals("jam", tokenizedName.getString(1));
+    }
+
+    @Test
+    void searchIndexSurvivesRoundTrip() throws IOException {
+        List<Map<String, Object>> mods = List.of(
+                mod("Mod", 100, "Strawberry Jam", 50, 1000, 300, 1600000000, 1, "Maps", 10, "Campaigns"),
+                mod("Tool", 200, "Jam Helper", 50, 2000, 100, 1700000000, 2, "Helpers", null, null),
+                mod("Mod", 300, "Café Skin", 5, 10, 900, 1500000000, 1, "Maps", 11, "Skins")
+        );
+
+        ModSearchDatabaseReader reader = writeAndRead(mods);
+
+        assertEquals(5, reader.getTokenCount());
+        assertArrayEquals(new int[]{0, 1}, reader.getModsWithToken("jam"));
+        assertArrayEquals(new int[]{0}, reader.getModsWithToken("strawberry"));
+        assertArrayEquals(new int[]{1}, reader.getModsWithToken("helper"));
+        assertArrayEquals(new int[]{2}, reader.getModsWithToken("café"));
+        assertArrayEquals(new int[]{2}, reader.getModsWithToken("skin"));
+        assertArrayEquals(new int[0], reader.getModsWithToken("spring"));
+
+        assertEquals(4, reader.getCategoryCount());
+        assertEquals("Maps", reader.getCategoryName(1));
+        assertEquals("Helpers", reader.getCategoryName(2));
+        assertEquals("Campaigns", reader.getCategoryName(10));
+        assertEquals("Skins", reader.getCategoryName(11));
+        assertNull(reader.getCategoryName(3));
+        assertArrayEquals(new int[]{0, 2}, reader.getModsInCategory(1));
+        assertArrayEquals(new int[]{1}, reader.getModsInCategory(2));
+        assertArrayEquals(new int[]{0}, reader.getModsInCategory(10));
+        assertArrayEquals(new int[]{2}, reader.getModsInCategory(11));
+        assertArrayEquals(new int[0], reader.getModsInCategory(3));
+
+        // ties are broken by ordinal
+        assertArrayEquals(new int[]{0, 1, 2}, reader.getSortedMods(ModSearchDatabaseReader.SortOrder.LIKES));
+        assertArrayEquals(new int[]{1, 0, 2}, reader.getSortedMods(ModSearchDatabaseReader.SortOrder.VIEWS));
+        assertArrayEquals(new int[]{2, 0, 1}, reader.getSortedMods(ModSearchDatabaseReader.SortOrder.DOWNLOADS));
+        assertArrayEquals(new int[]{1, 0, 2}, reader.getSortedMods(ModSearchDatabaseReader.SortOrder.CREATED_DATE));
+    }
+
+    @Test
+    void emptyDatabaseSurvivesRoundTrip() throws IOException {
+        ModSearchDatabaseReader reader = writeAndRead(List.of());
+
+        assertEquals(0, reader.getModCount());
+        assertArrayEquals(new int[0], reader.getModsWithToken("jam"));
+        assertArrayEquals(new int[0], reader.getModsInCategory(1));
+        assertArrayEquals(new int[0], reader.getSortedMods(ModSearchDatabaseReader.SortOrder.LIKES));
+    }
+
+    private ModSearchDatabaseReader writeAndRead(List<Map<String, Object>> mods) throws IOException {
+        Path database = tempDir.resolve("mod-search-database.bin");
+        ModSearchDatabaseWriter.write(mods, name -> name.toLowerCase(Locale.ROOT).split(" "), database);
+        return new ModSearchDatabaseReader(database);
+    }
+
+    private static Map<String, Object> mod(String type, int id, String name, int likes, int views, int downloads, int createdDate,
+                                           int categoryId, String categoryName, Integer subcategoryId, String subcategoryName) {
+
+        Map<String, Object> mod = new HashMap<>();
+        mod.put("GameBananaType", type);
+        mod.put("GameBananaId", id);
+        mod.put("Name", name);
+        mod.put("Likes", likes);
+        mod.put("Views", views);
+        mod.put("Downloads", downloads);
+        mod.put("CreatedDate", createdDate);
+        mod.put("CategoryId", categoryId);
+        mod.put("CategoryName", categoryName);
+        if (subcategoryId != null) {
+            mod.put("SubcategoryId", subcategoryId);
+            mod.put("SubcategoryName", subcategoryName);
+        }
+        return mod;
+    }
+}
@@ -0,0 +1,90 @@
+package ovh.maddie480.randomstuff.backend.celeste.crontabs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A stand-in for the otobot mirror update endpoint, to try out {@link OtobotMirror} locally.
+ * It keeps the file lists in memory, applies deltas on top of them, and answers 409 when a delta does not follow
+ * the last update it got. It does not check signatures.
+ * Run it, then run the update with -Dotobot.mirror.endpoint=http://localhost:8080/update-webhook -Dotobot.mirror.delta=true.
+ */
+class OtobotMirrorStandInReceiver {
+    private static final Logger log = LoggerFactory.getLogger(OtobotMirrorStandInReceiver.class);
+
+    private static final Map<String, Set<String>> files = new HashMap<>();
+    private static long sequence = -1;
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length == 0 ? 8080 : Integer.parseInt(args[0]);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/update-webhook", exchange -> {
+            try (exchange) {
+                exchange.sendResponseHeaders(handle(exchange), -1);
+            }
+        });
+        server.start();
+
+        log.info("Listening on port {}", port);
+    }
+
+    private static synchronized int handle(HttpExchange exchange) throws IOException {
+        JSONObject body;
+        try (InputStream is = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding")) ?
+                new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+
+            body = new JSONObject(new JSONTokener(is));
+        }
+
+        switch (body.getString("type")) {
+            case "snapshot" -> {
+                for (String category : body.keySet()) {
+                    if (body.get(category) instanceof Iterable<?> list) {
+                        Set<String> categoryFiles = new HashSet<>();
+                        for (Object file : list) categoryFiles.add((String) file);
+                        files.put(category, categoryFiles);
+                    }
+                }
+            }
+            case "delta" -> {
+                if (body.getLong("baseSequence") != sequence) {
+                    log.warn("Got delta #{} based on #{}, but the last update was #{}", body.getLong("sequence"), body.getLong("baseSequence"), sequence);
+                    return 409;
+                }
+
+                JSONObject added = body.getJSONObject("added");
+                JSONObject removed = body.getJSONObject("removed");
+                for (String category : added.keySet()) {
+                    Set<String> categoryFiles = files.computeIfAbsent(category, k -> new HashSet<>());
+                    for (Object file : added.getJSONArray(category)) categoryFiles.add((String) file);
+                    for (Object file : removed.getJSONArray(category)) categoryFiles.remove((String) file);
+                }
+            }
+            default -> {
+                return 400;
+            }
+        }
+
+        sequence = body.getLong("sequence");
+
+        Map<String, Integer> counts = new HashMap<>();
+        files.forEach((category, categoryFiles) -> counts.put(category, categoryFiles.size()));
+        log.info("Applied {} #{}, signed with a {}-character signature: now at {}", body.getString("type"), sequence,
+                exchange.getRequestHeaders().getFirst("Authorization").length(), counts);
+        return 200;
+    }
+}
@@ -0,0 +1,114 @@
+package ovh.maddie480.randomstuff.backend.discord.questcommunitybot.leveling;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LevelingLedgerTest {
+    private static final long ALICE = 1;
+    private static final long BOB = 2;
+
+    @Test
+    void concurrentTransfersAndXpGainsKeepTotals() throws Exception {
+        ConcurrentHashMap<Long, Long> cash = new ConcurrentHashMap<>();
+        ConcurrentHashMap<Long, Long> xp = new ConcurrentHashMap<>();
+        cash.put(ALICE, 1_000_000L);
+        cash.put(BOB, 1_000_000L);
+        LevelingLedger ledger = new LevelingLedger(cash, xp);
+
+        int rounds = 200_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> tasks = new ArrayList<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // commands moving cash back and forth, while both members keep talking and gaining XP and cash
+            tasks.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < rounds; i++) ledger.transfer(ALICE, BOB, 3);
+                return null;
+            }));
+            tasks.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < rounds; i++) ledger.transfer(BOB, ALICE, 2);
+                return null;
+            }));
+            tasks.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < rounds; i++) ledger.gainXp(ALICE, 10, 1);
+                return null;
+            }));
+            tasks.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < rounds; i++) ledger.gainXp(BOB, 20, 1);
+                return null;
+            }));
+
+            start.countDown();
+            for (Future<?> task : tasks) task.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1_000_000L + rounds * (-3 + 2 + 1), ledger.getCash(ALICE));
+        assertEquals(1_000_000L + rounds * (3 - 2 + 1), ledger.getCash(BOB));
+        assertEquals(rounds * 10L, ledger.getXp(ALICE));
+        assertEquals(rounds * 20L, ledger.getXp(BOB));
+    }
+
+    @Test
+    void concurrentSpendingNeverGoesNegative() throws Exception {
+        ConcurrentHashMap<Long, Long> cash = new ConcurrentHashMap<>();
+        cash.put(ALICE, 100_000L);
+        LevelingLedger ledger = new LevelingLedger(cash, new ConcurrentHashMap<>());
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> tasks = new ArrayList<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int t = 0; t < 4; t++) {
+                tasks.add(executor.submit(() -> {
+                    start.await();
+                    int successes = 0;
+                    for (int i = 0; i < 100_000; i++) {
+                        if (ledger.transfer(ALICE, BOB, 1)) successes++;
+                    }
+                    return successes;
+                }));
+            }
+
+            start.countDown();
+            int successes = 0;
+            for (Future<Integer> task : tasks) successes += task.get();
+            assertEquals(100_000, successes);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, ledger.getCash(ALICE));
+        assertEquals(100_000, ledger.getCash(BOB));
+    }
+
+    @Test
+    void spendFailsWithoutEnoughCash() {
+        ConcurrentHashMap<Long, Long> cash = new ConcurrentHashMap<>();
+        cash.put(ALICE, 10L);
+        LevelingLedger ledger = new LevelingLedger(cash, new ConcurrentHashMap<>());
+
+        assertFalse(ledger.spend(ALICE, 11));
+        assertEquals(10, ledger.getCash(ALICE));
+        assertTrue(ledger.spend(ALICE, 10));
+        assertEquals(0, ledger.getCash(ALICE));
+    }
+}